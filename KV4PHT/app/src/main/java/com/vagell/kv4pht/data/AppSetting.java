@@ -43,6 +43,7 @@ public class AppSetting {
     public static final String SETTING_DISABLE_ANIMATIONS = "disableAnimations";
     public static final String SETTING_APRS_POSITION_ACCURACY = "aprsPositionAccuracy";
     public static final String SETTING_APRS_BEACON_POSITION = "aprsBeaconPosition";
+    public static final String SETTING_APRS_PLL = "aprsPll";
     public static final String SETTING_CALLSIGN = "callsign";
     public static final String SETTING_STICKY_PTT = "stickyPTT";
     public static final String SETTING_SSTV_AUDIO_SOURCE = "sstvAudioSource";
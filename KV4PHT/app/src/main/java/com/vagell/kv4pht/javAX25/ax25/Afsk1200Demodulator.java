@@ -26,18 +26,11 @@ public class Afsk1200Demodulator
   //implements HalfduplexSoundcardClient 
   {
   
-private float[] td_filter;
-  private float[] cd_filter;
-  
-  private int rate_index;
-  
 	private int sample_rate;
 	//private int samples_per_bit;
 	private float samples_per_bit;
 	//private float[] u1, u2, x, f0_cos, f0_sin, f1_cos, f1_sin;
-	private float[] u1, x;
-	private float[] c0_real, c0_imag, c1_real, c1_imag;
-	private float[] diff;
+	private final AfskDiscriminator discriminator;
 	//private float[] fdiff;
 	private float previous_fdiff;
 	private int f0_i=0, f1_i=0;
@@ -50,7 +43,8 @@ private float[] td_filter;
 	private float phase_inc_f0, phase_inc_f1;
 	private float phase_inc_symbol;
 	
-	private Packet packet; // received packet
+	private Packet packet; // received packet, null between frames
+	private final Packet rx_packet = new Packet(); // reused for every frame
 	private PacketHandler handler;
 	
 	private static enum State {
@@ -62,14 +56,8 @@ private float[] td_filter;
 	
 	//TransmitController transmit_controller;
 	
-	private int filter_index;
-	
 	private int emphasis;
 	
-	private boolean interpolate = false;
-	private float   interpolate_last;
-	private boolean interpolate_original;
-	
 	/*
 	 * Diagnostic variables for estimating packet quality
 	 */
@@ -78,6 +66,18 @@ private float[] td_filter;
 	private float f0_max, f1_min; // to collect average max, min in the filtered diff signal
 	private float f0_current_max, f1_current_min; 
 	private float max_period_error;
+
+	/*
+	 * Optional CRC-guided repair of frames that fail the FCS check: where the
+	 * current frame's bit boundaries fell and how confidently they were timed.
+	 */
+	private int     repair_budget = 0;
+	private int[]   boundary_bits;
+	private float[] boundary_margins;
+	private int     boundary_count;
+	private int     frame_bits;
+
+	private final DemodulatorMetrics metrics = new DemodulatorMetrics();
 		
 	private void statisticsInit() {
 		f0_period_count = 0;
@@ -90,6 +90,12 @@ private float[] td_filter;
 	private void statisticsFinalize() {
 		f0_max = f0_max / f0_period_count;
 		f1_min = f1_min / f1_period_count;
+		float ratio = f0_max / -f1_min;
+		if (!Float.isNaN(ratio) && !Float.isInfinite(ratio)) {
+			metrics.level_ratio_sum += ratio;
+			metrics.last_level_ratio = ratio;
+		}
+		metrics.last_period_error = max_period_error;
 		//System.out.printf("%ddB avg(f0_extremes)/avg(f1_extremes) = %.2f period_rel_err = %.02f\n",
 	  //			          emphasis,f0_max / -f1_min, max_period_error);
 	}
@@ -99,102 +105,29 @@ private float[] td_filter;
 	}
 
   public Afsk1200Demodulator(int sample_rate, int filter_length, int emphasis, PacketHandler h) {
+  	this(sample_rate,filter_length,emphasis,0.0f,h);
+  }
+
+  /*
+   * timing_offset is the relative bit clock error of the senders this instance
+   * should favor, e.g. 0.02 for transmitters running 2% fast (1224 baud).
+   */
+  public Afsk1200Demodulator(int sample_rate, int filter_length, int emphasis, float timing_offset, PacketHandler h) {
   	super(sample_rate==8000 ? 16000 : sample_rate);
   	
-  	if (sample_rate==8000) {
-  		interpolate = true;
-  		sample_rate = 16000;
-  	}
-  	
   	this.emphasis = emphasis;
   	//transmit_controller = c;
-	  for (rate_index=0; rate_index<Afsk1200Filters.sample_rates.length; rate_index++) {
-	  	if (Afsk1200Filters.sample_rates[rate_index] == sample_rate) break;
-	  }
-		if (rate_index == Afsk1200Filters.sample_rates.length) {
-			throw new RuntimeException("Sample rate "+sample_rate+" not supported");
-		}
+		discriminator = new AfskDiscriminator(sample_rate, filter_length, emphasis);
+		sample_rate = discriminator.sample_rate;
 			
 		handler = h;
 		this.sample_rate = sample_rate;
-		this.samples_per_bit = (float) sample_rate / 1200.0f;
-		System.err.printf("samples per bit = %.3f\n", this.samples_per_bit);
+		this.samples_per_bit = (float) sample_rate / (1200.0f * (1.0f + timing_offset));
 		//this.samples_per_bit = Afsk1200Filters.bit_periods[rate_index]; // this needs to be computed locally
 		
-		//if (samples_per_bit * 1200 != sample_rate) {
-		//	throw new Exception("Sample rate must be divisible by 1200");
-		//}
-		//System.out.printf("%d samples per bit\n",samples_per_bit);
-		//x      = new float[samples_per_bit];    
-		//u1     = new float[samples_per_bit];    
-		//u2     = new float[samples_per_bit];  
-		
-		float[][][] tdf;
-		switch (emphasis) {
-		case 0:
-  		tdf = Afsk1200Filters.time_domain_filter_none; 
-  		break;
-		case 6:
-  		tdf = Afsk1200Filters.time_domain_filter_full;
-  		break;
-		default:
-			System.err.printf("Filter for de-emphasis of %ddB is not availabe, using 6dB\n",
-					emphasis);
-			tdf = Afsk1200Filters.time_domain_filter_full;
-			break;
-		}
-		
-		for (filter_index=0; filter_index<tdf.length; filter_index++) {
-			System.err.printf("Available filter length %d\n",tdf[filter_index][rate_index].length);
-			if (filter_length == tdf[filter_index][rate_index].length) {
-				System.err.printf("Using filter length %d\n",filter_length);
-				break;
-			}
-		}
-		if (filter_index==tdf.length) {
-			filter_index=tdf.length-1;
-			System.err.printf("Filter length %d not supported, using length %d\n",
-					filter_length,
-					tdf[filter_index][rate_index].length);
-		}
-		
-		td_filter = tdf[filter_index][rate_index];
-		cd_filter = Afsk1200Filters.corr_diff_filter[filter_index][rate_index];
-		
-		//System.out.printf("filter lengths are %d and %d\n",td_filter.length,cd_filter.length);
-
-		x      = new float[td_filter.length];    
-		u1     = new float[td_filter.length];    
-		//u2     = new float[samples_per_bit];    
-
-		//f0_cos = new float[samples_per_bit];    // f0=1200Hz so we have exactly one cycle.
-		//f0_sin = new float[samples_per_bit];
-		//f1_cos = new float[6*samples_per_bit]; // f0=2200Hz so 11 cycles fit exactly in 6 bit periods.
-		//f1_sin = new float[6*samples_per_bit]; // otherwise we would have had to compute sin/cos
-
-		c0_real = new float[(int) Math.floor(samples_per_bit)];
-		c0_imag = new float[(int) Math.floor(samples_per_bit)];
-		c1_real = new float[(int) Math.floor(samples_per_bit)];
-		c1_imag = new float[(int) Math.floor(samples_per_bit)];
-
-		//diff    = new float[samples_per_bit];
-		//fdiff   = new float[samples_per_bit];
-		diff    = new float[cd_filter.length];
-		//fdiff   = new float[corr_diff_filter[rate_index].length]; // can be length 2
-		
 		phase_inc_f0 = (float) (2.0*Math.PI*1200.0/sample_rate);
 		phase_inc_f1 = (float) (2.0*Math.PI*2200.0/sample_rate);
 		phase_inc_symbol = (float) (2.0*Math.PI*1200.0/sample_rate);
-		//time_inc = (float) (2.0*Math.PI*i/sample_rate);
-		
-		//for (int i=0; i<6*samples_per_bit; i++) {
-		//	float time = (float) (2.0*Math.PI*i/sample_rate);
-		//	f1_cos[i] = (float) Math.cos(2200.0*time);
-		//	f1_sin[i] = (float) Math.sin(2200.0*time);
-		//	if (i>=samples_per_bit) continue;
-		//	f0_cos[i] = (float) Math.cos(1200.0*time);
-		//	f0_sin[i] = (float) Math.sin(1200.0*time);
-		//}
 		
 		//System.out.printf("Size of symbol sync filter is %d\n", symbol_sync_filter.length);
 	}
@@ -202,6 +135,34 @@ private float[] td_filter;
   private volatile boolean data_carrier = false;
   public boolean dcd() { return data_carrier; }
 
+  public int sampleTime() { return t; }
+
+  public void setRepairBudget(int budget) {
+  	repair_budget = budget;
+  	if (budget > 0 && boundary_bits == null) {
+  		boundary_bits    = new int[Packet.MAX_FRAME_SIZE*8];
+  		boundary_margins = new float[Packet.MAX_FRAME_SIZE*8];
+  	}
+  }
+
+  // frames delivered only thanks to bit repair
+  public int repairedCount() { return metrics.repaired; }
+
+  public int   filterLength()  { return discriminator.td_filter.length; }
+  public float samplesPerBit() { return samples_per_bit; }
+
+  public DemodulatorMetrics metrics(DemodulatorMetrics into) {
+  	metrics.copyTo(into);
+  	return into;
+  }
+
+	private boolean repairPacket() {
+		if (repair_budget <= 0) return false;
+		if (packet.repair(boundary_bits, boundary_margins, boundary_count, repair_budget) == 0) return false;
+		metrics.repaired++;
+		return true;
+	}
+
 	private float correlation(float[] x, float[] y, int j) {
 		float c = (float) 0.0;
 		for (int i=0; i<x.length; i++) {
@@ -212,22 +173,6 @@ private float[] td_filter;
 		return c;
 	}
 
-	private float sum(float[] x, int j) {
-		float c = (float) 0.0;
-		for (int i=0; i<x.length; i++) {
-			c += x[j];
-			j--;
-			if (j==-1) j=x.length - 1;
-		}
-		return c;
-	}
-	
-	private int j_td;   // time domain index 
-	private int j_cd;   // time domain index 
-	private int j_corr; // correlation index 
-	
-	private float phase_f0, phase_f1;
-	
 	//private int j;    // sample index, rolls over each bit period 
 	//private int j_f1; // sample index
 	private int t; // running sample counter
@@ -246,75 +191,18 @@ private float[] td_filter;
 	private boolean vox_state = false; 
 	
 	protected void addSamplesPrivate(float[] s, int n) {
-		//for (int i=0; i<n; i++) {
 		int i = 0;
 		while (i<n) {
-			float   sample;
-			if (interpolate) {
-				if (interpolate_original) {
-					sample = s[i];
-					interpolate_last = sample;
-					interpolate_original = false;
-					i++;
-				} else {
-					sample = 0.5f * (s[i] + interpolate_last);
-					interpolate_original = true;
-				}
-			} else {
-				sample = s[i];
-				i++;
-			}
-			
-			//if (sample > vox_threshold || sample < -vox_threshold) {
-			//	vox_countdown = sample_rate; // 1s lingering
-			//	if (vox_state==false)
-			//		System.err.println("vox activating");
-			//	vox_state = true;
-			//}
-			
-			//if (vox_countdown == 0) {
-			//	if (vox_state==true)
-			//		System.err.println("vox deactivating");
-			//	vox_state = false;
-			//	continue;
-			//} else vox_countdown--;
-			
-			u1[j_td]= sample;			
-			//u1[j_td]= s[i];			
-			//u2[j] = Filter.filter(u1, j, Filter.BANDPASS_1150_1250_48000_39);
-			//x[j]  = Filter.filter(u2, j, Filter.BANDPASS_2150_2250_48000_39);
-			//u2[j] = Filter.filter(u1, j, Filter.BANDPASS_1150_1250_48000_39);
-			x[j_td]  = Filter.filter(u1, j_td, td_filter);
-						
-			// compute correlation running value
-			//c0_real[j] = x[j_td]*f0_cos[j];
-			//c0_imag[j] = x[j_td]*f0_sin[j];
-			//
-			//c1_real[j] = x[j_td]*f1_cos[j_f1];
-			//c1_imag[j] = x[j_td]*f1_sin[j_f1];
-			
-			c0_real[j_corr] = x[j_td]*(float) Math.cos(phase_f0);
-			c0_imag[j_corr] = x[j_td]*(float) Math.sin(phase_f0);
-			
-			c1_real[j_corr] = x[j_td]*(float) Math.cos(phase_f1);
-			c1_imag[j_corr] = x[j_td]*(float) Math.sin(phase_f1);
-			
-			phase_f0 += phase_inc_f0; if (phase_f0 > (float) 2.0*Math.PI) phase_f0 -= (float) 2.0*Math.PI;
-			phase_f1 += phase_inc_f1; if (phase_f1 > (float) 2.0*Math.PI) phase_f1 -= (float) 2.0*Math.PI;
-
-			float cr = sum(c0_real,j_corr);
-			float ci = sum(c0_imag,j_corr);
-			float c0 = (float) Math.sqrt(cr*cr + ci*ci);
+			i = discriminator.process(s, i, n);
+			processBlock(discriminator.block, discriminator.length);
+		}
+	}
 
-			      cr = sum(c1_real,j_corr);
-			      ci = sum(c1_imag,j_corr);
-			float c1 = (float) Math.sqrt(cr*cr + ci*ci);
-			
-			//diff[j_corr] = c0-c1;
-			diff[j_cd] = c0-c1;
-			//fdiff[j_corr] = Filter.filter(diff,j_corr,Filter.LOWPASS_1200_48000_39);
-			//float fdiff = Filter.filter(diff,j_corr,cd_filter);
-			float fdiff = Filter.filter(diff,j_cd,cd_filter);
+	private void processBlock(float[] block, int n) {
+		int carrier = 0;
+		for (int j=0; j<n; j++) {
+			if (state != State.WAITING) carrier++;
+			float fdiff = block[j];
 
 			//System.out.printf("%d %f %f : ",j,diff[j],fdiff[j]);
 			//System.out.printf("%d %f %f %f %f : ",j,f0_cos[j],f0_sin[j],f1_cos[j_f1],f1_sin[j_f1]);
@@ -331,22 +219,21 @@ private float[] td_filter;
 				//System.out.printf("$ %f %d\n",(double) p / (double)samples_per_bit,bits);
 				
 				// collect statistics
+				double err = Math.abs(bits - ((double) p / (double)samples_per_bit));
+				//System.out.printf(")) %.02f %d %.02f\n",(double) p / (double)samples_per_bit,bits,err);
+				if (err > max_period_error) max_period_error = (float) err;
+				if (state != State.WAITING) {
+					int bin = (int) (err / DemodulatorMetrics.PERIOD_ERROR_BIN_WIDTH);
+					metrics.period_error[Math.min(bin, DemodulatorMetrics.PERIOD_ERROR_BINS-1)]++;
+				}
 				if (fdiff < 0) { // last period was high, meaning f0
 					f0_period_count++;
 					f0_max += f0_current_max;
-					double err = Math.abs(bits - ((double) p / (double)samples_per_bit));
-					//System.out.printf(")) %.02f %d %.02f\n",(double) p / (double)samples_per_bit,bits,err);
-					if (err > max_period_error) max_period_error = (float) err;
-					
 					// prepare for the period just starting now
 					f1_current_min = fdiff;
 				} else {
 					f1_period_count++;
 					f1_min += f1_current_min;
-					double err = Math.abs(bits - ((double) p / (double)samples_per_bit));
-					//System.out.printf(")) %.02f %d %.02f\n",(double) p / (double)samples_per_bit,bits,err);
-					if (err > max_period_error) max_period_error = (float) err;
-					
 					// prepare for the period just starting now
 					f0_current_max = fdiff;
 				}
@@ -373,21 +260,23 @@ private float[] td_filter;
 		    		case JUST_SEEN_FLAG:
   		    		break;
 		    		case DECODING:
-		    			if (packet!=null && packet.terminate()) {
+		    			if (packet!=null && (packet.terminate() || repairPacket())) {
 		    				statisticsFinalize();
-		    				packet.statistics(new float[] {emphasis,f0_max/-f1_min,max_period_error});
-		    				//System.out.print(String.format("%ddB:%.02f:%.02f\n", 
-		    			  //			              emphasis,f0_max/-f1_min,max_period_error));
+		    				metrics.frames++;
 		    				if (handler!=null)
-		    				  handler.handlePacket(packet.bytesWithoutCRC());
+		    				  handler.handlePacket(packet.buffer(), 0, packet.size()-2);
 		    				else {
 		    					System.out.println((++decode_count)+": "+packet);
 		    				}
+		    			} else if (packet!=null && packet.size() >= 18) {
+		    				metrics.crc_failures++;
 		    			}
 		    			packet = null;
 		    			state=State.JUST_SEEN_FLAG;
 		    			break;
 		    		}
+		    		frame_bits = 0;
+		    		boundary_count = 0;
 		    	} else {
 		    		switch (state) {
 		    		case WAITING:
@@ -409,11 +298,15 @@ private float[] td_filter;
 		    			}
 		    			
 			    		for (int k=0; k<bits-1; k++) {
+			    			frame_bits++;
 			    			bitcount++;
 			    			data >>= 1;
 			    			data += 128;
 			    			if (bitcount==8) {
-				    			if (packet==null) packet = new Packet();
+				    			if (packet==null) {
+				    				packet = rx_packet;
+				    				packet.clear();
+				    			}
 			    				//if (data==0xAA) packet.terminate();
 			    				if (!packet.addByte((byte) data)) {
 			    					state=State.WAITING; 
@@ -425,10 +318,19 @@ private float[] td_filter;
 			    			}
 			    		}
 			    		if (bits-1 != 5) { // the zero after the ones is not a stuffing
+			    			if (repair_budget > 0 && boundary_count < boundary_bits.length) {
+			    				boundary_bits[boundary_count] = frame_bits;
+			    				boundary_margins[boundary_count] = 0.5f - (float) Math.abs(bits - ((double) p / (double)samples_per_bit));
+			    				boundary_count++;
+			    			}
+			    			frame_bits++;
 			    			bitcount++;
 			    			data >>= 1;
 			    			if (bitcount==8) {
-				    			if (packet==null) packet = new Packet();
+				    			if (packet==null) {
+				    				packet = rx_packet;
+				    				packet.clear();
+				    			}
 			    				//if (data==0xAA) packet.terminate();
 			    				if (!packet.addByte((byte) data)) {
 			    					state=State.WAITING; 
@@ -447,21 +349,8 @@ private float[] td_filter;
 			previous_fdiff = fdiff;
 			
 			t++;
-			
-			j_td++;
-			if (j_td==td_filter.length) j_td=0;
-
-			j_cd++;
-			if (j_cd==cd_filter.length) j_cd=0;
-
-			j_corr++;
-			if (j_corr==c0_real.length /* samples_per_bit*/) j_corr=0;
-
-			//j++;
-			//if (j==samples_per_bit) j=0;
-			
-			//j_f1++;
-			//if (j_f1==6*samples_per_bit) j_f1=0;
 		}
+		metrics.samples     += n;
+		metrics.dcd_samples += carrier;
 	}
 }
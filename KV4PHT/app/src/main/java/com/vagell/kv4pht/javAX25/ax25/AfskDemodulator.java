@@ -0,0 +1,122 @@
+/*
+ * Audio FSK modem for AX25, any baud rate and tone pair (e.g. 1200 Baud
+ * 1200/2200Hz on VHF, 300 Baud 1600/1800Hz on HF).
+ * This demodulator recovers the bit clock with a digital PLL and decides
+ * each bit at the center of the eye, instead of rounding the time between
+ * transitions to a number of bits as Afsk1200Demodulator does.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+public class AfskDemodulator extends PacketDemodulator {
+
+	/*
+	 * The bit clock is a 32-bit phase that advances 2^32 per bit period and
+	 * wraps from +2^31 to -2^31 at the center of a bit, where the bit is
+	 * decided. Transitions belong at phase 0; each one scales the phase
+	 * towards 0, by less once a frame is being received.
+	 */
+	private static final float SEARCHING_INERTIA = 0.50f;
+	private static final float LOCKED_INERTIA    = 0.60f;
+	private static final double PHASE_SCALE      = 4294967296.0; // 2^32
+
+	private final AfskDiscriminator discriminator;
+	private final int pll_step;
+	private int     pll;
+	private boolean sample_level;     // discriminator sign at the previous sample
+	private boolean bit_level;        // discriminator sign at the previous decision
+	private float   transition_margin = 0.5f; // of the weakest transition since the last decision
+
+	private final DemodulatorMetrics metrics = new DemodulatorMetrics();
+	private final HdlcReceiver hdlc;
+	private int t; // running sample counter
+
+	public AfskDemodulator(int sample_rate, int baud, int mark, int space, PacketHandler h) {
+		this(new AfskDiscriminator(sample_rate, baud, mark, space), baud, 0.0f, h);
+	}
+
+	/*
+	 * timing_offset is the relative bit clock error the PLL starts from, the
+	 * PLL tracks the rest.
+	 */
+	AfskDemodulator(AfskDiscriminator discriminator, int baud, float timing_offset, PacketHandler h) {
+		super(discriminator.sample_rate);
+		this.discriminator = discriminator;
+		float samples_per_bit = (float) discriminator.sample_rate / (baud * (1.0f + timing_offset));
+		pll_step = (int) Math.round(PHASE_SCALE / samples_per_bit);
+		hdlc = new HdlcReceiver(h, metrics);
+	}
+
+	public boolean dcd() { return hdlc.data_carrier; }
+
+	public int sampleTime() { return t; }
+
+	public int filterLength() { return discriminator.td_filter.length; }
+
+	public void setRepairBudget(int budget) { hdlc.setRepairBudget(budget); }
+
+	public DemodulatorMetrics metrics(DemodulatorMetrics into) {
+		metrics.copyTo(into);
+		return into;
+	}
+
+	protected void addSamplesPrivate(float[] s, int n) {
+		int i = 0;
+		while (i<n) {
+			i = discriminator.process(s, i, n);
+			processBlock(discriminator.block, discriminator.length);
+		}
+	}
+
+	private void processBlock(float[] block, int n) {
+		int carrier = 0;
+		boolean in_frame = hdlc.inFrame();
+		for (int j=0; j<n; j++) {
+			float x = block[j];
+			boolean level = x > 0.0f;
+
+			if (level != sample_level) {
+				float err = (float) (Math.abs((double) pll) / PHASE_SCALE); // 0..0.5 of a bit
+				if (in_frame) {
+					int bin = (int) (err / DemodulatorMetrics.PERIOD_ERROR_BIN_WIDTH);
+					metrics.period_error[Math.min(bin, DemodulatorMetrics.PERIOD_ERROR_BINS-1)]++;
+					if (err > hdlc.frame_period_error) hdlc.frame_period_error = err;
+				}
+				if (0.5f - err < transition_margin) transition_margin = 0.5f - err;
+				pll = (int) (pll * (in_frame ? LOCKED_INERTIA : SEARCHING_INERTIA));
+				sample_level = level;
+			}
+
+			int previous = pll;
+			pll += pll_step;
+			if (pll < previous) { // wrapped: center of a bit
+				hdlc.receiveBit(level == bit_level, transition_margin);
+				bit_level = level;
+				transition_margin = 0.5f;
+				in_frame = hdlc.inFrame();
+			}
+
+			if (in_frame) {
+				carrier++;
+				if (x > hdlc.frame_max) hdlc.frame_max = x;
+				if (x < hdlc.frame_min) hdlc.frame_min = x;
+			}
+			t++;
+		}
+		metrics.samples     += n;
+		metrics.dcd_samples += carrier;
+	}
+}
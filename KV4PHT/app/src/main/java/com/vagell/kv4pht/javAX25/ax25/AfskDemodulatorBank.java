@@ -0,0 +1,306 @@
+/*
+ * Audio FSK modem for AX25 (1200 Baud, 1200/2200Hz).
+ * This class runs a configurable set of demodulators over the same audio,
+ * optionally in parallel, and merges their output into one packet stream.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class AfskDemodulatorBank extends PacketDemodulator {
+
+	// how a variant recovers bits, see Afsk1200Demodulator and AfskPllDemodulator
+	public enum BitClock { TRANSITIONS, PLL }
+
+	/*
+	 * One demodulator configuration. emphasis is the de-emphasis filter in dB
+	 * (0 or 6), filter_length selects the filter table entry (0 picks the
+	 * shortest, an unsupported length the longest one), and timing_offset is the relative bit
+	 * clock error the demodulator favors (e.g. 0.02 for senders 2% fast).
+	 */
+	public static class Variant {
+		public final int      emphasis;
+		public final int      filter_length;
+		public final float    timing_offset;
+		public final BitClock clock;
+		public Variant(int emphasis, int filter_length, float timing_offset, BitClock clock) {
+			this.emphasis = emphasis;
+			this.filter_length = filter_length;
+			this.timing_offset = timing_offset;
+			this.clock = clock;
+		}
+		public Variant(int emphasis, int filter_length, float timing_offset) {
+			this(emphasis, filter_length, timing_offset, BitClock.TRANSITIONS);
+		}
+		PacketDemodulator create(int sample_rate, PacketHandler h) {
+			if (clock == BitClock.PLL) return new AfskPllDemodulator(sample_rate, filter_length, emphasis, timing_offset, h);
+			return new Afsk1200Demodulator(sample_rate, filter_length, emphasis, timing_offset, h);
+		}
+		@Override
+		public String toString() {
+			return clock+"/"+emphasis+"dB/"+filter_length+"/"+timing_offset;
+		}
+	}
+
+	// the flat and de-emphasized pair that Afsk1200MultiDemodulator has always used
+	public static final Variant[] DEFAULT_VARIANTS = {
+		new Variant(0, 1, 0.0f),
+		new Variant(6, 1, 0.0f)
+	};
+
+	// adds bit clock tolerance on both sides for phones with cores to spare
+	public static final Variant[] WIDE_VARIANTS = {
+		new Variant(0, 1, 0.0f),
+		new Variant(6, 1, 0.0f),
+		new Variant(6, 1, -0.02f),
+		new Variant(6, 1, 0.02f)
+	};
+
+	// PLL bit clock with one-bit filters: as good or better on weak signals at half the filter cost
+	public static final Variant[] PLL_VARIANTS = {
+		new Variant(0, 0, 0.0f, BitClock.PLL),
+		new Variant(6, 0, 0.0f, BitClock.PLL)
+	};
+
+	// a decoded frame waiting for merge(); recycled once delivered
+	private static class Frame {
+		int    time;
+		int    variant;
+		int    length;
+		final byte[] bytes = new byte[Packet.MAX_FRAME_SIZE];
+	}
+
+	private class Channel implements PacketHandler {
+		final int variant;
+		final PacketDemodulator demodulator;
+		final List<Frame> frames = new ArrayList<Frame>(); // decoded during the current block
+		final List<Frame> spare  = new ArrayList<Frame>();
+		int next; // first frame of this block not merged yet
+		Channel(int sample_rate, int variant, Variant v) {
+			this.variant = variant;
+			demodulator = v.create(sample_rate, this);
+		}
+		public void handlePacket(byte[] bytes) {
+			handlePacket(bytes, 0, bytes.length);
+		}
+		public void handlePacket(byte[] buffer, int offset, int length) {
+			Frame f = spare.isEmpty() ? new Frame() : spare.remove(spare.size()-1);
+			f.time = demodulator.sampleTime();
+			f.variant = variant;
+			f.length = length;
+			System.arraycopy(buffer, offset, f.bytes, 0, length);
+			frames.add(f);
+		}
+	}
+
+	/*
+	 * Persistent worker parked between blocks; worker w runs channels w+1,
+	 * w+1+workers.length, ... Handing a block over allocates nothing.
+	 */
+	private class Worker extends Thread {
+		final int index;
+		Worker(int index) {
+			super("AfskDemodulatorBank-"+index);
+			this.index = index;
+			setDaemon(true);
+		}
+		public void run() {
+			int seen = 0;
+			while (!closed) {
+				if (generation == seen) {
+					LockSupport.park(this);
+					continue;
+				}
+				seen = generation;
+				try {
+					for (int c=index+1; c<channels.length; c+=workers.length) {
+						channels[c].demodulator.addSamples(block, block_length);
+					}
+				} catch (Throwable e) {
+					failure = e;
+				} finally {
+					if (pending.decrementAndGet() == 0) LockSupport.unpark(caller);
+				}
+			}
+		}
+	}
+
+	private final Variant[] variants;
+	private final Channel[] channels;
+	private final Worker[]  workers;
+	private final PacketHandler h;
+
+	// shared with the worker threads for the duration of one block, published
+	// by the write to generation
+	private float[] block;
+	private int     block_length;
+	private Thread  caller;
+	private volatile int generation;
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile Throwable failure;
+	private volatile boolean closed;
+
+	// one window suppresses both the copies decoded by several variants and
+	// digipeated repeats; time is measured in audio, not on the wall clock
+	public static final long DEFAULT_DUPLICATE_WINDOW_MS = 30000;
+	private static final int DUPLICATE_CAPACITY = 256;
+	private final FrameDeduplicator dedup = new FrameDeduplicator(DEFAULT_DUPLICATE_WINDOW_MS, DUPLICATE_CAPACITY);
+	private final int clock_rate;
+	private long sample_clock;
+	private int  dup_count;
+	private final int[] decode_counts;
+	private final int[] dup_counts;
+	private final DemodulatorMetrics scratch = new DemodulatorMetrics();
+
+	/*
+	 * threads is the number of worker threads in addition to the caller; 0 runs
+	 * every variant sequentially on the calling thread.
+	 */
+	public AfskDemodulatorBank(int sample_rate, Variant[] variants, int threads, PacketHandler h) {
+		super(sample_rate);
+		if (variants.length == 0) throw new IllegalArgumentException("At least one variant is required");
+		this.variants = variants.clone();
+		this.h = h;
+		clock_rate = sample_rate;
+		channels = new Channel[variants.length];
+		for (int i=0; i<variants.length; i++) {
+			channels[i] = new Channel(sample_rate, i, variants[i]);
+		}
+		decode_counts = new int[variants.length];
+		dup_counts = new int[variants.length];
+		threads = Math.min(threads, variants.length-1);
+		workers = new Worker[Math.max(0, threads)];
+		for (int i=0; i<workers.length; i++) {
+			workers[i] = new Worker(i);
+			workers[i].start();
+		}
+	}
+
+	/*
+	 * A sensible worker count for this device: leave one core for the USB and
+	 * audio threads.
+	 */
+	public static int defaultThreads(Variant[] variants) {
+		return Math.max(0, Math.min(variants.length-1, Runtime.getRuntime().availableProcessors()-2));
+	}
+
+	public Variant[] variants() { return variants.clone(); }
+
+	public int duplicateCount() { return dup_count; }
+
+	/*
+	 * A frame equal to one delivered less than window_ms of audio earlier,
+	 * ignoring the digipeater path, is dropped. 0 disables duplicate removal.
+	 */
+	public void setDuplicateWindow(long window_ms) {
+		dedup.setWindow(window_ms);
+		dedup.clear();
+	}
+
+	public int decodeCount(int variant) { return decode_counts[variant]; }
+
+	/*
+	 * Copies one variant's counters into the given object and returns it;
+	 * duplicates is the number of that variant's frames the bank dropped.
+	 */
+	public DemodulatorMetrics metrics(int variant, DemodulatorMetrics into) {
+		channels[variant].demodulator.metrics(into);
+		into.duplicates = dup_counts[variant];
+		return into;
+	}
+
+	// the sum over all variants, see DemodulatorMetrics.add()
+	public synchronized DemodulatorMetrics metrics(DemodulatorMetrics into) {
+		into.reset();
+		for (int i=0; i<channels.length; i++) into.add(metrics(i, scratch));
+		return into;
+	}
+
+	// see Afsk1200Demodulator.setRepairBudget(); applies to every variant
+	public void setRepairBudget(int budget) {
+		for (Channel c : channels) c.demodulator.setRepairBudget(budget);
+	}
+
+	// frames recovered by bit repair, summed over variants before duplicate removal
+	public synchronized int repairedCount() {
+		int n = 0;
+		for (Channel c : channels) n += c.demodulator.metrics(scratch).repaired;
+		return n;
+	}
+
+	protected void addSamplesPrivate(float[] s, int n) {
+		if (workers.length == 0) {
+			for (Channel c : channels) c.demodulator.addSamples(s, n);
+		} else {
+			block = s;
+			block_length = n;
+			caller = Thread.currentThread();
+			failure = null;
+			pending.set(workers.length);
+			generation++;
+			for (Worker w : workers) LockSupport.unpark(w);
+			channels[0].demodulator.addSamples(s, n);
+			while (pending.get() > 0) LockSupport.park(this);
+			block = null;
+			if (failure != null) throw new RuntimeException("Demodulator variant failed", failure);
+		}
+		sample_clock += n;
+		merge(sample_clock * 1000 / clock_rate);
+	}
+
+	// delivers this block's frames in the order they ended in the audio
+	private void merge(long now) {
+		while (true) {
+			Channel first = null;
+			for (Channel c : channels) {
+				if (c.next == c.frames.size()) continue;
+				if (first == null || c.frames.get(c.next).time - first.frames.get(first.next).time < 0) first = c;
+			}
+			if (first == null) break;
+			Frame f = first.frames.get(first.next++);
+			if (dedup.window() > 0 && dedup.isDuplicate(f.bytes, 0, f.length, now)) {
+				dup_count++;
+				dup_counts[f.variant]++;
+			} else {
+				decode_counts[f.variant]++;
+				if (h != null) h.handlePacket(f.bytes, 0, f.length);
+			}
+		}
+		for (Channel c : channels) {
+			for (int i=0; i<c.frames.size(); i++) c.spare.add(c.frames.get(i));
+			c.frames.clear();
+			c.next = 0;
+		}
+	}
+
+	public int sampleTime() { return (int) sample_clock; }
+
+	public boolean dcd() {
+		for (Channel c : channels) {
+			if (c.demodulator.dcd()) return true;
+		}
+		return false;
+	}
+
+	public void close() {
+		closed = true;
+		for (Worker w : workers) LockSupport.unpark(w);
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Audio FSK modem for AX25.
+ * The front end shared by the demodulators: turns audio into a signal that is
+ * positive while the mark tone (1200Hz for Bell 202) dominates and negative
+ * during the space tone.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+final class AfskDiscriminator {
+
+	static final int MAX_BLOCK = 2048; // larger inputs are split, an Opus frame is 1920 samples
+
+	final int     sample_rate; // of the output; low input rates are interpolated to twice the rate
+	final float[] td_filter;
+	final float[] cd_filter;
+
+	// output of the last process() call, valid until the next one
+	final float[] block = new float[MAX_BLOCK];
+	int length;
+
+	private final FirFilter td_fir, cd_fir;
+	private final ToneCorrelator c0_corr, c1_corr;
+
+	private final boolean interpolate;
+	private float   interpolate_last;
+	private boolean interpolate_original;
+
+	/*
+	 * The 1200 Baud, 1200/2200Hz front end from the Afsk1200Filters tables.
+	 * emphasis is 0 or 6 (dB, anything else means 6); filter_length selects
+	 * one of the Afsk1200Filters lengths for this rate, 0 the shortest one and
+	 * anything else the longest one.
+	 */
+	AfskDiscriminator(int sample_rate, int filter_length, int emphasis) {
+		interpolate = (sample_rate == 8000);
+		if (interpolate) sample_rate = 16000;
+		this.sample_rate = sample_rate;
+
+		int rate_index;
+		for (rate_index=0; rate_index<Afsk1200Filters.sample_rates.length; rate_index++) {
+			if (Afsk1200Filters.sample_rates[rate_index] == sample_rate) break;
+		}
+		if (rate_index == Afsk1200Filters.sample_rates.length) {
+			throw new RuntimeException("Sample rate "+sample_rate+" not supported");
+		}
+
+		float[][][] tdf = (emphasis == 0) ? Afsk1200Filters.time_domain_filter_none
+		                                  : Afsk1200Filters.time_domain_filter_full;
+		int filter_index;
+		for (filter_index=0; filter_index<tdf.length && filter_length != 0; filter_index++) {
+			if (filter_length == tdf[filter_index][rate_index].length) break;
+		}
+		if (filter_index == tdf.length) filter_index = tdf.length-1;
+
+		td_filter = tdf[filter_index][rate_index];
+		cd_filter = Afsk1200Filters.corr_diff_filter[filter_index][rate_index];
+		td_fir = new FirFilter(td_filter, MAX_BLOCK);
+		cd_fir = new FirFilter(cd_filter, MAX_BLOCK);
+
+		int window = (int) Math.floor(sample_rate / 1200.0f);
+		c0_corr = new ToneCorrelator(sample_rate, 1200, window);
+		c1_corr = new ToneCorrelator(sample_rate, 2200, window);
+	}
+
+	/*
+	 * A front end for any baud rate and tone pair, with filters designed here
+	 * instead of taken from tables: a band-pass centered between the tones
+	 * and a low-pass over the correlator difference, each one bit period
+	 * long. Rates below four samples per cycle of the higher tone are
+	 * interpolated to twice the rate.
+	 */
+	AfskDiscriminator(int sample_rate, int baud, int mark, int space) {
+		interpolate = (sample_rate < 4*Math.max(mark, space));
+		if (interpolate) sample_rate *= 2;
+		this.sample_rate = sample_rate;
+
+		int bit = Math.round((float) sample_rate / baud);
+		float center = 0.5f*(mark + space);
+		// the one-bit window already widens the pass band by about a baud
+		float half = Math.max(0.5f*Math.abs(space - mark) - 0.4f*baud, 0.0f);
+		td_filter = FirFilter.bandpass((center - half) / sample_rate, (center + half) / sample_rate, bit);
+		cd_filter = FirFilter.lowpass((float) baud / sample_rate, bit);
+		td_fir = new FirFilter(td_filter, MAX_BLOCK);
+		cd_fir = new FirFilter(cd_filter, MAX_BLOCK);
+
+		int window = sample_rate / baud;
+		c0_corr = new ToneCorrelator(sample_rate, mark, window);
+		c1_corr = new ToneCorrelator(sample_rate, space, window);
+	}
+
+	/*
+	 * Runs input s[from..n) through the front end until block is full; the
+	 * output count goes to length. Returns the first input index not consumed.
+	 */
+	int process(float[] s, int from, int n) {
+		int i = from;
+		int m = 0;
+		while (i<n && m<block.length) {
+			if (interpolate) {
+				if (interpolate_original) {
+					block[m] = s[i];
+					interpolate_last = s[i];
+					interpolate_original = false;
+					i++;
+				} else {
+					block[m] = 0.5f * (s[i] + interpolate_last);
+					interpolate_original = true;
+				}
+			} else {
+				block[m] = s[i];
+				i++;
+			}
+			m++;
+		}
+
+		td_fir.filterBlock(block, 0, m, block, 0);
+
+		// sliding-window correlation against both tones, O(1) per sample
+		for (int k=0; k<m; k++) {
+			float x = block[k];
+			block[k] = c0_corr.correlate(x) - c1_corr.correlate(x);
+		}
+
+		cd_fir.filterBlock(block, 0, m, block, 0);
+
+		length = m;
+		return i;
+	}
+}
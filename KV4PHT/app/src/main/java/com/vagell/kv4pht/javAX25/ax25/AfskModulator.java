@@ -0,0 +1,95 @@
+/*
+ * Audio FSK modem for AX25, any baud rate and tone pair (e.g. 1200 Baud
+ * 1200/2200Hz on VHF, 300 Baud 1600/1800Hz on HF).
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+/**
+ * Continuous-phase AFSK modulator. The tone is read from a precomputed sine
+ * table with a 32-bit phase accumulator per tone step, and bit boundaries
+ * come from a second accumulator, so each sample is a table lookup and two
+ * integer additions whatever the baud rate, tones or sample rate.
+ */
+public class AfskModulator implements PacketModulator {
+
+	private static final int TABLE_BITS = 11;
+	private static final int TABLE_SHIFT = 32 - TABLE_BITS;
+	private static final float[] SINE = new float[1 << TABLE_BITS];
+	static {
+		for (int i=0; i<SINE.length; i++) SINE[i] = (float) Math.sin(2.0*Math.PI*i/SINE.length);
+	}
+	private static final double PHASE_SCALE = 4294967296.0; // 2^32
+
+	private final int sample_rate;
+	private final int baud;
+	private final int mark_step, space_step; // tone phase per sample
+	private final int symbol_step;           // bit clock phase per sample
+	private final HdlcTransmitter hdlc;
+
+	private int     tx_tone_phase, tx_symbol_phase;
+	private boolean tx_mark;       // NRZI: a zero bit switches tones
+
+	private float[] tx_samples;
+
+	public AfskModulator(int sample_rate, int baud, int mark, int space) {
+		if (2*Math.max(mark, space) >= sample_rate) {
+			throw new RuntimeException("Sample rate "+sample_rate+" not supported");
+		}
+		this.sample_rate = sample_rate;
+		this.baud = baud;
+		mark_step   = (int) Math.round((double) mark  / sample_rate * PHASE_SCALE);
+		space_step  = (int) Math.round((double) space / sample_rate * PHASE_SCALE);
+		symbol_step = (int) Math.round((double) baud  / sample_rate * PHASE_SCALE);
+		hdlc = new HdlcTransmitter(baud, this::generateBit);
+	}
+
+	public void setTxDelay(int delay) { hdlc.setTxDelay(delay); }
+
+	/** Packets handed over while the previous one was still being sent. */
+	public int getDiscardedCount() { return hdlc.getDiscardedCount(); }
+
+	public void prepareToTransmit(Packet p) {
+		if (!hdlc.start(p)) return;
+		tx_tone_phase = tx_symbol_phase = 0;
+		tx_mark = true;
+	}
+
+	public float[] getTxSamplesBuffer() {
+		if (tx_samples == null) {
+			// a stuffed byte is at most 10 bits
+			tx_samples = new float[(int) Math.ceil(10.0 * sample_rate / baud) + 1];
+		}
+		return tx_samples;
+	}
+
+	private int generateBit(int bit, int position) {
+		if (bit == 0) tx_mark = !tx_mark;
+		int step = tx_mark ? mark_step : space_step;
+		int start = position;
+		do {
+			tx_samples[position++] = SINE[tx_tone_phase >>> TABLE_SHIFT];
+			tx_tone_phase += step;
+			tx_symbol_phase += symbol_step;
+		} while (Integer.compareUnsigned(tx_symbol_phase, symbol_step) >= 0);
+		return position - start;
+	}
+
+	public int getSamples() {
+		assert(tx_samples != null);
+		return hdlc.nextByte();
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Audio FSK modem for AX25 (1200 Baud, 1200/2200Hz).
+ * The PLL demodulator with the tabled front end of Afsk1200Demodulator, so
+ * the two can run side by side in an AfskDemodulatorBank.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+public class AfskPllDemodulator extends AfskDemodulator {
+
+	/*
+	 * filter_length and emphasis select the front end filters as for
+	 * Afsk1200Demodulator; timing_offset is the relative bit clock error the
+	 * PLL starts from, the PLL tracks the rest.
+	 */
+	public AfskPllDemodulator(int sample_rate, int filter_length, int emphasis, float timing_offset, PacketHandler h) {
+		super(new AfskDiscriminator(sample_rate, filter_length, emphasis), 1200, timing_offset, h);
+	}
+
+	public AfskPllDemodulator(int sample_rate, int filter_length, int emphasis, PacketHandler h) {
+		this(sample_rate, filter_length, emphasis, 0.0f, h);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Receive quality counters for the AFSK demodulators.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+/**
+ * Plain counters, updated by the demodulator on its own thread with no
+ * formatting or allocation. Readers on other threads take a snapshot with
+ * {@link #copyTo}; the values are then individually current but not taken at
+ * one instant, which is fine for diagnostics.
+ */
+public class DemodulatorMetrics {
+
+	// period error is |measured run length / bit period - bit count|, 0..0.5
+	public static final int   PERIOD_ERROR_BINS      = 10;
+	public static final float PERIOD_ERROR_BIN_WIDTH = 0.5f / PERIOD_ERROR_BINS;
+
+	public long samples;          // audio samples processed
+	public long dcd_samples;      // of which with data carrier detected
+	public int  frames;           // frames that passed the CRC, repaired ones included
+	public int  repaired;         // frames that passed only after bit repair
+	public int  crc_failures;     // complete frames dropped for a bad CRC
+	public int  duplicates;       // frames dropped as duplicates (demodulator banks only)
+
+	// f0 peak over f1 trough of the filtered tone difference, per frame; far
+	// from 1 means the audio path tilts one tone, see the emphasis variants
+	public double level_ratio_sum;
+	public float  last_level_ratio;
+	public float  last_period_error; // worst period error of the last frame
+
+	// period errors of the transitions seen while the carrier was up
+	public final int[] period_error = new int[PERIOD_ERROR_BINS];
+
+	public float dcdDutyCycle() {
+		return samples == 0 ? 0.0f : (float) dcd_samples / samples;
+	}
+
+	public float meanLevelRatio() {
+		return frames == 0 ? 0.0f : (float) (level_ratio_sum / frames);
+	}
+
+	public void copyTo(DemodulatorMetrics into) {
+		into.samples           = samples;
+		into.dcd_samples       = dcd_samples;
+		into.frames            = frames;
+		into.repaired          = repaired;
+		into.crc_failures      = crc_failures;
+		into.duplicates        = duplicates;
+		into.level_ratio_sum   = level_ratio_sum;
+		into.last_level_ratio  = last_level_ratio;
+		into.last_period_error = last_period_error;
+		System.arraycopy(period_error, 0, into.period_error, 0, PERIOD_ERROR_BINS);
+	}
+
+	/*
+	 * Accumulates another demodulator's counters, for totals over a bank.
+	 * Samples are summed too, so the duty cycle becomes the mean over variants.
+	 */
+	public void add(DemodulatorMetrics m) {
+		samples         += m.samples;
+		dcd_samples     += m.dcd_samples;
+		frames          += m.frames;
+		repaired        += m.repaired;
+		crc_failures    += m.crc_failures;
+		duplicates      += m.duplicates;
+		level_ratio_sum += m.level_ratio_sum;
+		if (m.frames > 0) {
+			last_level_ratio  = m.last_level_ratio;
+			last_period_error = m.last_period_error;
+		}
+		for (int i=0; i<PERIOD_ERROR_BINS; i++) period_error[i] += m.period_error[i];
+	}
+
+	public void reset() {
+		samples = dcd_samples = 0;
+		frames = repaired = crc_failures = duplicates = 0;
+		level_ratio_sum = 0.0;
+		last_level_ratio = last_period_error = 0.0f;
+		java.util.Arrays.fill(period_error, 0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(java.util.Locale.US,
+				"frames %d (repaired %d, crc failures %d, duplicates %d) dcd %.1f%% level ratio %.2f period error %s",
+				frames, repaired, crc_failures, duplicates, 100.0f*dcdDutyCycle(), meanLevelRatio(),
+				java.util.Arrays.toString(period_error));
+	}
+}
@@ -162,4 +162,21 @@ public class Filter {
 		}
 		return c;
 	}
+
+	/*
+	 * Filters n contiguous samples x[offset..offset+n-1] into y[y_offset..].
+	 * The f.length-1 samples before x[offset] must hold the filter history,
+	 * so the inner loop needs no wrap-around. Each output is accumulated in
+	 * the same order as filter(), so the results are identical.
+	 */
+	public static void filterBlock(float[] x, int offset, int n, float[] f, float[] y, int y_offset) {
+		for (int k=0; k<n; k++) {
+			float c = (float) 0.0;
+			int j = offset + k;
+			for (int i=0; i<f.length; i++) {
+				c += x[j-i]*f[i];
+			}
+			y[y_offset+k] = c;
+		}
+	}
 }
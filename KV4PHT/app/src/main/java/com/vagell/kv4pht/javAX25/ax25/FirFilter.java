@@ -0,0 +1,84 @@
+/*
+ * Block FIR filter with a linear delay line.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+/**
+ * Stateful FIR filter that processes whole blocks of samples.
+ * <p>
+ * The delay line holds the last <code>f.length-1</code> input samples followed
+ * by the current block, so {@link Filter#filterBlock} can run over it without
+ * any wrap-around test in the inner loop. After each block the tail is moved
+ * to the front with one arraycopy. Input and output may be the same array.
+ */
+public class FirFilter {
+
+	private final float[] f;
+	private final int history;
+	private final float[] line;
+
+	public FirFilter(float[] f, int max_block) {
+		this.f = f;
+		history = f.length - 1;
+		line = new float[history + max_block];
+	}
+
+	public int maxBlock() { return line.length - history; }
+
+	public void reset() { java.util.Arrays.fill(line, 0.0f); }
+
+	/*
+	 * Hamming-windowed sinc low-pass with unity gain at DC. cutoff is the
+	 * -6dB frequency as a fraction of the sample rate (below 0.5); 0 leaves
+	 * just the window, the narrowest low-pass of this length.
+	 */
+	public static float[] lowpass(float cutoff, int length) {
+		float[] h = new float[length];
+		double center = (length - 1) / 2.0;
+		double sum = 0.0;
+		for (int k=0; k<length; k++) {
+			double x = 2.0*cutoff*(k - center);
+			double sinc = (x == 0.0) ? 1.0 : Math.sin(Math.PI*x) / (Math.PI*x);
+			double window = (length == 1) ? 1.0 : 0.54 - 0.46*Math.cos(2.0*Math.PI*k/(length-1));
+			h[k] = (float) (sinc * window);
+			sum += h[k];
+		}
+		for (int k=0; k<length; k++) h[k] /= (float) sum;
+		return h;
+	}
+
+	/*
+	 * Band-pass between low and high, both fractions of the sample rate: the
+	 * low-pass of half the width shifted up to the center, unity gain there.
+	 */
+	public static float[] bandpass(float low, float high, int length) {
+		float[] h = lowpass(0.5f*(high - low), length);
+		double center = (length - 1) / 2.0;
+		double f = 0.5*(low + high);
+		for (int k=0; k<length; k++) h[k] *= (float) (2.0*Math.cos(2.0*Math.PI*f*(k - center)));
+		return h;
+	}
+
+	public void filterBlock(float[] x, int offset, int n, float[] y, int y_offset) {
+		if (n > line.length - history) {
+			throw new IllegalArgumentException("Block of "+n+" samples exceeds maximum of "+(line.length - history));
+		}
+		System.arraycopy(x, offset, line, history, n);
+		Filter.filterBlock(line, history, n, f, y, y_offset);
+		System.arraycopy(line, n, line, 0, history);
+	}
+}
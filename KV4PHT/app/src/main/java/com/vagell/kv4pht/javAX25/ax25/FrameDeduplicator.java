@@ -0,0 +1,146 @@
+/*
+ * Time-windowed duplicate detection for received AX.25 frames.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+/**
+ * Remembers the frames seen during the last <code>window</code> time units
+ * and reports repeats, the way APRS-IS dupe checking does.
+ * <p>
+ * Frames are keyed by a 64-bit hash of destination, source, control, PID and
+ * information field. The digipeater path and the H/C/reserved bits of the
+ * address octets are left out, so copies decoded by several demodulators and
+ * copies repeated by digipeaters map to the same key.
+ * <p>
+ * Entries live in a fixed ring in arrival order, indexed by an open-addressing
+ * hash table, so lookups are O(1), memory is bounded by the capacity, and
+ * expiring or evicting the oldest entry is O(1). Nothing is allocated after
+ * construction.
+ */
+public class FrameDeduplicator {
+
+	private static final int EMPTY = -1;
+
+	private long window;
+
+	private final long[] keys;  // ring of entries in arrival order
+	private final long[] times;
+	private int head, size;
+
+	private final int[] table;  // hash slot -> ring index
+	private final int mask;
+
+	public FrameDeduplicator(long window, int capacity) {
+		this.window = window;
+		keys  = new long[capacity];
+		times = new long[capacity];
+		int n = Integer.highestOneBit(Math.max(2, capacity)) << 2; // load factor <= 0.5
+		table = new int[n];
+		mask = n - 1;
+		java.util.Arrays.fill(table, EMPTY);
+	}
+
+	public void setWindow(long window) { this.window = window; }
+
+	public long window() { return window; }
+
+	public int size() { return size; }
+
+	public void clear() {
+		head = 0;
+		size = 0;
+		java.util.Arrays.fill(table, EMPTY);
+	}
+
+	/**
+	 * Returns true if an equivalent frame was seen within the window before
+	 * <code>now</code>, otherwise remembers this frame and returns false.
+	 * A duplicate does not extend the window of the original.
+	 */
+	public boolean isDuplicate(byte[] frame, int offset, int length, long now) {
+		while (size > 0 && now - times[head] >= window) removeOldest();
+		long key = key(frame, offset, length);
+		if (find(key) != EMPTY) return true;
+		if (size == keys.length) removeOldest();
+		int r = head + size;
+		if (r >= keys.length) r -= keys.length;
+		keys[r] = key;
+		times[r] = now;
+		size++;
+		int i = home(key);
+		while (table[i] != EMPTY) i = (i + 1) & mask;
+		table[i] = r;
+		return false;
+	}
+
+	/*
+	 * FNV-1a over the frame with the digipeater path removed and the address
+	 * octets reduced to callsign characters and SSID.
+	 */
+	static long key(byte[] frame, int offset, int length) {
+		long h = 0xcbf29ce484222325L;
+		int end = offset + length;
+		if (length < 14) {
+			for (int i=offset; i<end; i++) h = (h ^ (frame[i] & 0xff)) * 0x100000001b3L;
+			return h;
+		}
+		for (int i=0; i<14; i++) {
+			int b = frame[offset+i] & 0xff;
+			if (i % 7 == 6) b &= 0x1e; // SSID only
+			h = (h ^ b) * 0x100000001b3L;
+		}
+		int last = offset + 13; // last octet of the address field
+		while ((frame[last] & 0x01) == 0 && last + 7 < end) last += 7;
+		for (int i=last+1; i<end; i++) h = (h ^ (frame[i] & 0xff)) * 0x100000001b3L;
+		return h;
+	}
+
+	private int home(long key) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	private int find(long key) {
+		for (int i=home(key); table[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[table[i]] == key) return i;
+		}
+		return EMPTY;
+	}
+
+	private void removeOldest() {
+		int i = home(keys[head]);
+		while (table[i] != head) i = (i + 1) & mask;
+		deleteSlot(i);
+		head++;
+		if (head == keys.length) head = 0;
+		size--;
+	}
+
+	// backward-shift deletion keeps linear probe chains intact without tombstones
+	private void deleteSlot(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (table[j] == EMPTY) break;
+			int k = home(keys[table[j]]);
+			boolean stays = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+			if (stays) continue;
+			table[i] = table[j];
+			i = j;
+		}
+		table[i] = EMPTY;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Baseband modem for AX25 (9600 Baud, G3RUH/K9NG).
+ * Low-pass filters the audio, recovers the bit clock with a digital PLL,
+ * slices at the center of each bit, descrambles and NRZI decodes, then
+ * hands the bits to the same HDLC deframer as AfskPllDemodulator. Needs
+ * the discriminator output flat to well above 4 kHz, which the narrowband
+ * Opus link of the kv4p HT does not pass.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+public class G3ruh9600Demodulator extends PacketDemodulator {
+
+	public static final int BAUD = G3ruh9600Modulator.BAUD;
+
+	private static final int MAX_BLOCK = 2048;
+
+	// bit clock as in AfskPllDemodulator: 2^32 per bit, decisions where the phase wraps
+	private static final float SEARCHING_INERTIA = 0.50f;
+	private static final float LOCKED_INERTIA    = 0.60f;
+	private static final double PHASE_SCALE      = 4294967296.0; // 2^32
+
+	private final FirFilter filter;
+	private final float[]   block = new float[MAX_BLOCK];
+	private final int pll_step;
+	private int     pll;
+	private boolean sample_level;     // filtered signal sign at the previous sample
+	private float   transition_margin = 0.5f;
+	private int     rx_lfsr;          // descrambler shift register, last received bit in bit 0
+	private int     last_descrambled;
+
+	private final DemodulatorMetrics metrics = new DemodulatorMetrics();
+	private final HdlcReceiver hdlc;
+	private int t; // running sample counter
+
+	public G3ruh9600Demodulator(int sample_rate, PacketHandler h) {
+		super(sample_rate);
+		if (sample_rate < 4*BAUD) {
+			throw new RuntimeException("Sample rate "+sample_rate+" not supported");
+		}
+		// noise above the data band only hurts; 4 bit periods keep the eye open
+		int taps = (4*sample_rate/BAUD) | 1;
+		filter = new FirFilter(FirFilter.lowpass(0.6f*BAUD/sample_rate, taps), MAX_BLOCK);
+		pll_step = (int) Math.round(PHASE_SCALE * BAUD / sample_rate);
+		hdlc = new HdlcReceiver(h, metrics);
+	}
+
+	public boolean dcd() { return hdlc.data_carrier; }
+
+	public int sampleTime() { return t; }
+
+	public void setRepairBudget(int budget) { hdlc.setRepairBudget(budget); }
+
+	public DemodulatorMetrics metrics(DemodulatorMetrics into) {
+		metrics.copyTo(into);
+		return into;
+	}
+
+	protected void addSamplesPrivate(float[] s, int n) {
+		for (int i=0; i<n; i+=MAX_BLOCK) {
+			int m = Math.min(MAX_BLOCK, n-i);
+			filter.filterBlock(s, i, m, block, 0);
+			processBlock(block, m);
+		}
+	}
+
+	private void processBlock(float[] block, int n) {
+		int carrier = 0;
+		boolean in_frame = hdlc.inFrame();
+		for (int j=0; j<n; j++) {
+			float x = block[j];
+			boolean level = x > 0.0f;
+
+			if (level != sample_level) {
+				float err = (float) (Math.abs((double) pll) / PHASE_SCALE); // 0..0.5 of a bit
+				if (in_frame) {
+					int bin = (int) (err / DemodulatorMetrics.PERIOD_ERROR_BIN_WIDTH);
+					metrics.period_error[Math.min(bin, DemodulatorMetrics.PERIOD_ERROR_BINS-1)]++;
+					if (err > hdlc.frame_period_error) hdlc.frame_period_error = err;
+				}
+				if (0.5f - err < transition_margin) transition_margin = 0.5f - err;
+				pll = (int) (pll * (in_frame ? LOCKED_INERTIA : SEARCHING_INERTIA));
+				sample_level = level;
+			}
+
+			int previous = pll;
+			pll += pll_step;
+			if (pll < previous) { // wrapped: center of a bit
+				int in = level ? 1 : 0;
+				int descrambled = (in ^ (rx_lfsr >> 16) ^ (rx_lfsr >> 11)) & 1;
+				rx_lfsr = (rx_lfsr << 1) | in;
+				hdlc.receiveBit(descrambled == last_descrambled, transition_margin);
+				last_descrambled = descrambled;
+				transition_margin = 0.5f;
+				in_frame = hdlc.inFrame();
+			}
+
+			if (in_frame) {
+				carrier++;
+				if (x > hdlc.frame_max) hdlc.frame_max = x;
+				if (x < hdlc.frame_min) hdlc.frame_min = x;
+			}
+			t++;
+		}
+		metrics.samples     += n;
+		metrics.dcd_samples += carrier;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Baseband modem for AX25 (9600 Baud, G3RUH/K9NG).
+ * Bit-stuffed HDLC, NRZI encoded, scrambled with 1 + x^12 + x^17 and sent as
+ * low-pass shaped two-level baseband. Needs a flat audio path to the FM
+ * modulator, which the 1200/2200Hz tones do not, so it cannot go over the
+ * narrowband Opus link of the kv4p HT.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+public class G3ruh9600Modulator implements PacketModulator {
+
+	public static final int BAUD = 9600;
+
+	private static final float AMPLITUDE = 0.8f; // headroom for the overshoot of the shaping filter
+
+	private final int   sample_rate;
+	private final float phase_inc_symbol; // bit periods per sample
+	private final FirFilter shaping;
+
+	private final HdlcTransmitter hdlc = new HdlcTransmitter(BAUD, this::generateBit);
+
+	private float   tx_symbol_phase;
+	private float[] tx_samples;
+	private int     tx_nrzi;       // level before scrambling
+	private int     tx_lfsr;       // scrambler shift register, last output bit in bit 0
+
+	public G3ruh9600Modulator(int sample_rate) {
+		if (sample_rate < 4*BAUD) {
+			throw new RuntimeException("Sample rate "+sample_rate+" not supported");
+		}
+		this.sample_rate = sample_rate;
+		phase_inc_symbol = (float) BAUD / sample_rate;
+		// cut off a little above the Nyquist frequency of the bit stream, over 6 bit periods
+		int taps = (6*sample_rate/BAUD) | 1;
+		shaping = new FirFilter(FirFilter.lowpass(0.55f*BAUD/sample_rate, taps), maxByteSamples());
+	}
+
+	public void setTxDelay(int delay) { hdlc.setTxDelay(delay); }
+
+	/** Packets handed over while the previous one was still being sent. */
+	public int getDiscardedCount() { return hdlc.getDiscardedCount(); }
+
+	private int maxByteSamples() {
+		// a stuffed byte is at most 10 bits
+		return (int) Math.ceil(10.0 * sample_rate / BAUD) + 1;
+	}
+
+	public void prepareToTransmit(Packet p) {
+		if (!hdlc.start(p)) return;
+		tx_symbol_phase = 0.0f;
+		tx_nrzi = 0;
+		tx_lfsr = 0;
+		shaping.reset();
+	}
+
+	public float[] getTxSamplesBuffer() {
+		if (tx_samples == null) tx_samples = new float[maxByteSamples()];
+		return tx_samples;
+	}
+
+	private int generateBit(int bit, int position) {
+		if (bit == 0) tx_nrzi ^= 1;
+		int x = (tx_nrzi ^ (tx_lfsr >> 16) ^ (tx_lfsr >> 11)) & 1;
+		tx_lfsr = (tx_lfsr << 1) | x;
+		float level = (x == 1) ? AMPLITUDE : -AMPLITUDE;
+		int count = 0;
+		while (tx_symbol_phase < 1.0f) {
+			tx_samples[position++] = level;
+			tx_symbol_phase += phase_inc_symbol;
+			count++;
+		}
+		tx_symbol_phase -= 1.0f;
+		return count;
+	}
+
+	public int getSamples() {
+		assert(tx_samples != null);
+		int count = hdlc.nextByte();
+		shaping.filterBlock(tx_samples, 0, count, tx_samples, 0);
+		return count;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * HDLC deframing for the clock-recovering demodulators: takes NRZI-decoded
+ * bits, removes bit stuffing, finds flags and delivers frames that pass the
+ * CRC, optionally after bit repair.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+final class HdlcReceiver {
+
+	private int     ones;             // consecutive one bits
+	private int     data, bitcount;
+	private boolean in_frame;
+	private Packet  packet;           // received packet, null outside a frame
+	private final Packet rx_packet = new Packet();
+	private final PacketHandler handler;
+	private final DemodulatorMetrics metrics;
+
+	volatile boolean data_carrier = false;
+
+	// per-frame statistics, kept by the demodulator while in_frame
+	float frame_max, frame_min, frame_period_error;
+
+	private int     repair_budget = 0;
+	private int[]   boundary_bits;
+	private float[] boundary_margins;
+	private int     boundary_count;
+	private int     frame_bits;
+
+	HdlcReceiver(PacketHandler h, DemodulatorMetrics metrics) {
+		handler = h;
+		this.metrics = metrics;
+	}
+
+	boolean inFrame() { return in_frame; }
+
+	void setRepairBudget(int budget) {
+		repair_budget = budget;
+		if (budget > 0 && boundary_bits == null) {
+			boundary_bits    = new int[Packet.MAX_FRAME_SIZE*8];
+			boundary_margins = new float[Packet.MAX_FRAME_SIZE*8];
+		}
+	}
+
+	/*
+	 * One NRZI-decoded bit: no transition is a one. margin is how far the
+	 * weakest transition around the bit was from the decision point, 0..0.5
+	 * of a bit; low margins are tried first when repairing.
+	 */
+	void receiveBit(boolean one, float margin) {
+		if (one) {
+			ones++;
+			if (ones == 7) abortFrame();   // seven ones: abort or idle
+			else if (ones < 6) addBit(1, margin);
+			// the sixth one is part of a flag if a zero follows
+		} else {
+			if (ones == 6) flag();
+			else if (ones != 5) addBit(0, margin); // a zero after five ones is stuffing
+			ones = 0;
+		}
+	}
+
+	private void addBit(int bit, float margin) {
+		if (!in_frame) return;
+		if (bit == 0 && repair_budget > 0 && boundary_count < boundary_bits.length) {
+			boundary_bits[boundary_count] = frame_bits;
+			boundary_margins[boundary_count] = margin;
+			boundary_count++;
+		}
+		frame_bits++;
+		data = (data >> 1) | (bit << 7);
+		bitcount++;
+		if (bitcount == 8) {
+			if (!packet.addByte((byte) data)) abortFrame();
+			bitcount = 0;
+		}
+	}
+
+	private void flag() {
+		// the zero and five ones of the flag have been added as data bits
+		if (in_frame && bitcount == 6 && packet.size() > 0) {
+			if (packet.terminate() || repairPacket()) {
+				metrics.frames++;
+				float ratio = frame_max / -frame_min;
+				if (!Float.isNaN(ratio) && !Float.isInfinite(ratio)) {
+					metrics.level_ratio_sum += ratio;
+					metrics.last_level_ratio = ratio;
+				}
+				metrics.last_period_error = frame_period_error;
+				if (handler != null) handler.handlePacket(packet.buffer(), 0, packet.size()-2);
+			} else if (packet.size() >= 18) {
+				metrics.crc_failures++;
+			}
+		}
+		packet = rx_packet;
+		packet.clear();
+		data = 0;
+		bitcount = 0;
+		frame_bits = 0;
+		boundary_count = 0;
+		frame_max = frame_min = frame_period_error = 0.0f;
+		in_frame = true;
+		data_carrier = true;
+	}
+
+	private void abortFrame() {
+		packet = null;
+		in_frame = false;
+		data_carrier = false;
+	}
+
+	private boolean repairPacket() {
+		if (repair_budget <= 0) return false;
+		if (packet.repair(boundary_bits, boundary_margins, boundary_count, repair_budget) == 0) return false;
+		metrics.repaired++;
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * HDLC framing for the modulators: sends the preamble flags, the bit-stuffed
+ * frame with its CRC and the closing flags a byte at a time, leaving the
+ * line coding of each bit to the modulator.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+final class HdlcTransmitter {
+
+	/** Writes the samples of one bit from position on and returns how many. */
+	interface BitGenerator {
+		int generateBit(int bit, int position);
+	}
+
+	private static final int FLAG = 0x7E;
+	private static final int TRAILER_FLAGS = 2; // also flushes a shaping filter
+
+	private static enum TxState {
+		IDLE,
+		PREAMBLE,
+		DATA,
+		TRAILER
+	};
+	private TxState tx_state = TxState.IDLE;
+	private byte[]  tx_bytes;
+	private int     tx_index;
+	private int     tx_delay = 20; // in 10ms units
+	private int     tx_stuff_count;
+	private int     tx_discarded;  // packets handed over while busy
+
+	private final int baud;
+	private final BitGenerator generator;
+
+	HdlcTransmitter(int baud, BitGenerator generator) {
+		this.baud = baud;
+		this.generator = generator;
+	}
+
+	void setTxDelay(int delay) { tx_delay = delay; }
+
+	int getDiscardedCount() { return tx_discarded; }
+
+	/**
+	 * Starts on a frame, or counts it as discarded while the previous one is
+	 * still being sent.
+	 */
+	boolean start(Packet p) {
+		if (tx_state != TxState.IDLE) {
+			tx_discarded++;
+			return false;
+		}
+		tx_bytes = p.bytesWithCRC(); // This includes the CRC
+		tx_state = TxState.PREAMBLE;
+		tx_index = (int) Math.ceil(tx_delay * 0.01 / (8.0/baud)); // number of flags to transmit
+		if (tx_index < 1) tx_index = 1;
+		return true;
+	}
+
+	private int byteToSamples(int bits, boolean stuff) {
+		int position = 0;
+		for (int i=0; i<8; i++) {
+			int bit = bits & 1;
+			bits = bits >> 1;
+			position += generator.generateBit(bit, position);
+			if (!stuff) continue;
+			if (bit == 0) {
+				tx_stuff_count = 0;
+			} else if (++tx_stuff_count == 5) {
+				position += generator.generateBit(0, position);
+				tx_stuff_count = 0;
+			}
+		}
+		return position;
+	}
+
+	/** Generates the next byte of the frame, returning its samples, 0 once done. */
+	int nextByte() {
+		int count;
+
+		switch (tx_state) {
+		case IDLE:
+			return 0;
+		case PREAMBLE:
+			count = byteToSamples(FLAG,false);
+			tx_index--;
+			if (tx_index==0) {
+				tx_state = TxState.DATA;
+				tx_stuff_count = 0;
+			}
+			break;
+		case DATA:
+			count = byteToSamples(tx_bytes[tx_index],true);
+			tx_index++;
+			if (tx_index==tx_bytes.length) {
+				tx_state = TxState.TRAILER;
+				tx_index = TRAILER_FLAGS;
+			}
+			break;
+		case TRAILER:
+			count = byteToSamples(FLAG,false);
+			tx_index--;
+			if (tx_index==0) tx_state = TxState.IDLE;
+			break;
+		default:
+			assert(false);
+			count = -1;
+			break;
+		}
+
+		return count;
+	}
+}
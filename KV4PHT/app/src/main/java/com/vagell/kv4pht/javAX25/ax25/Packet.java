@@ -33,7 +33,7 @@ public class Packet {
 	
 	private final int AX25_CRC_CORRECT   = 0xF0B8;
 	private final int CRC_CCITT_INIT_VAL = 0xFFFF;
-	private final int MAX_FRAME_SIZE = // not including delimiting flags
+	static final int MAX_FRAME_SIZE = // not including delimiting flags
 		                   7+7            // source and destination
 		                  +(8*7)          // path
 		                  +1+1            // control and PID
@@ -45,7 +45,7 @@ public class Packet {
 	public static final int AX25_PROTOCOL_UNCOMPRESSED_TCPIP = 0x07;
 	public static final int AX25_PROTOCOL_NO_LAYER_3         = 0xF0; // used for APRS
 
-	private final int crc_ccitt_tab[] = {
+	private static final int crc_ccitt_tab[] = {
 	        0x0000, 0x1189, 0x2312, 0x329b, 0x4624, 0x57ad, 0x6536, 0x74bf,
 	        0x8c48, 0x9dc1, 0xaf5a, 0xbed3, 0xca6c, 0xdbe5, 0xe97e, 0xf8f7,
 	        0x1081, 0x0108, 0x3393, 0x221a, 0x56a5, 0x472c, 0x75b7, 0x643e,
@@ -80,17 +80,47 @@ public class Packet {
 	        0x7bc7, 0x6a4e, 0x58d5, 0x495c, 0x3de3, 0x2c6a, 0x1ef1, 0x0f78,
 	};
 
+	/*
+	 * Slicing-by-4 tables: crc_slices[k][b] is the CRC contribution of byte b
+	 * followed by k zero bytes. crc_slices[0] is crc_ccitt_tab.
+	 */
+	private static final int[][] crc_slices = new int[4][];
+	static {
+		crc_slices[0] = crc_ccitt_tab;
+		for (int k=1; k<4; k++) {
+			crc_slices[k] = new int[256];
+			for (int b=0; b<256; b++) {
+				int c = crc_slices[k-1][b];
+				crc_slices[k][b] = (c >>> 8) ^ crc_ccitt_tab[c & 0xff];
+			}
+		}
+	}
+
+	/*
+	 * CRC-CCITT (reflected, as used by AX.25) of length bytes, continuing from
+	 * crc; four bytes per step.
+	 */
+	public static int crc_ccitt(byte[] bytes, int offset, int length, int crc) {
+		final int[] t0 = crc_slices[0], t1 = crc_slices[1], t2 = crc_slices[2], t3 = crc_slices[3];
+		int i = offset;
+		int end = offset + length;
+		for (; i+4<=end; i+=4) {
+			crc ^= (bytes[i] & 0xff) | ((bytes[i+1] & 0xff) << 8);
+			crc = t3[crc & 0xff] ^ t2[crc >>> 8] ^ t1[bytes[i+2] & 0xff] ^ t0[bytes[i+3] & 0xff];
+		}
+		for (; i<end; i++) {
+			crc = (crc >>> 8) ^ t0[(crc ^ bytes[i]) & 0xff];
+		}
+		return crc;
+	}
+
+	// the CRC is computed once the frame ends, see frameCRC()
 	private int crc = CRC_CCITT_INIT_VAL;
 	private byte packet[] = new byte[MAX_FRAME_SIZE];
 	private int size = 0;
 	
 	private float[] stats;
-	public void statistics(float[] stats) { 
-		this.stats = stats;
-		for (float f : stats)
-  		System.err.printf("%.2f ",f);
-		System.err.println(format(Arrays.copyOf(packet, size-2)));
-	}
+	public void statistics(float[] stats) { this.stats = stats; }
 	public float[] statistics() { return stats; }
 	
 	//public byte[] bytes()  { 
@@ -111,27 +141,7 @@ public class Packet {
 	
 	// this constructor is used for sending packets from raw bytes
 	public Packet(byte[] bytes) {	
-	  assert (crc == CRC_CCITT_INIT_VAL);
-	  assert (bytes.length+2 <= packet.length);
-	  
-		for (int i=0; i<bytes.length; i++) {
-			packet[size] = bytes[i];
-			crc_ccitt_update(packet[size]);
-			size++;
-		}
-		
-	  int crcl = (crc & 0xff) ^ 0xff;
-	  int crch = (crc >> 8) ^ 0xff;
-
-	  packet[size] = (byte) crcl;
-		crc_ccitt_update(packet[size]);
-		size++;
-
-	  packet[size] = (byte) crch;
-		crc_ccitt_update(packet[size]);
-		size++;
-		
-		assert (crc == AX25_CRC_CORRECT);
+		appendWithCRC(bytes);
 	}
 	
 	public Packet(String destination,
@@ -172,27 +182,7 @@ public class Packet {
 		assert(offset == n);
 		assert(size == 0);
 
-	  assert (crc == CRC_CCITT_INIT_VAL);
-	  assert (bytes.length+2 <= packet.length);
-	  
-		for (int i=0; i<bytes.length; i++) {
-			packet[size] = bytes[i];
-			crc_ccitt_update(packet[size]);
-			size++;
-		}
-		
-	  int crcl = (crc & 0xff) ^ 0xff;
-	  int crch = (crc >> 8) ^ 0xff;
-
-	  packet[size] = (byte) crcl;
-		crc_ccitt_update(packet[size]);
-		size++;
-
-	  packet[size] = (byte) crch;
-		crc_ccitt_update(packet[size]);
-		size++;
-		
-		assert (crc == AX25_CRC_CORRECT);
+		appendWithCRC(bytes);
 	}
 
 	static void addCall(byte[] bytes, int offset, String call, boolean last) {
@@ -343,9 +333,41 @@ public class Packet {
 
 	}
 	
-	private void crc_ccitt_update(byte b) {
-    crc = (crc >> 8) ^ crc_ccitt_tab[(crc ^ b) & 0xff];
-  }
+	private void appendWithCRC(byte[] bytes) {
+	  assert (size == 0);
+	  assert (bytes.length+2 <= packet.length);
+
+	  System.arraycopy(bytes, 0, packet, 0, bytes.length);
+	  size = bytes.length;
+	  int fcs = crc_ccitt(packet, 0, size, CRC_CCITT_INIT_VAL);
+	  packet[size++] = (byte) ((fcs & 0xff) ^ 0xff);
+	  packet[size++] = (byte) ((fcs >> 8) ^ 0xff);
+	  frameCRC();
+
+	  assert (crc == AX25_CRC_CORRECT);
+	}
+
+	private void frameCRC() {
+		crc = crc_ccitt(packet, 0, size, CRC_CCITT_INIT_VAL);
+	}
+
+	/*
+	 * Empties the packet so that a demodulator can assemble the next frame in
+	 * the same buffer.
+	 */
+	public void clear() {
+		size = 0;
+		crc = CRC_CCITT_INIT_VAL;
+		stats = null;
+		source = destination = null;
+		path = null;
+		payload = null;
+	}
+
+	// the frame as received; valid until the packet is cleared
+	byte[] buffer() { return packet; }
+
+	int size() { return size; }
 
 	public boolean addByte(byte b) {
 		//char c = (char) b;
@@ -353,8 +375,6 @@ public class Packet {
 		
 		if (size >= MAX_FRAME_SIZE) return false;
 		
-		crc_ccitt_update(b);
-		
 		packet[size] = b;
 		size++;
 		
@@ -362,9 +382,128 @@ public class Packet {
 		//System.out.printf("j %02x %08x\n",b,crc);
 	}
 	
+	/*
+	 * CRC syndromes of single bit errors: flipping the bit that is followed by
+	 * d more bits (to the end of the FCS) XORs the final CRC register with
+	 * error_syndrome[d]. The CRC is linear, so a double error XORs both.
+	 */
+	private static final char[] error_syndrome = new char[MAX_FRAME_SIZE*8];
+	static {
+		int s = 0x8408;
+		for (int d=0; d<error_syndrome.length; d++) {
+			error_syndrome[d] = (char) s;
+			s = (s & 1) != 0 ? (s >>> 1) ^ 0x8408 : s >>> 1;
+		}
+	}
+
+	private static final int REPAIR_BOUNDARIES = 16;
+	private int[]   weak, cand; // repair scratch, kept with the reusable receive packet
+	private float[] weak_margin;
+
+	/*
+	 * Attempts to fix a frame that failed terminate() by flipping one or two
+	 * bits. boundary_bits[i] is the index (LSB first, from the start of the
+	 * frame) of a decoded bit at which the demodulator saw a transition, and
+	 * margins[i] how far that transition was from being rounded to a different
+	 * bit count (0 is ambiguous, 0.5 is clean). Bits at and next to the least
+	 * confident boundaries are tried first: single flips, then the adjacent
+	 * pairs a misplaced transition produces, then other pairs. At most budget
+	 * candidates are checked, each in constant time. A repaired frame must also
+	 * have a well formed address field. Returns the number of bits flipped,
+	 * 0 if the frame could not be repaired.
+	 */
+	public int repair(int[] boundary_bits, float[] margins, int count, int budget) {
+		if (size < 18) return 0;
+		frameCRC();
+		int nbits = size*8;
+		int target = crc ^ AX25_CRC_CORRECT;
+
+		if (weak == null) {
+			weak = new int[REPAIR_BOUNDARIES];
+			weak_margin = new float[REPAIR_BOUNDARIES];
+			cand = new int[3*REPAIR_BOUNDARIES];
+		}
+
+		// the least confident boundaries, in increasing margin
+		int k = 0;
+		for (int i=0; i<count; i++) {
+			if (boundary_bits[i] >= nbits) continue;
+			float m = margins[i];
+			if (k == weak.length && m >= weak_margin[k-1]) continue;
+			int j = (k < weak.length) ? k++ : k-1;
+			while (j > 0 && weak_margin[j-1] > m) {
+				weak[j] = weak[j-1];
+				weak_margin[j] = weak_margin[j-1];
+				j--;
+			}
+			weak[j] = boundary_bits[i];
+			weak_margin[j] = m;
+		}
+
+		// candidate bits, most suspicious first, without repeats
+		int n = 0;
+		for (int i=0; i<k; i++) {
+			for (int b=weak[i]-1; b<=weak[i]+1; b++) {
+				if (b < 0 || b >= nbits) continue;
+				boolean seen = false;
+				for (int j=0; j<n; j++) if (cand[j] == b) { seen = true; break; }
+				if (!seen) cand[n++] = b;
+			}
+		}
+
+		for (int i=0; i<n && budget>0; i++, budget--) {
+			if (error_syndrome[nbits-1-cand[i]] == target && flipAndCheck(cand[i], -1)) return 1;
+		}
+		for (int i=0; i<k && budget>0; i++) {
+			for (int b=weak[i]-1; b<=weak[i] && budget>0; b++, budget--) {
+				if (b < 0 || b+1 >= nbits) continue;
+				if ((error_syndrome[nbits-1-b] ^ error_syndrome[nbits-2-b]) == target && flipAndCheck(b, b+1)) return 2;
+			}
+		}
+		for (int i=0; i<n && budget>0; i++) {
+			int si = error_syndrome[nbits-1-cand[i]];
+			for (int j=i+1; j<n && budget>0; j++, budget--) {
+				if ((si ^ error_syndrome[nbits-1-cand[j]]) == target && flipAndCheck(cand[i], cand[j])) return 2;
+			}
+		}
+		return 0;
+	}
+
+	// applies the flips, keeps them if the result looks like an AX.25 frame
+	private boolean flipAndCheck(int b1, int b2) {
+		packet[b1 >> 3] ^= (byte) (1 << (b1 & 7));
+		if (b2 >= 0) packet[b2 >> 3] ^= (byte) (1 << (b2 & 7));
+		if (plausibleAddresses()) {
+			crc = AX25_CRC_CORRECT;
+			return true;
+		}
+		packet[b1 >> 3] ^= (byte) (1 << (b1 & 7));
+		if (b2 >= 0) packet[b2 >> 3] ^= (byte) (1 << (b2 & 7));
+		return false;
+	}
+
+	// 2 to 10 addresses of shifted upper case letters, digits and spaces, then a control byte
+	private boolean plausibleAddresses() {
+		int end = 6;
+		while ((packet[end] & 0x01) == 0) {
+			end += 7;
+			if (end >= 7*10 || end+1 >= size-2) return false;
+		}
+		if (end < 13 || end+1 >= size-2) return false;
+		for (int i=0; i<=end; i++) {
+			if (i % 7 == 6) continue;
+			int b = packet[i] & 0xff;
+			if ((b & 0x01) != 0) return false;
+			char c = (char) (b >> 1);
+			if (!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == ' ')) return false;
+		}
+		return true;
+	}
+
 	public boolean terminate() {
 		//System.out.printf("checking termination last byte %02x\n",packet[size-1]);
 		if (size < 18) return false; // at least source, destination, control, pid, FCS.
+		frameCRC();
 		if (crc == AX25_CRC_CORRECT) {
 			//System.out.println("CRC Correct!\n");
 			return true;
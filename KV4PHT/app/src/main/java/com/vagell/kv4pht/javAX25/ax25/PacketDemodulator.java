@@ -28,4 +28,16 @@ public abstract class PacketDemodulator extends SoundcardConsumer {
 
 	//public void addSamples(float[] s, int n);
 	public abstract boolean dcd();
+
+	// running sample counter; inside a handler callback it is the sample that closed the frame
+	public abstract int sampleTime();
+
+	// copies the receive counters into the given object and returns it; safe from any thread
+	public abstract DemodulatorMetrics metrics(DemodulatorMetrics into);
+
+	/*
+	 * Enables repair of frames that fail the CRC by flipping one or two bits,
+	 * checking at most budget candidates per frame; 0 disables it.
+	 */
+	public abstract void setRepairBudget(int budget);
 }
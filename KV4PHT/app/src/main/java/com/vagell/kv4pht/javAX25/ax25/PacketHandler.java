@@ -21,4 +21,14 @@ package com.vagell.kv4pht.javAX25.ax25;
 
 public interface PacketHandler {
 	void handlePacket(byte[] packet);
+
+	/*
+	 * Zero-copy delivery: the frame (without FCS) is buffer[offset..offset+length).
+	 * The buffer belongs to the demodulator and is reused once this returns, so
+	 * implementations that keep the frame must copy it. The default makes that
+	 * copy and hands it to handlePacket(byte[]).
+	 */
+	default void handlePacket(byte[] buffer, int offset, int length) {
+		handlePacket(java.util.Arrays.copyOfRange(buffer, offset, offset+length));
+	}
 }
@@ -0,0 +1,81 @@
+/*
+ * Sliding-window quadrature correlator used by the AFSK demodulators.
+ *
+ *      This program is free software; you can redistribute it and/or modify
+ *      it under the terms of the GNU General Public License as published by
+ *      the Free Software Foundation; either version 2 of the License, or
+ *      (at your option) any later version.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU General Public License for more details.
+ *
+ *      You should have received a copy of the GNU General Public License
+ *      along with this program; if not, write to the Free Software
+ *      Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package com.vagell.kv4pht.javAX25.ax25;
+
+/**
+ * Correlates a signal against a single tone over a sliding window of the
+ * last <code>window</code> samples and returns the magnitude of the result.
+ * <p>
+ * The oscillator is a precomputed cos/sin table covering a whole number of
+ * tone cycles, so no trigonometry is done per sample, and the window sums are
+ * maintained incrementally (add newest, subtract oldest), so each sample
+ * costs a constant number of operations regardless of the window length.
+ */
+public class ToneCorrelator {
+
+	private final float[] cos_table, sin_table;
+	private int phase;
+
+	private final float[] real, imag; // products currently inside the window
+	private int j;
+	// double accumulators keep the running sums from drifting over hours of audio
+	private double sum_real, sum_imag;
+
+	public ToneCorrelator(int sample_rate, int frequency, int window) {
+		int period = sample_rate / gcd(sample_rate, frequency); // samples in a whole number of cycles
+		cos_table = new float[period];
+		sin_table = new float[period];
+		for (int i=0; i<period; i++) {
+			double phi = 2.0*Math.PI*frequency*i/sample_rate;
+			cos_table[i] = (float) Math.cos(phi);
+			sin_table[i] = (float) Math.sin(phi);
+		}
+		real = new float[window];
+		imag = new float[window];
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Pushes one sample into the window and returns the correlation magnitude.
+	 */
+	public float correlate(float x) {
+		float r = x*cos_table[phase];
+		float i = x*sin_table[phase];
+		phase++;
+		if (phase==cos_table.length) phase=0;
+
+		sum_real += r - real[j];
+		sum_imag += i - imag[j];
+		real[j] = r;
+		imag[j] = i;
+		j++;
+		if (j==real.length) j=0;
+
+		return (float) Math.sqrt(sum_real*sum_real + sum_imag*sum_imag);
+	}
+
+	public int window() { return real.length; }
+}
@@ -29,7 +29,6 @@ public abstract class SoundcardConsumer {
 	public SoundcardConsumer(int sample_rate) {
 		this.sample_rate = sample_rate;
 		decay = (float) ( 1.0 - Math.exp(Math.log(0.5)/(double)sample_rate) );
-		System.out.printf("decay = %e\n", (double)decay);
 
 	}
 	//public void addSamples(float[] s) {
@@ -0,0 +1,338 @@
+/*
+kv4p HT (see http://kv4p.com)
+Copyright (C) 2024 Vance Vagell
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.vagell.kv4pht.radio;
+
+import java.util.Arrays;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Priority channel dual watch: while receiving on the main channel, takes a short look at each
+ * priority channel in turn, and stays on one while it has a carrier.
+ * <p>
+ * It runs on the RSSI reports the firmware sends once per RX frame: {@link #onRssi} returns where
+ * to tune next, if anywhere. A look goes to the next priority channel once {@link #revisitNanos}
+ * over the number of priority channels has passed since the last one, and takes the first report
+ * that can be of the new channel: one Group command round trip after the hop, measured from the
+ * window update the firmware grants back once it has applied the Group, plus
+ * {@link #SETTLE_NANOS} for the module to settle. Reports before then were measured before the
+ * hop. So a look keeps the main channel away for about a round trip and a report period; one
+ * that has not had its reading after {@link #MAX_LOOK_NANOS} is given up as missed. A reading over
+ * the channel's noise floor, learned like {@link RssiScanner}'s and starting from the main
+ * channel's, holds the priority channel until
+ * it has been quiet for {@link #HANG_NANOS}.
+ * <p>
+ * The metrics are the look time away from the main channel, the revisit interval of each priority
+ * channel, the Group round trip, and the missed activity windows: looks taken while the main
+ * channel had a carrier, whose time away may have cut into its traffic. Its methods are called
+ * from the USB read and main threads, so they are synchronized; none of them allocates.
+ */
+public class DualWatch {
+
+    /** {@link #onRssi} result: stay tuned where the radio is. */
+    public static final int STAY = -2;
+    /** {@link #onRssi} result: tune back to the main channel. */
+    public static final int MAIN = -1;
+
+    static final long SETTLE_NANOS = 20_000_000L;
+    static final long MAX_LOOK_NANOS = 100_000_000L;
+    static final long HANG_NANOS = 2_000_000_000L;
+    // Round trip assumed until one was measured
+    static final long DEFAULT_ROUND_TRIP_NANOS = 30_000_000L;
+
+    private final long revisitNanos;
+    private final long lookIntervalNanos;
+    private final int priorityCount;
+    private final float[] floors;
+    private final long[] lastLooks;
+    private float mainFloor = -1;
+
+    private int tuned = MAIN;
+    private long hopAt;
+    private long lookAt; // when the last look started
+    private int nextPriority;
+    private boolean holding;
+    private long lastHeard;
+    private boolean mainActive;
+    private boolean lookMissesMain; // taken while the main channel was active
+    private boolean groupInFlight;
+    private long groupSentAt;
+    private long roundTrip = -1;
+
+    private long looks;
+    private long missedLooks;
+    private long hits;
+    private long lookNanosTotal;
+    private long maxLookNanos;
+    private long revisits;
+    private long revisitNanosTotal;
+    private long maxRevisitNanos;
+    private long missedActivityWindows;
+    private long missedActivityNanos;
+
+    /**
+     * @param priorityCount How many priority channels to watch, numbered from 0.
+     * @param revisitNanos  Time between looks at each priority channel.
+     * @param nowNanos      The time the watch starts, on the main channel.
+     */
+    public DualWatch(int priorityCount, long revisitNanos, long nowNanos) {
+        if (priorityCount <= 0) {
+            throw new IllegalArgumentException("No priority channels");
+        }
+        this.priorityCount = priorityCount;
+        this.revisitNanos = revisitNanos;
+        this.lookIntervalNanos = revisitNanos / priorityCount;
+        floors = new float[priorityCount];
+        lastLooks = new long[priorityCount];
+        Arrays.fill(floors, -1);
+        hopAt = nowNanos;
+        lookAt = nowNanos;
+    }
+
+    /**
+     * Takes a raw RSSI reading (0-255) and returns the priority channel to tune to, {@link #MAIN}
+     * or {@link #STAY}. A hop returned is taken as sent at nowNanos.
+     */
+    public synchronized int onRssi(int rssi, long nowNanos) {
+        boolean settled = nowNanos - hopAt >= getRoundTripNanos() + SETTLE_NANOS;
+        if (tuned == MAIN) {
+            if (settled) {
+                mainFloor = learn(mainFloor, rssi);
+                mainActive = rssi > mainFloor + RssiScanner.SIGNAL_MARGIN;
+            }
+            if (nowNanos - lookAt < lookIntervalNanos) {
+                return STAY;
+            }
+            int priority = nextPriority;
+            nextPriority = (nextPriority + 1) % priorityCount;
+            lookAt = nowNanos;
+            lookMissesMain = mainActive;
+            looks++;
+            return hop(priority, nowNanos);
+        }
+        if (!settled) {
+            if (nowNanos - hopAt < MAX_LOOK_NANOS) {
+                return STAY; // Measured before the hop
+            }
+            missedLooks++;
+            return leave(nowNanos);
+        }
+        float floor = floors[tuned] >= 0 ? floors[tuned] : mainFloor; // Both hear the same noise at first
+        boolean carrier = floor >= 0 && rssi > floor + RssiScanner.SIGNAL_MARGIN;
+        if (!holding) {
+            if (lastLooks[tuned] != 0) {
+                long revisit = nowNanos - lastLooks[tuned];
+                revisits++;
+                revisitNanosTotal += revisit;
+                maxRevisitNanos = Math.max(maxRevisitNanos, revisit);
+            }
+            lastLooks[tuned] = nowNanos;
+            if (carrier) {
+                holding = true;
+                hits++;
+                lastHeard = nowNanos;
+                return STAY;
+            }
+            floors[tuned] = learn(floor, rssi);
+            return leave(nowNanos);
+        }
+        if (carrier) {
+            lastHeard = nowNanos;
+            return STAY;
+        }
+        floors[tuned] = learn(floor, rssi);
+        return nowNanos - lastHeard < HANG_NANOS ? STAY : leave(nowNanos);
+    }
+
+    /**
+     * The firmware granted credits back, as it does once it has applied a Group.
+     */
+    public synchronized void onWindowUpdate(long nowNanos) {
+        if (groupInFlight) {
+            groupInFlight = false;
+            long sample = nowNanos - groupSentAt;
+            roundTrip = roundTrip < 0 ? sample : roundTrip + (sample - roundTrip) / 8;
+        }
+    }
+
+    /**
+     * Goes back to the main channel now, such as before transmitting, and returns true if the
+     * radio was away from it and the main channel's Group must be sent.
+     */
+    public synchronized boolean returnToMain(long nowNanos) {
+        if (tuned == MAIN) {
+            return false;
+        }
+        leave(nowNanos);
+        return true;
+    }
+
+    private int hop(int channel, long nowNanos) {
+        tuned = channel;
+        hopAt = nowNanos;
+        groupInFlight = true;
+        groupSentAt = nowNanos;
+        return channel;
+    }
+
+    private int leave(long nowNanos) {
+        long away = nowNanos - hopAt;
+        if (!holding) {
+            lookNanosTotal += away;
+            maxLookNanos = Math.max(maxLookNanos, away);
+        }
+        if (lookMissesMain) {
+            missedActivityWindows++;
+            missedActivityNanos += away;
+        }
+        if (holding) {
+            lookAt = nowNanos; // Looks start again from here, not all at once
+        }
+        holding = false;
+        return hop(MAIN, nowNanos);
+    }
+
+    /** Drops are followed quickly, rises slowly, as in RssiScanner. */
+    private static float learn(float floor, int rssi) {
+        if (floor < 0) {
+            return rssi;
+        }
+        return floor + (rssi - floor) * (rssi < floor ? 0.25f : 1 / 32f);
+    }
+
+    // === State and metrics ===
+
+    public synchronized boolean isOnMain() {
+        return tuned == MAIN;
+    }
+
+    /**
+     * The priority channel held for its carrier, or -1.
+     */
+    public synchronized int getHeldPriority() {
+        return holding ? tuned : -1;
+    }
+
+    public long getRevisitNanos() {
+        return revisitNanos;
+    }
+
+    /**
+     * Group command round trip, measured or assumed.
+     */
+    public synchronized long getRoundTripNanos() {
+        return roundTrip >= 0 ? roundTrip : DEFAULT_ROUND_TRIP_NANOS;
+    }
+
+    public synchronized long getLookCount() {
+        return looks;
+    }
+
+    /**
+     * Looks given up without a reading of the priority channel.
+     */
+    public synchronized long getMissedLookCount() {
+        return missedLooks;
+    }
+
+    /**
+     * Looks that found a carrier and held the priority channel.
+     */
+    public synchronized long getPriorityHitCount() {
+        return hits;
+    }
+
+    /**
+     * Mean time away from the main channel for a look that did not hold, in nanoseconds.
+     */
+    public synchronized long getMeanLookNanos() {
+        long count = looks - hits;
+        return count > 0 ? lookNanosTotal / count : 0;
+    }
+
+    public synchronized long getMaxLookNanos() {
+        return maxLookNanos;
+    }
+
+    /**
+     * Mean time between readings of each priority channel, in nanoseconds.
+     */
+    public synchronized long getMeanRevisitNanos() {
+        return revisits > 0 ? revisitNanosTotal / revisits : 0;
+    }
+
+    public synchronized long getMaxRevisitNanos() {
+        return maxRevisitNanos;
+    }
+
+    /**
+     * Looks taken while the main channel had a carrier.
+     */
+    public synchronized long getMissedActivityCount() {
+        return missedActivityWindows;
+    }
+
+    /**
+     * Time away from the main channel during those looks, in nanoseconds.
+     */
+    public synchronized long getMissedActivityNanos() {
+        return missedActivityNanos;
+    }
+
+    /**
+     * The metrics above, all taken at one instant.
+     */
+    public synchronized Metrics metrics() {
+        return Metrics.builder()
+            .revisitNanos(revisitNanos)
+            .roundTripNanos(getRoundTripNanos())
+            .lookCount(looks)
+            .missedLookCount(missedLooks)
+            .priorityHitCount(hits)
+            .meanLookNanos(getMeanLookNanos())
+            .maxLookNanos(maxLookNanos)
+            .meanRevisitNanos(getMeanRevisitNanos())
+            .maxRevisitNanos(maxRevisitNanos)
+            .missedActivityCount(missedActivityWindows)
+            .missedActivityNanos(missedActivityNanos)
+            .build();
+    }
+
+    /**
+     * How often the priority channels were read and what watching them cost the main channel,
+     * for diagnostics. revisitNanos is the interval asked for, the revisit figures what was had.
+     */
+    @Data
+    @Builder
+    public static class Metrics {
+        private final long revisitNanos;
+        private final long roundTripNanos;
+        private final long lookCount;
+        private final long missedLookCount;
+        private final long priorityHitCount;
+        private final long meanLookNanos;
+        private final long maxLookNanos;
+        private final long meanRevisitNanos;
+        private final long maxRevisitNanos;
+        private final long missedActivityCount;
+        private final long missedActivityNanos;
+    }
+}
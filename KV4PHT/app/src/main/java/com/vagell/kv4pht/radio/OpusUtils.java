@@ -22,9 +22,34 @@ public final class OpusUtils {
             this.pcmShorts = new short[frameSize]; // Preallocate
         }
 
-        @SneakyThrows
         public int decode(byte[] opusData, int len, float[] floatData)  {
-            int decodedSamples = decoder.decode(opusData, 0, len, pcmShorts, 0, frameSize, false);
+            return decode(opusData, 0, len, floatData);
+        }
+
+        @SneakyThrows
+        public int decode(byte[] opusData, int offset, int len, float[] floatData)  {
+            return toFloat(decoder.decode(opusData, offset, len, pcmShorts, 0, frameSize, false), floatData);
+        }
+
+        /**
+         * Fills in a lost frame by packet loss concealment, extrapolating from the frames decoded
+         * before it.
+         */
+        @SneakyThrows
+        public int conceal(float[] floatData) {
+            return toFloat(decoder.decode(null, 0, 0, pcmShorts, 0, frameSize, false), floatData);
+        }
+
+        /**
+         * Recovers the frame lost just before this one from the in-band FEC data it carries, or
+         * conceals it if it carries none. The frame itself is decoded by the next call.
+         */
+        @SneakyThrows
+        public int decodeFec(byte[] opusData, int offset, int len, float[] floatData) {
+            return toFloat(decoder.decode(opusData, offset, len, pcmShorts, 0, frameSize, true), floatData);
+        }
+
+        private int toFloat(int decodedSamples, float[] floatData) {
             // Convert 16-bit PCM to float (-1.0 to 1.0)
             for (int i = 0; i < decodedSamples; i++) {
                 floatData[i] = pcmShorts[i] / 32768.0f;
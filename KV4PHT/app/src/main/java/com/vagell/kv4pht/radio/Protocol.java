@@ -3,10 +3,11 @@ package com.vagell.kv4pht.radio;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import com.hoho.android.usbserial.util.SerialInputOutputManager;
 
@@ -63,17 +64,19 @@ public final class Protocol {
         COMMAND_RX_AUDIO(0x07),         // [COMMAND_RX_AUDIO(int8_t[])]
         COMMAND_VERSION(0x08),          // [COMMAND_VERSION(Version)]
         COMMAND_WINDOW_UPDATE(0x09);    // [COMMAND_WINDOW_UPDATE()]
+        private static final RcvCommand[] BY_VALUE = new RcvCommand[256];
+        static {
+            java.util.Arrays.fill(BY_VALUE, COMMAND_RCV_UNKNOWN);
+            for (RcvCommand type : RcvCommand.values()) {
+                BY_VALUE[type.getValue()] = type;
+            }
+        }
         private final int value;
         RcvCommand(int value) {
             this.value = value;
         }
         public static RcvCommand fromValue(int value) {
-            for (RcvCommand type : RcvCommand.values()) {
-                if (type.getValue() == value) {
-                    return type;
-                }
-            }
-            return COMMAND_RCV_UNKNOWN;
+            return value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : COMMAND_RCV_UNKNOWN;
         }
     }
 
@@ -125,6 +128,7 @@ public final class Protocol {
     @Data
     @Builder
     public static class Group {
+        public static final int LENGTH = 12;
         private final byte bw;
         private final float freqTx;
         private final float freqRx;
@@ -132,14 +136,18 @@ public final class Protocol {
         private final byte squelch;
         private final byte ctcssRx;
         public byte[] toBytes() {
-            ByteBuffer buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] bytes = new byte[LENGTH];
+            toBytes(bytes, 0);
+            return bytes;
+        }
+        public void toBytes(byte[] dst, int offset) {
+            ByteBuffer buffer = ByteBuffer.wrap(dst, offset, LENGTH).order(ByteOrder.LITTLE_ENDIAN);
             buffer.put(bw);
             buffer.putFloat(freqTx);
             buffer.putFloat(freqRx);
             buffer.put(ctcssTx);
             buffer.put(squelch);
             buffer.put(ctcssRx);
-            return buffer.array();
         }
     }
 
@@ -184,13 +192,16 @@ public final class Protocol {
     @Data
     @Builder
     public static class Rssi {
+        private final int raw; // 0-255 as the module reads it
         private final int sMeter9Value;
         public static Optional<Rssi> from(final byte[] param, Integer len) {
+            return from(param, 0, len);
+        }
+        public static Optional<Rssi> from(final byte[] param, int offset, int len) {
             return Optional.ofNullable(param)
                 .filter(p -> len == 1)
-                .map(p -> p[0] & 0xFF)
-                .map(Rssi::calculateSMeter9Value)
-                .map(rssi -> Rssi.builder().sMeter9Value(rssi).build());
+                .map(p -> p[offset] & 0xFF)
+                .map(rssi -> Rssi.builder().raw(rssi).sMeter9Value(calculateSMeter9Value(rssi)).build());
         }
         private static int calculateSMeter9Value(int sMeter255Value) {
             double result = 9.73 * Math.log(0.0297 * sMeter255Value) - 1.88;
@@ -208,18 +219,25 @@ public final class Protocol {
         private final boolean hasHl;
         private final boolean hasPhysPtt;
         public static Optional<FirmwareVersion> from(final byte[] param, Integer len) {
+            return from(param, 0, len);
+        }
+        public static Optional<FirmwareVersion> from(final byte[] param, int offset, int len) {
             return Optional.ofNullable(param)
                 .filter(p -> len == 12)
-                .map(ByteBuffer::wrap)
+                .map(p -> ByteBuffer.wrap(p, offset, len))
                 .map(b -> b.order(ByteOrder.LITTLE_ENDIAN))
-                .map(b -> FirmwareVersion.builder()
-                    .ver(b.getShort())
-                    .radioModuleStatus(RadioStatus.fromValue((char) b.get()))
-                    .windowSize(b.getInt())
-                    .moduleType(RfModuleType.fromValue(b.getInt()))
-                    .hasHl((b.get() & 0x01) != 0)
-                    .hasPhysPtt((b.get() & 0x02) != 0)
-                    .build());
+                .map(b -> {
+                    FirmwareVersionBuilder version = FirmwareVersion.builder()
+                        .ver(b.getShort())
+                        .radioModuleStatus(RadioStatus.fromValue((char) b.get()))
+                        .windowSize(b.getInt())
+                        .moduleType(RfModuleType.fromValue(b.getInt()));
+                    byte features = b.get(); // one bit per feature, the last of the 12 bytes
+                    return version
+                        .hasHl((features & 0x01) != 0)
+                        .hasPhysPtt((features & 0x02) != 0)
+                        .build();
+                });
         }
     }
 
@@ -228,70 +246,218 @@ public final class Protocol {
     public static class WindowUpdate {
         private final int size;
         public static Optional<WindowUpdate> from(final byte[] param, Integer len) {
+            return from(param, 0, len);
+        }
+        public static Optional<WindowUpdate> from(final byte[] param, int offset, int len) {
             return Optional.ofNullable(param)
                 .filter(p -> len == 4)
-                .map(ByteBuffer::wrap)
+                .map(p -> ByteBuffer.wrap(p, offset, len))
                 .map(b -> b.order(ByteOrder.LITTLE_ENDIAN))
                 .map(b -> WindowUpdate.builder().size(b.getInt()).build());
         }
     }
 
+    /**
+     * Where a {@link Sender} writes its frames: the USB serial write path, or a stand-in in tests.
+     */
+    @FunctionalInterface
+    public interface Transport {
+        /**
+         * Queues length bytes, encoded by encoder straight into the transport's own buffer.
+         */
+        void writeAsync(int length, SerialInputOutputManager.Encoder encoder);
+
+        /**
+         * Like {@link #writeAsync}, but ahead of the data already queued, at a frame boundary.
+         * Transports with a single lane queue it like any other write.
+         */
+        default void writePriorityAsync(int length, SerialInputOutputManager.Encoder encoder) {
+            writeAsync(length, encoder);
+        }
+
+        /**
+         * Like {@link #writeAsync}, but returns false, queueing nothing, instead of waiting for
+         * space. Transports that never wait always queue it.
+         */
+        default boolean tryWriteAsync(int length, SerialInputOutputManager.Encoder encoder) {
+            writeAsync(length, encoder);
+            return true;
+        }
+
+        /**
+         * Bytes queued and not written out yet, 0 if the transport does not know.
+         */
+        default int getPendingWriteBytes() {
+            return 0;
+        }
+    }
+
+    /**
+     * One frame to send, encoded in place into the transport's buffer: delimiter, command,
+     * little-endian payload length, payload. Reused for every frame, so sending allocates nothing.
+     */
+    private static final class FrameEncoder implements SerialInputOutputManager.Encoder {
+        static final int HEADER_LENGTH = COMMAND_DELIMITER.length + 1 + 2;
+
+        private byte command;
+        private byte[] param;
+        private int offset;
+        private int length;
+
+        int set(SndCommand command, byte[] param, int offset, int length) {
+            this.command = (byte) command.getValue();
+            this.param = param;
+            this.offset = offset;
+            this.length = length;
+            return HEADER_LENGTH + length;
+        }
+
+        @Override
+        public void encode(ByteBuffer buffer) {
+            buffer.put(COMMAND_DELIMITER);
+            buffer.put(command);
+            buffer.put((byte) length);
+            buffer.put((byte) (length >> 8));
+            if (length > 0) {
+                buffer.put(param, offset, length);
+            }
+            param = null; // Don't hold on to the caller's buffer
+        }
+    }
+
+    /**
+     * Sends commands to the ESP32. Frames that fill its buffers (everything but the PTT and stop
+     * controls) spend credits from a flow control window the firmware grants with window updates.
+     * <p>
+     * Audio, and the PTT press that keys it, go out in the order they are sent. Every other frame
+     * takes the transport's priority lane, so a PTT release or a retune goes out ahead of audio
+     * still queued for the USB port rather than after seconds of it. Data transmissions that must
+     * not lose their tail release PTT with {@link #pttUpAfterQueuedAudio()} instead.
+     * <p>
+     * The window is a single atomic counter: a sender takes its credits with a compare-and-set
+     * and only parks when there truly are not enough, until the next grant wakes it. So a frame
+     * costs no lock while credits last, and credits are never spent twice by concurrent senders.
+     */
     public static class Sender {
 
         private final AtomicInteger flowControlWindow = new AtomicInteger(1024);
-        private final SerialInputOutputManager usbIoManager;
-        private final Lock lock = new ReentrantLock();
-        private final Condition canSendCondition = lock.newCondition();
+        // Senders parked until the next grant; only touched when credits run out.
+        private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+        private final AtomicLong starvationCount = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+        private final AtomicLong droppedTxAudioCount = new AtomicLong();
+        private final Transport transport;
+        private final FrameEncoder frame = new FrameEncoder(); // Guarded by itself
+        // Its own encoder, so a priority frame never waits for an audio sender blocked on a full buffer
+        private final FrameEncoder priorityFrame = new FrameEncoder(); // Guarded by itself
 
         public Sender(SerialInputOutputManager usbIoManager) {
-            this.usbIoManager = usbIoManager;
+            this(new Transport() {
+                @Override
+                public void writeAsync(int length, SerialInputOutputManager.Encoder encoder) {
+                    usbIoManager.writeAsync(length, encoder);
+                }
+
+                @Override
+                public void writePriorityAsync(int length, SerialInputOutputManager.Encoder encoder) {
+                    usbIoManager.writePriorityAsync(length, encoder);
+                }
+
+                @Override
+                public boolean tryWriteAsync(int length, SerialInputOutputManager.Encoder encoder) {
+                    return usbIoManager.tryWriteAsync(length, encoder);
+                }
+
+                @Override
+                public int getPendingWriteBytes() {
+                    return usbIoManager.getPendingWriteBytes();
+                }
+            });
+        }
+
+        public Sender(Transport transport) {
+            this.transport = transport;
         }
 
         private void sendCommand(SndCommand commandType, byte[] param) {
-            int frameSize = COMMAND_DELIMITER.length + 1 + 2 + (param != null ? param.length : 0);
-            waitUntilCanSend(frameSize);
-            ByteBuffer buffer = ByteBuffer.allocate(frameSize);
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
-            buffer.put(COMMAND_DELIMITER);
-            buffer.put((byte) commandType.getValue());
-            if (param != null) {
-                buffer.putShort((short) param.length);
-                buffer.put(param);
+            sendCommand(commandType, param, 0, param != null ? param.length : 0);
+        }
+
+        private void sendCommand(SndCommand commandType, byte[] param, int offset, int length) {
+            int size = FrameEncoder.HEADER_LENGTH + length;
+            if (commandType == SndCommand.COMMAND_HOST_TX_AUDIO) {
+                // Interrupting the audio sender is how a transmission is cut short
+                if (acquireCredits(size, true)) {
+                    write(commandType, param, offset, length, false);
+                }
             } else {
-                buffer.putShort((short) 0);
+                acquireCredits(size, false);
+                write(commandType, param, offset, length, true);
             }
-            usbIoManager.writeAsync(buffer.array());
-            flowControlWindow.addAndGet(-frameSize);
         }
 
-        private void sendControl(SndCommand commandType) {
-            int frameSize = COMMAND_DELIMITER.length + 1 + 2;
-            ByteBuffer buffer = ByteBuffer.allocate(frameSize);
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
-            buffer.put(COMMAND_DELIMITER);
-            buffer.put((byte) commandType.getValue());
-            buffer.putShort((short) 0);
-            usbIoManager.writeAsync(buffer.array());
+        private void sendControl(SndCommand commandType, boolean priority) {
+            write(commandType, null, 0, 0, priority);
+        }
+
+        private void write(SndCommand commandType, byte[] param, int offset, int length, boolean priority) {
+            if (priority) {
+                synchronized (priorityFrame) {
+                    transport.writePriorityAsync(priorityFrame.set(commandType, param, offset, length), priorityFrame);
+                }
+            } else {
+                synchronized (frame) {
+                    transport.writeAsync(frame.set(commandType, param, offset, length), frame);
+                }
+            }
         }
 
+        /**
+         * Keys PTT after anything queued, so it never overtakes the end of a previous transmission
+         * that releases PTT after its audio.
+         */
         public void pttDown() {
-            sendControl(SndCommand.COMMAND_HOST_PTT_DOWN);
+            sendControl(SndCommand.COMMAND_HOST_PTT_DOWN, false);
         }
 
+        /**
+         * Releases PTT right away, ahead of any audio still queued.
+         */
         public void pttUp() {
-            sendControl(SndCommand.COMMAND_HOST_PTT_UP);
+            sendControl(SndCommand.COMMAND_HOST_PTT_UP, true);
+        }
+
+        /**
+         * Releases PTT once the audio sent so far is out, so the end of a transmission is kept.
+         */
+        public void pttUpAfterQueuedAudio() {
+            sendControl(SndCommand.COMMAND_HOST_PTT_UP, false);
         }
 
         public void group(Group group) {
             sendCommand(SndCommand.COMMAND_HOST_GROUP, group.toBytes());
         }
 
+        /**
+         * Sends a Group command already encoded, {@link Group#LENGTH} bytes at offset in groups.
+         */
+        public void group(byte[] groups, int offset) {
+            sendCommand(SndCommand.COMMAND_HOST_GROUP, groups, offset, Group.LENGTH);
+        }
+
         public void filters(Filters filters) {
             sendCommand(SndCommand.COMMAND_HOST_FILTERS, filters.toBytes());
         }
 
         public void stop() {
-            sendControl(SndCommand.COMMAND_HOST_STOP);
+            sendControl(SndCommand.COMMAND_HOST_STOP, true);
+        }
+
+        /**
+         * Like {@link #stop()}, once the audio sent so far is out.
+         */
+        public void stopAfterQueuedAudio() {
+            sendControl(SndCommand.COMMAND_HOST_STOP, false);
         }
 
         public void config(Config config) {
@@ -301,41 +467,141 @@ public final class Protocol {
         public void txAudio(byte[] audio) {
             sendCommand(SndCommand.COMMAND_HOST_TX_AUDIO, audio);
         }
+
+        /**
+         * Sends length bytes of encoded audio starting at offset, without copying them first.
+         */
+        public void txAudio(byte[] audio, int offset, int length) {
+            sendCommand(SndCommand.COMMAND_HOST_TX_AUDIO, audio, offset, length);
+        }
+
+        /**
+         * Like {@link #txAudio(byte[], int, int)}, but drops the frame rather than wait when the
+         * transport's buffer is full, so a real-time producer never stalls behind a backed-up
+         * port. Still waits for credits, which the firmware grants as it plays audio out.
+         *
+         * @return false if the frame was dropped, see {@link #getDroppedTxAudioCount()}
+         */
+        public boolean tryTxAudio(byte[] audio, int offset, int length) {
+            int size = FrameEncoder.HEADER_LENGTH + length;
+            if (!acquireCredits(size, true)) {
+                return false;
+            }
+            boolean queued;
+            synchronized (frame) {
+                queued = transport.tryWriteAsync(frame.set(SndCommand.COMMAND_HOST_TX_AUDIO, audio, offset, length), frame);
+                if (!queued) {
+                    frame.set(SndCommand.COMMAND_HOST_TX_AUDIO, null, 0, 0); // Don't hold on to the caller's buffer
+                }
+            }
+            if (!queued) {
+                droppedTxAudioCount.incrementAndGet();
+                enlargeFlowControlWindow(size); // Nothing went out, so the credits are still ours
+            }
+            return queued;
+        }
         
-        // Waits until it can send (windowSize > 0)
-        private void waitUntilCanSend(int size) {
-            lock.lock();
+        /**
+         * Takes credits for a frame of the given size, waiting for a grant while the window is
+         * too small. If interruptible, returns false, sending nothing, if the thread is interrupted
+         * while waiting; otherwise keeps waiting, so a command is never lost, and sets the
+         * thread's interrupt flag again once it has the credits.
+         */
+        private boolean acquireCredits(int size, boolean interruptible) {
+            if (tryAcquireCredits(size)) {
+                return true;
+            }
+            starvationCount.incrementAndGet();
+            long start = System.nanoTime();
+            Thread current = Thread.currentThread();
+            boolean interrupted = false;
             try {
-                while (flowControlWindow.get() <= size) {
-                    try {
-                        canSendCondition.await();  // Wait until signaled that windowSize > 0
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
+                while (true) {
+                    // Registered before checking again, so a grant in between still wakes us.
+                    waiters.add(current);
+                    if (tryAcquireCredits(size)) {
+                        return true;
+                    }
+                    if (interruptible && current.isInterrupted()) {
+                        return false;
+                    }
+                    LockSupport.park(this);
+                    waiters.remove(current);
+                    if (!interruptible && Thread.interrupted()) {
+                        interrupted = true; // Cleared meanwhile, or park would return at once
                     }
                 }
             } finally {
-                lock.unlock();
+                waiters.remove(current);
+                blockedNanos.addAndGet(System.nanoTime() - start);
+                if (interrupted) {
+                    current.interrupt();
+                }
             }
         }
 
-        public void setFlowControlWindow(int size) {
-            lock.lock();
-            try {
-                flowControlWindow.set(size);
-                canSendCondition.signalAll();  // Signal all waiting threads that they can proceed
-            } finally {
-                lock.unlock();
+        private boolean tryAcquireCredits(int size) {
+            int window;
+            do {
+                window = flowControlWindow.get();
+                if (window <= size) {
+                    return false;
+                }
+            } while (!flowControlWindow.compareAndSet(window, window - size));
+            return true;
+        }
+
+        private void wakeWaiters() {
+            if (!waiters.isEmpty()) {
+                for (Thread waiter : waiters) {
+                    LockSupport.unpark(waiter);
+                }
             }
         }
 
+        public void setFlowControlWindow(int size) {
+            flowControlWindow.set(size);
+            wakeWaiters();
+        }
+
         public void enlargeFlowControlWindow(int size) {
-            lock.lock();
-            try {
-                flowControlWindow.addAndGet(size);
-                canSendCondition.signalAll();  // Signal all waiting threads that they can proceed
-            } finally {
-                lock.unlock();
-            }
+            flowControlWindow.addAndGet(size);
+            wakeWaiters();
+        }
+
+        /**
+         * Credits left in the flow control window.
+         */
+        public int getFlowControlWindow() {
+            return flowControlWindow.get();
+        }
+
+        /**
+         * Times a sender found too few credits and had to wait for a window update.
+         */
+        public long getCreditStarvationCount() {
+            return starvationCount.get();
+        }
+
+        /**
+         * Total time senders spent waiting for credits, in nanoseconds.
+         */
+        public long getBlockedNanos() {
+            return blockedNanos.get();
+        }
+
+        /**
+         * Audio frames {@link #tryTxAudio} dropped on a full transport buffer.
+         */
+        public long getDroppedTxAudioCount() {
+            return droppedTxAudioCount.get();
+        }
+
+        /**
+         * Bytes sent but still waiting in the transport's buffer, for pacing what to send next.
+         */
+        public int getPendingWriteBytes() {
+            return transport.getPendingWriteBytes();
         }
 
         public void setHighPower(HlState state) {
@@ -352,63 +618,145 @@ public final class Protocol {
         void accept(T t, U u, V v);
     }
 
+    /**
+     * Receives the frames found by a {@link FrameParser}. The payload is a view of either the
+     * caller's read buffer or the parser's own, so it is only valid during the call.
+     */
+    @FunctionalInterface
+    public interface FrameHandler {
+        void onFrame(RcvCommand command, byte[] buffer, int offset, int length);
+    }
+
+    /**
+     * Splits the ESP32 byte stream into frames. Whole buffers are scanned at a time: the delimiter
+     * is searched for in bulk, a frame that lies entirely within one read is handed on in place,
+     * and only a frame split across reads is reassembled, with bulk copies.
+     */
     public static class FrameParser {
 
-        private int matchedDelimiterTokens = 0;
+        private static final int HEADER_LENGTH = COMMAND_DELIMITER.length + 3; // delimiter, command, length
+
+        private int matchedDelimiterTokens = 0; // header bytes seen, up to HEADER_LENGTH
         private byte command;
         private int commandParamLen;
         private final byte[] commandParams = new byte[PROTO_MTU];
         private int paramIndex;
-        private final TriConsumer<RcvCommand, byte[], Integer> onCommand;
+        private byte[] directChunk;
+        private final FrameHandler onFrame;
 
+        public FrameParser(FrameHandler onFrame) {
+            this.onFrame = onFrame;
+        }
+
+        /**
+         * For handlers that expect the payload at offset 0: frames found in place are copied into
+         * the parser's buffer first.
+         */
         public FrameParser(TriConsumer<RcvCommand, byte[], Integer> onCommand) {
-            this.onCommand = onCommand;
+            this.onFrame = (command, buffer, offset, length) -> {
+                if (offset != 0) {
+                    System.arraycopy(buffer, offset, commandParams, 0, length);
+                    buffer = commandParams;
+                }
+                onCommand.accept(command, buffer, length);
+            };
         }
 
         public void processBytes(byte[] newData) {
-            for (byte b : newData) {
-                processByte(b);
+            processBytes(newData, 0, newData.length);
+        }
+
+        /**
+         * Consumes the buffer's remaining bytes.
+         */
+        public void processBytes(ByteBuffer newData) {
+            if (newData.hasArray()) {
+                processBytes(newData.array(), newData.arrayOffset() + newData.position(), newData.remaining());
+                newData.position(newData.limit());
+                return;
+            }
+            if (directChunk == null) {
+                directChunk = new byte[PROTO_MTU];
+            }
+            while (newData.hasRemaining()) {
+                int n = Math.min(directChunk.length, newData.remaining());
+                newData.get(directChunk, 0, n);
+                processBytes(directChunk, 0, n);
+            }
+        }
+
+        public void processBytes(byte[] data, int offset, int length) {
+            int i = offset;
+            int end = offset + length;
+            while (i < end) {
+                if (matchedDelimiterTokens == 0) {
+                    i = indexOfDelimiterStart(data, i, end);
+                    if (i == end) {
+                        return;
+                    }
+                    matchedDelimiterTokens = 1;
+                    i++;
+                } else if (matchedDelimiterTokens < COMMAND_DELIMITER.length) {
+                    if (data[i] == COMMAND_DELIMITER[matchedDelimiterTokens]) {
+                        matchedDelimiterTokens++;
+                        i++;
+                    } else {
+                        matchedDelimiterTokens = 0; // the delimiter has no repeats, so rescan this byte
+                    }
+                } else if (matchedDelimiterTokens < HEADER_LENGTH) {
+                    processHeaderByte(data[i++]);
+                } else if (paramIndex == 0 && end - i >= commandParamLen) {
+                    // The whole payload is in this read: no copy.
+                    processCommand(data, i, commandParamLen);
+                    i += commandParamLen;
+                    resetParser();
+                } else {
+                    int n = Math.min(commandParamLen - paramIndex, end - i);
+                    System.arraycopy(data, i, commandParams, paramIndex, n);
+                    paramIndex += n;
+                    i += n;
+                    if (paramIndex == commandParamLen) {
+                        processCommand(commandParams, 0, commandParamLen);
+                        resetParser();
+                    }
+                }
+            }
+        }
+
+        private static int indexOfDelimiterStart(byte[] data, int from, int end) {
+            byte first = COMMAND_DELIMITER[0];
+            while (from < end && data[from] != first) {
+                from++;
             }
+            return from;
         }
 
-        private void processByte(byte b) {
-            if (matchedDelimiterTokens < COMMAND_DELIMITER.length) {
-                matchedDelimiterTokens = (b == COMMAND_DELIMITER[matchedDelimiterTokens]) ? matchedDelimiterTokens + 1 : 0;
-            } else if (matchedDelimiterTokens == COMMAND_DELIMITER.length) {
+        private void processHeaderByte(byte b) {
+            if (matchedDelimiterTokens == COMMAND_DELIMITER.length) {
                 command = b;
                 matchedDelimiterTokens++;
             } else if (matchedDelimiterTokens == COMMAND_DELIMITER.length + 1) {
                 commandParamLen = b & 0xFF;
                 matchedDelimiterTokens++;
-            } else if (matchedDelimiterTokens == COMMAND_DELIMITER.length + 2) {
+            } else {
                 commandParamLen = (b & 0xFF) << 8 | commandParamLen;
                 paramIndex = 0;
                 matchedDelimiterTokens++;
                 if (commandParamLen == 0) {
-                    processCommand();
-                    resetParser();
-                }
-                if (commandParamLen > commandParams.length) {
+                    processCommand(commandParams, 0, 0);
                     resetParser();
-                }
-            } else {
-                if (paramIndex < commandParamLen) {
-                    commandParams[paramIndex++] = b;
-                }
-                matchedDelimiterTokens++;
-                if (paramIndex == commandParamLen) {
-                    processCommand();
+                } else if (commandParamLen > commandParams.length) {
                     resetParser();
                 }
             }
         }
 
-        private void processCommand() {
-            RcvCommand cmd = RcvCommand.fromValue(this.command);
+        private void processCommand(byte[] buffer, int offset, int length) {
+            RcvCommand cmd = RcvCommand.fromValue(this.command & 0xFF);
             if (cmd != RcvCommand.COMMAND_RCV_UNKNOWN) {
-                onCommand.accept(cmd, commandParams, commandParamLen);
+                onFrame.onFrame(cmd, buffer, offset, length);
             } else {
-                Log.w(TAG, "Unknown cmd received from ESP32: 0x" + Integer.toHexString(this.command & 0xFF) + " paramLen=" + commandParamLen);
+                Log.w(TAG, "Unknown cmd received from ESP32: 0x" + Integer.toHexString(this.command & 0xFF) + " paramLen=" + length);
             }
         }
 
@@ -45,6 +45,7 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.PowerManager;
+import android.os.Process;
 import android.provider.MediaStore;
 import android.util.Log;
 
@@ -78,11 +79,11 @@ import com.vagell.kv4pht.aprs.parser.Parser;
 import com.vagell.kv4pht.aprs.parser.Position;
 import com.vagell.kv4pht.aprs.parser.PositionField;
 import com.vagell.kv4pht.data.ChannelMemory;
-import com.vagell.kv4pht.javAX25.ax25.Afsk1200Modulator;
-import com.vagell.kv4pht.javAX25.ax25.Afsk1200MultiDemodulator;
+import com.vagell.kv4pht.javAX25.ax25.AfskDemodulatorBank;
+import com.vagell.kv4pht.javAX25.ax25.AfskModulator;
 import com.vagell.kv4pht.javAX25.ax25.Arrays;
+import com.vagell.kv4pht.javAX25.ax25.DemodulatorMetrics;
 import com.vagell.kv4pht.javAX25.ax25.Packet;
-import com.vagell.kv4pht.javAX25.ax25.PacketDemodulator;
 import com.vagell.kv4pht.javAX25.ax25.PacketHandler;
 import com.vagell.kv4pht.javAX25.ax25.PacketModulator;
 import com.vagell.kv4pht.radio.Protocol.Filters;
@@ -94,10 +95,13 @@ import com.vagell.kv4pht.radio.Protocol.WindowUpdate;
 import com.vagell.kv4pht.ui.MainActivity;
 import com.vagell.kv4pht.ui.ToneHelper;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Background service that manages the connection to the ESP32 (to control the radio), and
@@ -175,14 +179,36 @@ public class RadioAudioService extends Service implements PacketHandler {
     public enum RadioModuleType {UNKNOWN, VHF, UHF}
 
     // === Audio / Opus Handling ===
-    private final float[] pcmFloat = new float[OPUS_FRAME_SIZE];
+    private final float[] pcmFloat = new float[OPUS_FRAME_SIZE]; // frames with no bus block free
+    // The USB read thread only puts received Opus frames into rxJitterBuffer; rxPlayoutThread
+    // takes them out one frame period apart and decodes them into this bus; demodulation,
+    // callbacks and playback run on rxDspThread, and other consumers such as SSTV subscribe
+    // with their own threads, so their cost never delays USB reads or each other.
+    private static final int RX_AUDIO_BUS_BLOCKS = 32; // 1.28s of audio
+    @Getter
+    private final RxAudioBus rxAudioBus = new RxAudioBus(RX_AUDIO_BUS_BLOCKS, OPUS_FRAME_SIZE);
+    @Getter
+    private final RxAudioBus.Subscription rxDspSubscription = rxAudioBus.subscribe("RxDsp");
+    private Thread rxDspThread;
+    private Thread rxPlayoutThread;
+    // Records what rxAudioBus carries, on a thread of its own so the file never delays the DSP
+    private static final String TIME_SHIFT_FILE = "timeshift.pcm";
+    private static final int TIME_SHIFT_SECONDS = 300; // 28.8 MB
+    private static final int TIME_SHIFT_EVENTS = 512;
+    private TimeShiftRecorder timeShiftRecorder;
+    private Thread timeShiftThread;
     private AudioTrack audioTrack;
     private float audioTrackVolume = 0.0f;
     private AudioFocusRequest audioFocusRequest;
     private final OpusUtils.OpusDecoderWrapper opusDecoder =
         new OpusUtils.OpusDecoderWrapper(AUDIO_SAMPLE_RATE, OPUS_FRAME_SIZE);
+    private static final int RX_JITTER_BUFFER_FRAMES = 16; // 640ms of audio
+    private final RxJitterBuffer rxJitterBuffer =
+        new RxJitterBuffer(opusDecoder, OPUS_FRAME_SIZE, AUDIO_SAMPLE_RATE, RX_JITTER_BUFFER_FRAMES);
     private final OpusUtils.OpusEncoderWrapper opusEncoder =
         new OpusUtils.OpusEncoderWrapper(AUDIO_SAMPLE_RATE, OPUS_FRAME_SIZE);
+    private final byte[] opusTxFrame = new byte[Protocol.PROTO_MTU];
+    private float[] micGainBuffer = new float[OPUS_FRAME_SIZE];
 
     // === USB / Serial ===
     private UsbManager usbManager;
@@ -194,8 +220,15 @@ public class RadioAudioService extends Service implements PacketHandler {
     private final FrameParser esp32DataStreamParser = new FrameParser(this::handleParsedCommand);
 
     // === AFSK Modem ===
-    private final PacketModulator afskModulator = new Afsk1200Modulator(AUDIO_SAMPLE_RATE);
-    private final PacketDemodulator afskDemodulator = new Afsk1200MultiDemodulator(AUDIO_SAMPLE_RATE, this);
+    private final PacketModulator afskModulator = new AfskModulator(AUDIO_SAMPLE_RATE, 1200, 1200, 2200);
+    // Phones with cores to spare run extra demodulator variants in parallel for better decode yield.
+    private static final AfskDemodulatorBank.Variant[] AFSK_VARIANTS =
+        Runtime.getRuntime().availableProcessors() > 4 ? AfskDemodulatorBank.WIDE_VARIANTS : AfskDemodulatorBank.DEFAULT_VARIANTS;
+    // Candidate bit flips checked per frame that fails its CRC; each check is a table lookup.
+    private static final int AFSK_REPAIR_BUDGET = 256;
+    private volatile AfskDemodulatorBank afskDemodulator = newAfskDemodulator(AFSK_VARIANTS);
+    // Requested by setAfskPll() on any thread, swapped in by the RX DSP thread before its next block.
+    private volatile AfskDemodulatorBank.Variant[] pendingAfskVariants;
 
     // === APRS State ===
     private boolean aprsBeaconPosition = false;
@@ -228,8 +261,8 @@ public class RadioAudioService extends Service implements PacketHandler {
     private @NonNull String activeFrequencyStr = "";
     @Getter
     private RadioModuleType radioType = RadioModuleType.UNKNOWN;
-    private int activeMemoryId = -1;
-    private int consecutiveSilenceBytes = 0;
+    private volatile int activeMemoryId = -1;
+    private int consecutiveSilenceBytes = 0; // guarded by rssiScanner
     private MicGainBoost micGainBoost = MicGainBoost.NONE;
     @Setter
     private @NonNull String bandwidth = "25kHz";
@@ -246,7 +279,19 @@ public class RadioAudioService extends Service implements PacketHandler {
     private LiveData<List<ChannelMemory>> channelMemoriesLiveData = null;
 
     // === Scan Timing ===
-    private static final float SEC_BETWEEN_SCANS = 0.5f;
+    // Moves the scan on from dead channels by their RSSI, and decides how much silence to wait
+    // out on the others. Scan steps come from the USB read, RX DSP and main threads, each taking
+    // it as a lock, so one decision to move on never skips two channels.
+    private final RssiScanner rssiScanner = new RssiScanner();
+    // Compiled from channelMemoriesLiveData on the first scan step after its list changes, which
+    // it does on every ChannelMemoryDao change, or after the settings in the plan change
+    private volatile ScanPlan scanPlan;
+    // The Group of the channel the user tuned, guarded by itself. Dual watch hops, returns to it
+    // and PTT are all sent holding it, so they reach the radio in the order they were decided
+    private final byte[] mainGroup = new byte[Group.LENGTH];
+    private boolean mainGroupSet;
+    private volatile DualWatch dualWatch;
+    private byte[] dualWatchGroups;
 
     /**
      * Class used for the client Binder. This service always runs in the same process as its clients.
@@ -277,6 +322,11 @@ public class RadioAudioService extends Service implements PacketHandler {
         default void txEnded() {}
         default void chatError(String text) {}
         default void sMeterUpdate(int value) {}
+        /**
+         * Called on the RX DSP thread with each received block, which is shared with the other
+         * consumers: it is only valid during the call and must not be modified. Consumers that
+         * need time or their own thread should subscribe to the {@link RxAudioBus} instead.
+         */
         default void rxAudio(float[] samples, int length) {}
         default void aprsBeaconing(boolean beaconing, int accuracy) {}
         default void sentAprsBeacon(double latitude, double longitude) {}
@@ -443,6 +493,23 @@ public class RadioAudioService extends Service implements PacketHandler {
 
         SecureRandom random = new SecureRandom();
         messageNumber = random.nextInt(APRS_MAX_MESSAGE_NUM); // Start with any Message # from 0-99999, we'll increment it by 1 each tx until restart.
+
+        rxDspThread = new Thread(this::runRxDsp, "RxDsp");
+        rxDspThread.setDaemon(true);
+        rxDspThread.start();
+        rxPlayoutThread = new Thread(this::runRxPlayout, "RxPlayout");
+        rxPlayoutThread.setDaemon(true);
+        rxPlayoutThread.start();
+        try {
+            timeShiftRecorder = new TimeShiftRecorder(new File(getFilesDir(), TIME_SHIFT_FILE),
+                AUDIO_SAMPLE_RATE, TIME_SHIFT_SECONDS, TIME_SHIFT_EVENTS);
+            RxAudioBus.Subscription subscription = rxAudioBus.subscribe("TimeShift");
+            timeShiftThread = new Thread(() -> runTimeShift(subscription), "TimeShift");
+            timeShiftThread.setDaemon(true);
+            timeShiftThread.start();
+        } catch (IOException e) {
+            Log.w(TAG, "Time-shift recorder unavailable", e);
+        }
     }
 
     /**
@@ -534,6 +601,7 @@ public class RadioAudioService extends Service implements PacketHandler {
      */
     public void setChannelMemories(LiveData<List<ChannelMemory>> channelMemoriesLiveData) {
         this.channelMemoriesLiveData = channelMemoriesLiveData;
+        scanPlan = null;
     }
 
     @Override
@@ -546,6 +614,25 @@ public class RadioAudioService extends Service implements PacketHandler {
         if (this.beaconScheduler != null && !beaconScheduler.isShutdown()) {
             beaconScheduler.shutdownNow();
         }
+        rxAudioBus.close();
+        LockSupport.unpark(rxPlayoutThread);
+        try {
+            rxPlayoutThread.join(1000);
+            rxDspThread.join(1000); // The demodulators must be idle before they are closed.
+            if (timeShiftThread != null) {
+                timeShiftThread.join(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        afskDemodulator.close();
+        if (timeShiftRecorder != null) {
+            try {
+                timeShiftRecorder.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing time-shift recorder", e);
+            }
+        }
 
         // Clean up USB resources to prevent race conditions on restart
         if (usbIoManager != null) {
@@ -629,14 +716,13 @@ public class RadioAudioService extends Service implements PacketHandler {
         activeFrequencyStr = frequencyStr;
         activeMemoryId = -1; // Reset active memory ID since we're tuning to a frequency, not a memory.
         squelch = squelchLevel;
-        if (isRadioConnected()) {
-            hostToEsp32.group(Group.builder()
-                .freqTx(freq)
-                .freqRx(freq)
-                .bw((bandwidth.equals("25kHz") ? DRA818_25K : DRA818_12K5))
-                .squelch((byte) squelchLevel)
-                .build());
-        }
+        Group group = Group.builder()
+            .freqTx(freq)
+            .freqRx(freq)
+            .bw((bandwidth.equals("25kHz") ? DRA818_25K : DRA818_12K5))
+            .squelch((byte) squelchLevel)
+            .build();
+        setMainGroup(group);
         txAllowed = isTxAllowed(freq);
     }
 
@@ -681,21 +767,48 @@ public class RadioAudioService extends Service implements PacketHandler {
         activeFrequencyStr = validateFrequency(memory.frequency);
         activeMemoryId = memory.memoryId;
         final float txFreq = Float.parseFloat(getTxFreq(memory.frequency, memory.offset, memory.offsetKhz));
-        if (isRadioConnected()) {
-            hostToEsp32.group(Group.builder()
-                .freqTx(txFreq)
-                .freqRx(Float.parseFloat(makeSafeHamFreq(activeFrequencyStr)))
-                .bw(bandwidth.equals("25kHz") ? DRA818_25K : DRA818_12K5)
-                .squelch((byte) squelchLevel)
-                .ctcssRx((byte) Math.max(0, ToneHelper.getToneIndex(memory.rxTone)))
-                .ctcssTx((byte) Math.max(0, ToneHelper.getToneIndex(memory.txTone)))
-                .build());
-        }
+        Group group = memoryGroup(memory, activeFrequencyStr, txFreq, (byte) squelchLevel);
+        setMainGroup(group);
         txAllowed = isTxAllowed(txFreq);
 
         updateForegroundNotification(memory.name + " (" + memory.frequency + " MHz)");
     }
 
+    private Group memoryGroup(ChannelMemory memory, String frequencyStr, float txFreq, byte squelchLevel) {
+        return Group.builder()
+            .freqTx(txFreq)
+            .freqRx(Float.parseFloat(makeSafeHamFreq(frequencyStr)))
+            .bw(bandwidth.equals("25kHz") ? DRA818_25K : DRA818_12K5)
+            .squelch(squelchLevel)
+            .ctcssRx((byte) Math.max(0, ToneHelper.getToneIndex(memory.rxTone)))
+            .ctcssTx((byte) Math.max(0, ToneHelper.getToneIndex(memory.txTone)))
+            .build();
+    }
+
+    /**
+     * Keeps the Group of the channel the user tuned, for dual watch to come back to, takes dual
+     * watch back to it and tunes it, in one go so no dual watch hop can land after.
+     */
+    private void setMainGroup(Group group) {
+        synchronized (mainGroup) {
+            group.toBytes(mainGroup, 0);
+            mainGroupSet = true;
+            DualWatch watch = dualWatch;
+            if (watch != null) {
+                watch.returnToMain(System.nanoTime());
+            }
+            if (isRadioConnected()) {
+                hostToEsp32.group(mainGroup, 0);
+            }
+        }
+    }
+
+    private void sendMainGroup() {
+        synchronized (mainGroup) {
+            hostToEsp32.group(mainGroup, 0);
+        }
+    }
+
     private String getTxFreq(String txFreq, int offset, int khz) {
         if (offset == ChannelMemory.OFFSET_NONE) {
             return txFreq;
@@ -710,13 +823,15 @@ public class RadioAudioService extends Service implements PacketHandler {
         }
     }
 
-    private void checkScanDueToSilence() {
+    // Called with rssiScanner held
+    private void checkScanDueToSilence(long dwellSamples) {
         // Note that we handle scanning explicitly like this rather than using dra->scan() because
         // as best I can tell the DRA818v chip has a defect where it always returns "S=1" (which
         // means there is no signal detected on the given frequency) even when there is. I did
         // extensive debugging and even rewrote large portions of the DRA818v library to determine
-        // that this was the case. So in lieu of that, we scan using a timing/silence-based system.
-        if (consecutiveSilenceBytes >= (AUDIO_SAMPLE_RATE * SEC_BETWEEN_SCANS)) {
+        // that this was the case. So in lieu of that, we scan using a timing/silence-based system,
+        // sped up by the RSSI reports where the firmware sends them (see rssiScanner).
+        if (consecutiveSilenceBytes >= dwellSamples) {
             consecutiveSilenceBytes = 0;
             nextScan();
         }
@@ -775,7 +890,13 @@ public class RadioAudioService extends Service implements PacketHandler {
             setMode(RadioMode.TX);
             callbacks.sMeterUpdate(0);
             setTxRunAwayTimer();
-            hostToEsp32.pttDown();
+            synchronized (mainGroup) {
+                DualWatch watch = dualWatch;
+                if (watch != null && watch.returnToMain(System.nanoTime())) {
+                    sendMainGroup(); // Never transmit on a priority channel
+                }
+                hostToEsp32.pttDown();
+            }
             audioTrackVolume = 0.0f;
             Optional.ofNullable(audioTrack).ifPresent(t -> t.setVolume(0.0f));
             callbacks.txStarted();
@@ -784,31 +905,62 @@ public class RadioAudioService extends Service implements PacketHandler {
         }
     }
 
+    /**
+     * Releases PTT ahead of any mic audio still queued for the ESP32.
+     */
     public void endPtt() {
+        endPtt(false);
+    }
+
+    /**
+     * @param afterQueuedAudio True to release PTT only once the audio sent so far is out, for data
+     *                         transmissions whose tail must not be cut off.
+     */
+    private void endPtt(boolean afterQueuedAudio) {
         if (mode == RadioMode.TX) {
             setMode(RadioMode.RX);
             audioTrackVolume = 0.0f;
             Optional.ofNullable(audioTrack).ifPresent(t -> t.setVolume(0.0f));
-            if (hostToEsp32 != null) hostToEsp32.stop();
-            hostToEsp32.pttUp();
+            if (hostToEsp32 != null) {
+                releasePtt(afterQueuedAudio);
+            }
             callbacks.txEnded();
         }
     }
 
     public void forceEndPtt() {
+        forceEndPtt(false);
+    }
+
+    private void forceEndPtt(boolean afterQueuedAudio) {
         setMode(RadioMode.RX);
         audioTrackVolume = 0.0f;
         Optional.ofNullable(audioTrack).ifPresent(t -> t.setVolume(0.0f));
-        if (hostToEsp32 != null) hostToEsp32.stop();
-        if (hostToEsp32 != null) hostToEsp32.pttUp();
-        if (hostToEsp32 != null) handler.postDelayed(() -> hostToEsp32.pttUp(), 150);
+        if (hostToEsp32 != null) releasePtt(afterQueuedAudio);
+        if (hostToEsp32 != null) handler.postDelayed(() -> {
+            if (afterQueuedAudio) {
+                hostToEsp32.pttUpAfterQueuedAudio();
+            } else {
+                hostToEsp32.pttUp();
+            }
+        }, 150);
         if (txTimeoutHandler != null) handler.removeCallbacks(txTimeoutHandler);
         callbacks.txEnded();
     }
 
+    private void releasePtt(boolean afterQueuedAudio) {
+        if (afterQueuedAudio) {
+            hostToEsp32.stopAfterQueuedAudio();
+            hostToEsp32.pttUpAfterQueuedAudio();
+        } else {
+            hostToEsp32.stop();
+            hostToEsp32.pttUp();
+        }
+    }
+
     public void endDataTx() {
         sendSilentFrames(MS_SILENCE_AFTER_DATA_MS);
-        forceEndPtt();
+        forceEndPtt(true);
     }
 
     public RadioMode getMode() { return mode; }
@@ -885,10 +1037,11 @@ public class RadioAudioService extends Service implements PacketHandler {
         } catch (Exception e) {
             // Ignore, may not be supported on all devices.
         }
-        usbIoManager = new SerialInputOutputManager(serialPort, new SerialInputOutputManager.Listener() {
+        usbIoManager = new SerialInputOutputManager(serialPort);
+        usbIoManager.setBufferListener(new SerialInputOutputManager.BufferListener() {
             @Override
-            public void onNewData(byte[] data) {
-                esp32DataStreamParser.processBytes(data);
+            public void onNewData(ByteBuffer data, int length) {
+                esp32DataStreamParser.processBytes(data); // Parsed in place, in the pooled read buffer
             }
             @Override
             public void onRunError(Exception e) {
@@ -970,6 +1123,7 @@ public class RadioAudioService extends Service implements PacketHandler {
             return;
         }
         if (!scanning) {
+            rssiScanner.stop();
             // If squelch was off before we started scanning, turn it off again
             if (squelch == 0) {
                 tuneToMemory(activeMemoryId, squelch, true);
@@ -978,8 +1132,12 @@ public class RadioAudioService extends Service implements PacketHandler {
                 setMode(RadioMode.RX);
             }
         } else { // Start scanning
+            stopDualWatch();
             setMode(RadioMode.SCAN);
-            nextScan();
+            synchronized (rssiScanner) {
+                rssiScanner.start(System.nanoTime());
+                nextScan();
+            }
         }
     }
 
@@ -987,7 +1145,85 @@ public class RadioAudioService extends Service implements PacketHandler {
         setScanning(scanning, true);
     }
 
+    /**
+     * Watches the given memories while receiving on the channel tuned, taking a look at each in
+     * turn every revisitMs, and staying on one while it has a carrier. Runs on the RSSI reports,
+     * so it turns them on. Tuning elsewhere makes that the main channel; scanning stops the watch.
+     */
+    public void startDualWatch(long revisitMs, int... priorityMemoryIds) {
+        synchronized (mainGroup) {
+            if (!mainGroupSet) {
+                Log.w(TAG, "Nothing tuned yet, dual watch not started.");
+                return;
+            }
+        }
+        List<ChannelMemory> channelMemories = Optional.ofNullable(channelMemoriesLiveData)
+            .map(LiveData::getValue)
+            .orElse(Collections.emptyList());
+        byte[] groups = new byte[priorityMemoryIds.length * Group.LENGTH];
+        for (int i = 0; i < priorityMemoryIds.length; i++) {
+            ChannelMemory memory = null;
+            for (ChannelMemory candidate : channelMemories) {
+                if (candidate.memoryId == priorityMemoryIds[i]) {
+                    memory = candidate;
+                    break;
+                }
+            }
+            if (memory == null) {
+                Log.w(TAG, "Priority memory " + priorityMemoryIds[i] + " not found, dual watch not started.");
+                return;
+            }
+            float txFreq = Float.parseFloat(getTxFreq(memory.frequency, memory.offset, memory.offsetKhz));
+            // Like scanning, never open squelch on a priority channel
+            memoryGroup(memory, validateFrequency(memory.frequency), txFreq, (byte) (squelch > 0 ? squelch : 1))
+                .toBytes(groups, i * Group.LENGTH);
+        }
+        stopDualWatch();
+        setScanning(false);
+        dualWatchGroups = groups;
+        dualWatch = new DualWatch(priorityMemoryIds.length, TimeUnit.MILLISECONDS.toNanos(revisitMs), System.nanoTime());
+        setRssi(true);
+    }
+
+    public void stopDualWatch() {
+        synchronized (mainGroup) {
+            DualWatch watch = dualWatch;
+            dualWatch = null;
+            if (watch != null && watch.returnToMain(System.nanoTime()) && isRadioConnected()) {
+                sendMainGroup();
+            }
+        }
+    }
+
+    /**
+     * Tunes where dual watch says to after an RSSI report, on the USB read thread. The hop is
+     * chosen and sent holding mainGroup, as are the returns to the main channel, so none is sent
+     * after PTT, a tune or stopping the watch took the radio back.
+     */
+    private void dualWatchStep(DualWatch watch, int rssi) {
+        synchronized (mainGroup) {
+            if (dualWatch != watch || getMode() != RadioMode.RX) {
+                return; // Stopped, or transmitting, since the report came in
+            }
+            int target = watch.onRssi(rssi, System.nanoTime());
+            if (target == DualWatch.STAY || !isRadioConnected()) {
+                return;
+            }
+            if (target == DualWatch.MAIN) {
+                sendMainGroup();
+            } else {
+                hostToEsp32.group(dualWatchGroups, target * Group.LENGTH);
+            }
+        }
+    }
+
     public void nextScan() {
+        synchronized (rssiScanner) {
+            nextScanLocked();
+        }
+    }
+
+    private void nextScanLocked() {
         // Only proceed if actually in SCAN mode.
         if (getMode() != RadioMode.SCAN) {
             return;
@@ -1001,55 +1237,90 @@ public class RadioAudioService extends Service implements PacketHandler {
         if (channelMemories == null || channelMemories.isEmpty()) {
             return;
         }
-        // Find the index of our current active memory in the list,
-        // or -1 if we didn't find it (e.g. simplex mode).
-        int currentIndex = -1;
-        for (int i = 0; i < channelMemories.size(); i++) {
-            if (channelMemories.get(i).memoryId == activeMemoryId) {
-                currentIndex = i;
-                break;
-            }
+        // If squelch is off (0), use squelch=1 during scanning.
+        byte scanSquelch = (byte) (squelch > 0 ? squelch : 1);
+        byte bw = bandwidth.equals("25kHz") ? DRA818_25K : DRA818_12K5;
+        ScanPlan plan = scanPlan;
+        if (plan == null || !plan.isCompiledFor(channelMemories, bw, scanSquelch, minRadioFreq, maxRadioFreq)) {
+            plan = compileScanPlan(channelMemories, bw, scanSquelch);
+            scanPlan = plan;
+            rssiScanner.setChannelCount(plan.size());
+        }
+        int step = plan.next(activeMemoryId);
+        if (step >= 0) {
+            // Reset silence since we found an active memory.
+            consecutiveSilenceBytes = 0;
+            tuneToScanStep(plan, step);
+            rssiScanner.onTuned(step, System.nanoTime());
+            callbacks.scannedToMemory(plan.getMemoryId(step));
+            return;
         }
-        // If we’re in simplex (activeMemoryId == -1), treat it as if
-        // the "current index" is -1 so the next index starts at 0.
-        int nextIndex = (currentIndex + 1) % channelMemories.size();
-        int firstTriedIndex = nextIndex;  // So we know when we've looped around.
-        do {
-            ChannelMemory candidate = channelMemories.get(nextIndex);
-            // If not marked as skipped, and it's in the active band, we tune to it and return.
+        // If we reach here, all memories are marked skipDuringScan.
+        Log.d(TAG, "Warning: All memories are skipDuringScan, no next memory found to scan to.");
+    }
+
+    /**
+     * Compiles the scan steps of the memories not skipped during scan and in the radio's band,
+     * doing once all the parsing tuneToMemory() does on every tune.
+     */
+    private ScanPlan compileScanPlan(List<ChannelMemory> channelMemories, byte bw, byte scanSquelch) {
+        ScanPlan plan = new ScanPlan(channelMemories, bw, scanSquelch, minRadioFreq, maxRadioFreq);
+        for (int i = 0; i < channelMemories.size(); i++) {
+            ChannelMemory memory = channelMemories.get(i);
             float memoryFreqFloat = 0.0f;
             try {
-                memoryFreqFloat = Float.parseFloat(candidate.frequency);
+                memoryFreqFloat = Float.parseFloat(memory.frequency);
             } catch (Exception e) {
-                Log.d(TAG, "Memory with id " + candidate.memoryId + " had invalid frequency.");
+                Log.d(TAG, "Memory with id " + memory.memoryId + " had invalid frequency.");
             }
-            if (!candidate.skipDuringScan && memoryFreqFloat >= minRadioFreq && memoryFreqFloat <= maxRadioFreq) {
-                // Reset silence since we found an active memory.
-                consecutiveSilenceBytes = 0;
-                // If squelch is off (0), use squelch=1 during scanning.
-                tuneToMemory(candidate, squelch > 0 ? squelch : 1, true);
-                callbacks.scannedToMemory(candidate.memoryId);
-                return;
+            if (memory.skipDuringScan || memoryFreqFloat < minRadioFreq || memoryFreqFloat > maxRadioFreq) {
+                continue;
             }
-            // Otherwise, move on to the next memory in the list.
-            nextIndex = (nextIndex + 1) % channelMemories.size();
-            // Repeat until we loop back to the first tried index.
-        } while (nextIndex != firstTriedIndex);
-        // If we reach here, all memories are marked skipDuringScan.
-        Log.d(TAG, "Warning: All memories are skipDuringScan, no next memory found to scan to.");
+            String frequencyStr = validateFrequency(memory.frequency);
+            float txFreq = Float.parseFloat(getTxFreq(memory.frequency, memory.offset, memory.offsetKhz));
+            plan.add(i, memoryGroup(memory, frequencyStr, txFreq, scanSquelch),
+                frequencyStr, txFreq, memory.name + " (" + memory.frequency + " MHz)");
+        }
+        return plan;
+    }
+
+    /**
+     * Does what tuneToMemory() does, from a compiled scan step.
+     */
+    private void tuneToScanStep(ScanPlan plan, int step) {
+        activeFrequencyStr = plan.getFrequency(step);
+        activeMemoryId = plan.getMemoryId(step);
+        synchronized (mainGroup) {
+            System.arraycopy(plan.getGroups(), step * Group.LENGTH, mainGroup, 0, Group.LENGTH);
+            mainGroupSet = true;
+        }
+        if (isRadioConnected()) {
+            hostToEsp32.group(plan.getGroups(), step * Group.LENGTH);
+        }
+        txAllowed = isTxAllowed(plan.getTxFreq(step));
+
+        updateForegroundNotification(plan.getNotification(step));
     }
 
     private float[] applyMicGain(float[] audioBuffer) {
         if (micGainBoost == MicGainBoost.NONE) {
             return audioBuffer; // No gain, just return original
         }
-        float[] newAudioBuffer = new float[audioBuffer.length];
+        if (micGainBuffer.length < audioBuffer.length) {
+            micGainBuffer = new float[audioBuffer.length];
+        }
         for (int i = 0; i < audioBuffer.length; i++) {
-            newAudioBuffer[i] = audioBuffer[i] * micGainBoost.getGain();
+            micGainBuffer[i] = audioBuffer[i] * micGainBoost.getGain();
         }
-        return newAudioBuffer;
+        return micGainBuffer;
     }
 
+    /**
+     * Encodes one frame of TX audio and queues it for the ESP32. Called for every frame while
+     * transmitting, from one thread at a time, so it reuses its buffers and allocates nothing:
+     * the encoded frame goes straight from opusTxFrame into the USB write buffer. Voice frames
+     * are dropped if that buffer is full, rather than stall the mic; data frames never are.
+     */
     public void sendAudioToESP32(float[] samples, boolean dataMode) {
         if (hostToEsp32 == null) {
             return; // If connection is lost, just drop the audio frame.
@@ -1057,9 +1328,12 @@ public class RadioAudioService extends Service implements PacketHandler {
         if (!dataMode) {
             samples = applyMicGain(samples);
         }
-        byte[] audioFrame = new byte[Protocol.PROTO_MTU];
-        int encodedLength = opusEncoder.encode(samples, audioFrame);
-        hostToEsp32.txAudio(java.util.Arrays.copyOfRange(audioFrame, 0, encodedLength));
+        int encodedLength = opusEncoder.encode(samples, opusTxFrame);
+        if (dataMode) {
+            hostToEsp32.txAudio(opusTxFrame, 0, encodedLength);
+        } else {
+            hostToEsp32.tryTxAudio(opusTxFrame, 0, encodedLength);
+        }
     }
 
     public boolean isRadioConnected() {
@@ -1071,18 +1345,33 @@ public class RadioAudioService extends Service implements PacketHandler {
      * It processes various commands such as S-meter reports, PTT control,
      * debug messages, HELLO command, RX audio, version information, and window updates.
      *
-     * @param cmd   The command received from the ESP32.
-     * @param param The parameters associated with the command.
-     * @param len   The length of the parameters.
+     * @param cmd    The command received from the ESP32.
+     * @param param  The buffer holding the parameters associated with the command, only valid
+     *               during the call.
+     * @param offset The offset of the parameters in param.
+     * @param len    The length of the parameters.
      */
     @SuppressWarnings({"java:S6541"})
-    private void handleParsedCommand(final RcvCommand cmd, final byte[] param, final Integer len) {
+    private void handleParsedCommand(final RcvCommand cmd, final byte[] param, final int offset, final int len) {
         switch (cmd) {
             case COMMAND_SMETER_REPORT:
-                Protocol.Rssi.from(param, len)
-                    .map(Protocol.Rssi::getSMeter9Value)
-                    .filter(i -> getMode() == RadioMode.RX || getMode() == RadioMode.SCAN)
-                    .ifPresent(callbacks::sMeterUpdate);
+                Protocol.Rssi.from(param, offset, len)
+                    .filter(rssi -> getMode() == RadioMode.RX || getMode() == RadioMode.SCAN)
+                    .ifPresent(rssi -> {
+                        DualWatch watch = dualWatch;
+                        if (watch == null || watch.isOnMain() || watch.getHeldPriority() >= 0) {
+                            callbacks.sMeterUpdate(rssi.getSMeter9Value());
+                        }
+                        if (getMode() == RadioMode.SCAN) {
+                            synchronized (rssiScanner) {
+                                if (rssiScanner.onRssi(rssi.getRaw(), System.nanoTime())) {
+                                    nextScan(); // Nothing on this channel, no need to wait out the silence
+                                }
+                            }
+                        } else if (getMode() == RadioMode.RX && watch != null) {
+                            dualWatchStep(watch, rssi.getRaw());
+                        }
+                    });
                 break;
 
             case COMMAND_PHYS_PTT_DOWN:
@@ -1094,23 +1383,23 @@ public class RadioAudioService extends Service implements PacketHandler {
                 break;
 
             case COMMAND_DEBUG_INFO:
-                Log.i(FIRMWARE_TAG, new String(Arrays.copyOf(param, len)));
+                Log.i(FIRMWARE_TAG, new String(param, offset, len));
                 break;
 
             case COMMAND_DEBUG_DEBUG:
-                Log.d(FIRMWARE_TAG, new String(Arrays.copyOf(param, len)));
+                Log.d(FIRMWARE_TAG, new String(param, offset, len));
                 break;
 
             case COMMAND_DEBUG_ERROR:
-                Log.e(FIRMWARE_TAG, new String(Arrays.copyOf(param, len)));
+                Log.e(FIRMWARE_TAG, new String(param, offset, len));
                 break;
 
             case COMMAND_DEBUG_WARN:
-                Log.w(FIRMWARE_TAG, new String(Arrays.copyOf(param, len)));
+                Log.w(FIRMWARE_TAG, new String(param, offset, len));
                 break;
 
             case COMMAND_DEBUG_TRACE:
-                Log.v(FIRMWARE_TAG, new String(Arrays.copyOf(param, len)));
+                Log.v(FIRMWARE_TAG, new String(param, offset, len));
                 break;
 
             case COMMAND_HELLO:
@@ -1118,16 +1407,21 @@ public class RadioAudioService extends Service implements PacketHandler {
                 break;
 
             case COMMAND_RX_AUDIO:
-                handleRxAudio(param, len);
+                handleRxAudio(param, offset, len);
                 break;
 
             case COMMAND_VERSION:
-                protocolHandshake.onVersionReceived(Protocol.FirmwareVersion.from(param, len));
+                protocolHandshake.onVersionReceived(Protocol.FirmwareVersion.from(param, offset, len));
                 break;
 
             case COMMAND_WINDOW_UPDATE:
-                WindowUpdate.from(param, len).ifPresent(windowAck ->
-                    hostToEsp32.enlargeFlowControlWindow(windowAck.getSize()));
+                WindowUpdate.from(param, offset, len).ifPresent(windowAck -> {
+                    DualWatch watch = dualWatch;
+                    if (watch != null) {
+                        watch.onWindowUpdate(System.nanoTime());
+                    }
+                    hostToEsp32.enlargeFlowControlWindow(windowAck.getSize());
+                });
                 break;
 
             default:
@@ -1150,38 +1444,133 @@ public class RadioAudioService extends Service implements PacketHandler {
     }
 
     /**
-     * Handles incoming audio data from the ESP32, decoding it and playing it through the AudioTrack.
-     * If in RX or SCAN mode, it processes the audio samples and manages the AFSK demodulator.
-     * In SCAN mode, it checks for silence to determine if a scan should be triggered.
+     * Handles incoming audio data from the ESP32 on the USB read thread: buffers it in the jitter
+     * buffer, for the RX playout thread to decode at its turn.
      *
-     * @param param The byte array containing the audio data.
-     * @param len   The length of the audio data in bytes.
+     * @param param  The byte array containing the audio data.
+     * @param offset The offset of the audio data in param.
+     * @param len    The length of the audio data in bytes.
      */
-    private void handleRxAudio(final byte[] param, final Integer len) {
-        int decoded = opusDecoder.decode(param, len, pcmFloat);
+    private void handleRxAudio(final byte[] param, final int offset, final int len) {
+        rxJitterBuffer.put(param, offset, len, System.nanoTime());
+        LockSupport.unpark(rxPlayoutThread); // In case it waits for playout to start
+    }
+
+    /**
+     * Body of the RX playout thread: every frame period while the jitter buffer has something
+     * to play, decodes the next frame, recovered or concealed if it is missing, into the next
+     * block of the RX audio bus for the DSP thread and the other subscribers. If every block is
+     * still being read, the frame is still decoded, to keep the Opus decoder state, but dropped.
+     */
+    private void runRxPlayout() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        final long frameNanos = rxJitterBuffer.getFrameNanos();
+        long deadline = 0;
+        while (!rxAudioBus.isClosed()) {
+            if (!rxJitterBuffer.isReady()) {
+                deadline = 0;
+                LockSupport.parkNanos(this, frameNanos); // Woken early by handleRxAudio
+                continue;
+            }
+            long now = System.nanoTime();
+            if (deadline == 0 || now - deadline > 4 * frameNanos) {
+                deadline = now; // Starting, or this thread was held up: don't play catch-up
+            } else if (now < deadline) {
+                LockSupport.parkNanos(this, deadline - now);
+                continue;
+            }
+            try {
+                float[] block = rxAudioBus.claim();
+                if (block == null) {
+                    rxJitterBuffer.next(pcmFloat);
+                } else {
+                    rxAudioBus.publish(rxJitterBuffer.next(block));
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error decoding RX audio", e);
+            }
+            deadline += frameNanos;
+        }
+    }
+
+    /**
+     * Body of the RX DSP thread: reads the RX audio bus until the service is destroyed.
+     */
+    private void runRxDsp() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        int decoded;
+        while ((decoded = rxDspSubscription.take()) >= 0) {
+            try {
+                processRxAudio(rxDspSubscription.current(), decoded);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error processing RX audio", e);
+            } finally {
+                rxDspSubscription.release();
+            }
+        }
+    }
+
+    private void runTimeShift(RxAudioBus.Subscription subscription) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        int decoded;
+        while ((decoded = subscription.take()) >= 0) {
+            try {
+                timeShiftRecorder.write(subscription.current(), decoded, System.currentTimeMillis());
+            } finally {
+                subscription.release();
+            }
+        }
+    }
+
+    /**
+     * Processes one block of received audio on the RX DSP thread, playing it through the
+     * AudioTrack. If in RX or SCAN mode, it runs the packet demodulators and manages the AFSK
+     * demodulator. In SCAN mode, it checks for silence to determine if a scan should be triggered.
+     *
+     * @param pcm     The decoded samples, shared with the other subscribers of the RX audio bus.
+     * @param decoded  The number of samples.
+     */
+    private void processRxAudio(final float[] pcm, final int decoded) {
+        AfskDemodulatorBank.Variant[] variants = pendingAfskVariants;
+        if (variants != null) {
+            pendingAfskVariants = null;
+            afskDemodulator.close();
+            afskDemodulator = newAfskDemodulator(variants);
+        }
 
         if (getMode() == RadioMode.RX || getMode() == RadioMode.SCAN) {
-            afskDemodulator.addSamples(pcmFloat, decoded);
+            afskDemodulator.addSamples(pcm, decoded);
             try {
-                float[] copy = java.util.Arrays.copyOf(pcmFloat, decoded);
-                callbacks.rxAudio(copy, decoded);
+                callbacks.rxAudio(pcm, decoded);
             } catch (Throwable ignored) {}
             if (audioTrack != null) {
                 AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-                audioTrack.write(pcmFloat, 0, decoded, AudioTrack.WRITE_NON_BLOCKING);
+                audioTrack.write(pcm, 0, decoded, AudioTrack.WRITE_NON_BLOCKING);
                 audioManager.requestAudioFocus(audioFocusRequest);
                 ensureAudioPlaying();
             }
         }
         if (getMode() == RadioMode.SCAN) {
+            long now = System.nanoTime();
+            boolean heard = false;
+            int silence = 0; // since the last sound in this frame
             for (int i = 0; i < decoded; i++) {
-                if (Math.abs(pcmFloat[i]) > 0.001) {
-                    consecutiveSilenceBytes = 0;
+                if (Math.abs(pcm[i]) > 0.001) {
+                    silence = 0;
+                    heard = true;
                 } else {
-                    consecutiveSilenceBytes++;
-                    checkScanDueToSilence();
+                    silence++;
                 }
             }
+            synchronized (rssiScanner) {
+                if (heard) {
+                    consecutiveSilenceBytes = silence;
+                    rssiScanner.onAudio(now);
+                } else {
+                    consecutiveSilenceBytes += silence;
+                }
+                checkScanDueToSilence(rssiScanner.getDwellNanos(now) * AUDIO_SAMPLE_RATE / 1_000_000_000L);
+            }
         }
     }
 
@@ -1215,6 +1604,75 @@ public class RadioAudioService extends Service implements PacketHandler {
         }
     }
 
+    private AfskDemodulatorBank newAfskDemodulator(AfskDemodulatorBank.Variant[] variants) {
+        AfskDemodulatorBank bank = new AfskDemodulatorBank(AUDIO_SAMPLE_RATE, variants,
+            AfskDemodulatorBank.defaultThreads(variants), this);
+        bank.setRepairBudget(AFSK_REPAIR_BUDGET);
+        return bank;
+    }
+
+    /**
+     * Selects how the AFSK receiver recovers the bit clock: true for the PLL
+     * demodulators, which decode weak signals better with the shorter, cheaper
+     * filters; false for the original transition-timing demodulators.
+     * Takes effect with the next received audio block.
+     */
+    public void setAfskPll(boolean pll) {
+        pendingAfskVariants = pll ? AfskDemodulatorBank.PLL_VARIANTS : AFSK_VARIANTS;
+    }
+
+    /**
+     * Receive quality of the AFSK demodulators (decodes, CRC failures, duplicates,
+     * DCD duty cycle, timing error histogram), summed over all variants.
+     */
+    public DemodulatorMetrics getAfskMetrics() {
+        return afskDemodulator.metrics(new DemodulatorMetrics());
+    }
+
+    /**
+     * Statistics of the memory scan since it last started (channels per second,
+     * channels skipped early by their RSSI, time from tuning to audio, noise floor).
+     */
+    public RssiScanner.Metrics getScanMetrics() {
+        return rssiScanner.metrics(System.nanoTime());
+    }
+
+    /**
+     * Quality of the received audio at the playout (jitter and buffer depth,
+     * frames concealed, recovered by FEC, late or dropped, underruns).
+     */
+    public RxJitterBuffer.Metrics getRxJitterMetrics() {
+        return rxJitterBuffer.metrics();
+    }
+
+    /**
+     * Metrics of the dual watch going on (revisit interval asked for and had,
+     * looks, time away, looks taken while the main channel was active), or null
+     * when not watching.
+     */
+    public DualWatch.Metrics getDualWatchMetrics() {
+        DualWatch watch = dualWatch;
+        return watch != null ? watch.metrics() : null;
+    }
+
+    /**
+     * Transmissions received in the last few minutes, oldest first, to replay
+     * with readTimeShift(); empty if the time-shift recorder is unavailable.
+     */
+    public List<TimeShiftRecorder.Transmission> getRecentTransmissions() {
+        return timeShiftRecorder != null ? timeShiftRecorder.getTransmissions() : Collections.emptyList();
+    }
+
+    /**
+     * Reads received audio from the time-shift recorder, from a position such as
+     * a transmission's start on, and returns how many samples, fewer if the
+     * recording does not reach that far, 0 if they were overwritten already or
+     * the recorder is unavailable. Read a block or so at a time.
+     */
+    public int readTimeShift(long position, float[] dst, int offset, int length) {
+        return timeShiftRecorder != null ? timeShiftRecorder.read(position, dst, offset, length) : 0;
+    }
+
     @Override
     public void handlePacket(byte[] packet) {
         try {
@@ -1395,7 +1853,7 @@ public class RadioAudioService extends Service implements PacketHandler {
         sendAudioToESP32(opusFrame, true);
         // Send tail silence
         sendSilentFrames(MS_SILENCE_AFTER_DATA_MS);
-        endPtt();
+        endPtt(true);
         Log.i(TAG, "Send AX25 packet: " + ax25Packet);
     }
 
@@ -0,0 +1,257 @@
+/*
+kv4p HT (see http://kv4p.com)
+Copyright (C) 2024 Vance Vagell
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.vagell.kv4pht.radio;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Decides how long a memory scan stays on each channel, from the RSSI reports the firmware sends
+ * while receiving and from the audio heard.
+ * <p>
+ * Each channel learns its own noise floor from its quiet readings, following drops quickly and
+ * rises slowly, so a carrier never raises it much; a channel not read yet starts from the floor
+ * of all channels. Once the receiver has settled on a new channel, {@link #SKIP_READINGS} readings
+ * in a row within {@link #SIGNAL_MARGIN} of the floor show it is dead, and the scan moves on right
+ * away instead of waiting out the silence. A reading above the margin is a carrier: the channel is
+ * not skipped early then, nor is one with audio in the last {@link #RECENT_ACTIVITY_NANOS}, and
+ * both are given {@link #ACTIVE_DWELL_NANOS} of silence before the scan moves on, to catch replies.
+ * A carrier that never opens squelch, such as a birdie, becomes the floor of its channel when the
+ * scan leaves it. Without RSSI reports the scan falls back to the plain {@link #DWELL_NANOS} of
+ * silence per channel.
+ * <p>
+ * Also keeps the statistics of the scan: channels per second and the time from tuning to the
+ * first audio on channels with traffic. Its methods are called from the USB read, RX DSP and
+ * main threads, so they are synchronized. Channels are the steps of the {@link ScanPlan}, set up
+ * by {@link #setChannelCount} when it is compiled; none of the other methods allocates.
+ */
+public class RssiScanner {
+
+    // Silence on a channel before moving on, with no RSSI to go by
+    static final long DWELL_NANOS = 500_000_000L;
+    // Silence on a channel with a carrier or recent traffic before moving on
+    static final long ACTIVE_DWELL_NANOS = 2_000_000_000L;
+    static final long RECENT_ACTIVITY_NANOS = 30_000_000_000L;
+    // Time after tuning before readings and audio are taken to be from the new channel
+    static final long SETTLE_NANOS = 60_000_000L;
+    // Raw RSSI (0-255) over the noise floor that makes a carrier, about two S-units near the floor
+    static final int SIGNAL_MARGIN = 10;
+    static final int SKIP_READINGS = 2;
+
+    private static final class Channel {
+        float noiseFloor = -1;
+        boolean active;
+        long lastActivity;
+
+        boolean recentlyActive(long nowNanos) {
+            return active && nowNanos - lastActivity < RECENT_ACTIVITY_NANOS;
+        }
+    }
+
+    private Channel[] channels = new Channel[0];
+    private float noiseFloor = -1; // of all channels
+
+    private Channel channel; // the one tuned, null when not scanning
+    private long tunedAt;
+    private int quietReadings;
+    private boolean carrier;
+    private int carrierMin; // lowest reading while a carrier was seen
+    private boolean heard;
+
+    private long startedAt;
+    private long hops;
+    private long earlySkips;
+    private long locks;
+    private long timeToLockTotal;
+    private long lastTimeToLock;
+
+    /**
+     * A scan starts now: its statistics start over.
+     */
+    public synchronized void start(long nowNanos) {
+        startedAt = nowNanos;
+        hops = 0;
+        earlySkips = 0;
+        locks = 0;
+        timeToLockTotal = 0;
+        lastTimeToLock = 0;
+    }
+
+    public synchronized void stop() {
+        leave();
+        channel = null;
+    }
+
+    /**
+     * The scan plan was compiled with count steps: what was learned of each channel starts over,
+     * while the noise floor of all channels carries on.
+     */
+    public synchronized void setChannelCount(int count) {
+        leave();
+        channel = null;
+        channels = new Channel[count];
+        for (int i = 0; i < count; i++) {
+            channels[i] = new Channel();
+        }
+    }
+
+    /**
+     * The scan tuned to the plan's step at nowNanos.
+     */
+    public synchronized void onTuned(int step, long nowNanos) {
+        leave();
+        channel = channels[step];
+        tunedAt = nowNanos;
+        quietReadings = 0;
+        carrier = false;
+        carrierMin = Integer.MAX_VALUE;
+        heard = false;
+        hops++;
+    }
+
+    private void leave() {
+        if (channel != null && carrier && !heard) {
+            channel.noiseFloor = carrierMin; // Never opened squelch, so not a signal
+        }
+    }
+
+    /**
+     * Takes a raw RSSI reading (0-255) of the channel tuned, and returns true if the channel is
+     * dead and the scan should move on now.
+     */
+    public synchronized boolean onRssi(int rssi, long nowNanos) {
+        if (channel == null || nowNanos - tunedAt < SETTLE_NANOS) {
+            return false; // Likely still the previous channel's
+        }
+        float floor = channel.noiseFloor >= 0 ? channel.noiseFloor : noiseFloor >= 0 ? noiseFloor : rssi;
+        if (rssi > floor + SIGNAL_MARGIN) {
+            carrier = true;
+            carrierMin = Math.min(carrierMin, rssi);
+            quietReadings = 0;
+            return false;
+        }
+        // Drops are followed quickly, rises slowly
+        floor += (rssi - floor) * (rssi < floor ? 0.25f : 1 / 32f);
+        channel.noiseFloor = floor;
+        noiseFloor = noiseFloor < 0 ? floor : noiseFloor + (floor - noiseFloor) / 16;
+        if (carrier || heard || channel.recentlyActive(nowNanos) || ++quietReadings < SKIP_READINGS) {
+            return false;
+        }
+        earlySkips++;
+        return true;
+    }
+
+    /**
+     * Audio was heard on the channel tuned: squelch is open.
+     */
+    public synchronized void onAudio(long nowNanos) {
+        if (channel == null || nowNanos - tunedAt < SETTLE_NANOS) {
+            return;
+        }
+        if (!heard) {
+            heard = true;
+            lastTimeToLock = nowNanos - tunedAt;
+            timeToLockTotal += lastTimeToLock;
+            locks++;
+        }
+        channel.active = true;
+        channel.lastActivity = nowNanos;
+    }
+
+    /**
+     * Silence to wait out on the channel tuned before moving on.
+     */
+    public synchronized long getDwellNanos(long nowNanos) {
+        if (channel != null && (carrier || heard || channel.recentlyActive(nowNanos))) {
+            return ACTIVE_DWELL_NANOS;
+        }
+        return DWELL_NANOS;
+    }
+
+    // === Statistics ===
+
+    /**
+     * Channels tuned per second since the scan started.
+     */
+    public synchronized double getChannelsPerSecond(long nowNanos) {
+        long elapsed = nowNanos - startedAt;
+        return elapsed > 0 ? hops * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Channels left early because their RSSI showed them dead.
+     */
+    public synchronized long getEarlySkipCount() {
+        return earlySkips;
+    }
+
+    /**
+     * Channels on which audio was heard.
+     */
+    public synchronized long getLockCount() {
+        return locks;
+    }
+
+    /**
+     * Mean time from tuning to the first audio, on channels with traffic, in nanoseconds.
+     */
+    public synchronized long getMeanTimeToLockNanos() {
+        return locks > 0 ? timeToLockTotal / locks : 0;
+    }
+
+    public synchronized long getLastTimeToLockNanos() {
+        return lastTimeToLock;
+    }
+
+    /**
+     * Noise floor learned over all channels, in raw RSSI, -1 before the first reading.
+     */
+    public synchronized float getNoiseFloor() {
+        return noiseFloor;
+    }
+
+    /**
+     * The statistics above, all taken at nowNanos.
+     */
+    public synchronized Metrics metrics(long nowNanos) {
+        return Metrics.builder()
+            .channelsPerSecond(getChannelsPerSecond(nowNanos))
+            .earlySkipCount(earlySkips)
+            .lockCount(locks)
+            .meanTimeToLockNanos(getMeanTimeToLockNanos())
+            .lastTimeToLockNanos(lastTimeToLock)
+            .noiseFloor(noiseFloor)
+            .build();
+    }
+
+    /**
+     * Statistics of the scan since it last started, for diagnostics.
+     */
+    @Data
+    @Builder
+    public static class Metrics {
+        private final double channelsPerSecond;
+        private final long earlySkipCount;
+        private final long lockCount;
+        private final long meanTimeToLockNanos;
+        private final long lastTimeToLockNanos;
+        private final float noiseFloor;
+    }
+}
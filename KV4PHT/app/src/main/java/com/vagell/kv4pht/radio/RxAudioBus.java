@@ -0,0 +1,365 @@
+/*
+kv4p HT (see http://kv4p.com)
+Copyright (C) 2024 Vance Vagell
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.vagell.kv4pht.radio;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fan-out ring of preallocated PCM blocks for received audio. The playout thread decodes each
+ * Opus frame it takes from the {@link RxJitterBuffer} once, straight into a block of the ring,
+ * and every consumer (speaker and packet
+ * demodulators, SSTV, recorders, meters) reads that same block in place through its own
+ * {@link Subscription}, on its own thread and at its own pace.
+ * <p>
+ * The writer never waits for anyone. A subscriber that falls a whole ring behind has its oldest
+ * blocks overwritten: it notices on its next read, skips ahead and is marked as lagging, while
+ * the others carry on. Each block counts the subscribers reading it right now; the writer passes
+ * over such a block rather than overwrite it, so a block is never modified while it is in use.
+ * <p>
+ * Publishing and reading allocate nothing, so another subscriber costs one cursor, not a copy of
+ * every frame.
+ */
+public class RxAudioBus {
+
+    // Sequence of a block the writer is filling.
+    private static final long WRITING = Long.MAX_VALUE;
+
+    private final float[][] blocks;
+    private final int[] lengths;
+    private final AtomicLongArray sequences; // sequence held by each block, -1 before the first
+    private final AtomicIntegerArray holds;  // subscribers reading each block in place
+    private final int mask;
+
+    // Writer state. A sequence number s always lives in blocks[s & mask]; the sequence of a block
+    // the writer passes over because it is held is never published, and readers step over it.
+    private long position;
+    private int claimed = -1;
+    private volatile long published; // every sequence below this is published or passed over
+
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    private volatile boolean closed;
+
+    private volatile long overflows;
+    private volatile long passedOver;
+
+    /**
+     * @param capacity  Number of blocks, rounded up to a power of two.
+     * @param blockSize Samples per block.
+     */
+    public RxAudioBus(int capacity, int blockSize) {
+        int n = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        blocks = new float[n][blockSize];
+        lengths = new int[n];
+        sequences = new AtomicLongArray(n);
+        holds = new AtomicIntegerArray(n);
+        mask = n - 1;
+        for (int i = 0; i < n; i++) {
+            sequences.set(i, -1);
+        }
+    }
+
+    // === Writer (a single thread) ===
+
+    /**
+     * Returns the next block to fill, or null if every block is being read right now, which
+     * counts an overflow. A claimed block is handed to the subscribers by {@link #publish(int)}.
+     */
+    public float[] claim() {
+        for (int tries = 0; tries < blocks.length; tries++) {
+            int slot = (int) position & mask;
+            long previous = sequences.get(slot);
+            // Mark the block before checking for readers, and readers take their hold before
+            // checking the mark, so either the writer sees the hold or the reader sees the mark.
+            sequences.set(slot, WRITING);
+            if (holds.get(slot) == 0) {
+                claimed = slot;
+                return blocks[slot];
+            }
+            sequences.set(slot, previous);
+            passedOver++;
+            published = ++position;
+        }
+        overflows++;
+        return null;
+    }
+
+    /**
+     * Publishes the block returned by the last {@link #claim()} with the given number of samples
+     * and wakes the subscribers waiting for it.
+     */
+    public void publish(int length) {
+        int slot = claimed;
+        claimed = -1;
+        lengths[slot] = length;
+        sequences.set(slot, position);
+        // A full volatile store, so it cannot pass the reads of the waiters below and lose a wakeup.
+        published = ++position;
+        for (Subscription s : subscriptions) {
+            Thread w = s.waiter;
+            if (w != null) {
+                LockSupport.unpark(w);
+            }
+        }
+    }
+
+    // === Subscribers ===
+
+    /**
+     * Registers a subscriber whose first block is the next one published.
+     */
+    public synchronized Subscription subscribe(String name) {
+        Subscription s = new Subscription(name, published);
+        Subscription[] current = subscriptions;
+        Subscription[] grown = java.util.Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = s;
+        subscriptions = grown;
+        return s;
+    }
+
+    /**
+     * Makes the reads of every subscriber return -1 from now on.
+     */
+    public void close() {
+        closed = true;
+        for (Subscription s : subscriptions) {
+            s.wake();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // === Metrics, readable from any thread ===
+
+    public int capacity() {
+        return blocks.length;
+    }
+
+    /**
+     * Subscribers registered right now.
+     */
+    public Subscription[] getSubscriptions() {
+        return subscriptions.clone();
+    }
+
+    /**
+     * Blocks dropped for every subscriber because all blocks were being read.
+     */
+    public long getOverflowCount() {
+        return overflows;
+    }
+
+    /**
+     * Times the writer passed over a block because a subscriber was still reading it.
+     */
+    public long getPassedOverCount() {
+        return passedOver;
+    }
+
+    private synchronized void remove(Subscription s) {
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == s) {
+                Subscription[] shrunk = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, shrunk, 0, i);
+                System.arraycopy(current, i + 1, shrunk, i, shrunk.length - i);
+                subscriptions = shrunk;
+                return;
+            }
+        }
+    }
+
+    /**
+     * One consumer's read cursor. Its methods other than the metrics must be called from a single
+     * thread, the subscriber's own.
+     */
+    public class Subscription {
+
+        private final String name;
+        private volatile long cursor; // next sequence to read, written by the subscriber only
+        private int held = -1;
+
+        private volatile Thread waiter;
+        private volatile boolean unsubscribed;
+
+        private volatile long delivered;
+        private volatile long skipped;
+        private volatile long lagEvents;
+        private volatile boolean lagging;
+        private volatile int highWaterMark;
+
+        private Subscription(String name, long cursor) {
+            this.name = name;
+            this.cursor = cursor;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the length of the next block without waiting, or 0 if there is none yet, or -1
+         * once the bus is closed or this subscription is cancelled. The block is
+         * {@link #current()} until {@link #release()}, and must not be modified.
+         */
+        public int poll() {
+            if (held >= 0) {
+                release();
+            }
+            while (!closed && !unsubscribed) {
+                long end = published;
+                if (cursor >= end) {
+                    return 0;
+                }
+                int backlog = (int) (end - cursor);
+                if (backlog > highWaterMark) {
+                    highWaterMark = backlog;
+                }
+                int slot = (int) cursor & mask;
+                long sequence = sequences.get(slot);
+                if (sequence < cursor) {
+                    cursor++; // passed over by the writer, never published
+                    continue;
+                }
+                if (sequence == cursor) {
+                    holds.incrementAndGet(slot);
+                    if (sequences.get(slot) == cursor) {
+                        held = slot;
+                        delivered++;
+                        if (backlog == 1) {
+                            lagging = false; // caught up
+                        }
+                        return lengths[slot];
+                    }
+                    holds.decrementAndGet(slot);
+                }
+                // Overwritten: skip to the oldest block the writer is not about to reuse.
+                long oldest = published - blocks.length + 1;
+                long resume = Math.max(cursor + 1, oldest);
+                skipped += resume - cursor;
+                cursor = resume;
+                lagEvents++;
+                lagging = true;
+            }
+            return -1;
+        }
+
+        /**
+         * Waits for the next block and returns its length, or -1 once the bus is closed or this
+         * subscription is cancelled; blocks still queued then are discarded.
+         */
+        public int take() {
+            int length;
+            while ((length = poll()) == 0) {
+                waiter = Thread.currentThread();
+                if (cursor >= published && !closed && !unsubscribed) {
+                    LockSupport.park(this);
+                }
+                waiter = null;
+            }
+            return length;
+        }
+
+        /**
+         * The block returned by the last {@link #poll()} or {@link #take()}.
+         */
+        public float[] current() {
+            return blocks[held];
+        }
+
+        /**
+         * Lets the writer reuse the current block. Also done by the next read.
+         */
+        public void release() {
+            if (held >= 0) {
+                holds.decrementAndGet(held);
+                held = -1;
+                cursor++;
+            }
+        }
+
+        /**
+         * Detaches this subscriber; its blocking read returns -1. Any thread may call this, but the
+         * subscriber must still {@link #release()} a block it is reading.
+         */
+        public void unsubscribe() {
+            unsubscribed = true;
+            remove(this);
+            wake();
+        }
+
+        private void wake() {
+            Thread w = waiter;
+            if (w != null) {
+                LockSupport.unpark(w);
+            }
+        }
+
+        // === Metrics, readable from any thread ===
+
+        /**
+         * Blocks published but not read yet, as last seen by this subscriber.
+         */
+        public int size() {
+            return (int) Math.max(0, published - cursor);
+        }
+
+        /**
+         * Blocks read.
+         */
+        public long getDeliveredCount() {
+            return delivered;
+        }
+
+        /**
+         * Blocks overwritten before this subscriber got to them.
+         */
+        public long getSkippedCount() {
+            return skipped;
+        }
+
+        /**
+         * Times this subscriber fell a whole ring behind.
+         */
+        public long getLagCount() {
+            return lagEvents;
+        }
+
+        /**
+         * True from falling a whole ring behind until catching up with the writer again.
+         */
+        public boolean isLagging() {
+            return lagging;
+        }
+
+        /**
+         * Most blocks ever waiting for this subscriber at once.
+         */
+        public int getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        public void resetHighWaterMark() {
+            highWaterMark = 0;
+        }
+    }
+}
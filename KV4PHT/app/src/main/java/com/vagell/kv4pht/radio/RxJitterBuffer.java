@@ -0,0 +1,322 @@
+/*
+kv4p HT (see http://kv4p.com)
+Copyright (C) 2024 Vance Vagell
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.vagell.kv4pht.radio;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Adaptive playout buffer for received Opus frames, between the USB read thread, which puts
+ * frames in as they arrive, and a playout clock, which takes one out every frame period.
+ * <p>
+ * The frames carry no sequence numbers, so each is given a slot from its arrival time: a gap
+ * longer than the frame period plus the usual jitter means frames were lost on the way, and their
+ * slots are left empty. At its turn an empty slot is filled in by the decoder, from the in-band
+ * FEC data of the next frame when that is already here, by packet loss concealment otherwise.
+ * When the buffer runs dry the playout conceals too, up to {@link #MAX_CONCEALED} frames in a row,
+ * then stops until enough frames have come again. A frame that arrives after its slot was
+ * concealed is late: it is played if the buffer is below its target depth, dropped otherwise.
+ * <p>
+ * The target depth follows the arrival jitter, smoothed like RTP's interarrival jitter (RFC 3550):
+ * enough frames to ride out three times the mean deviation, at least one. When the buffer has held
+ * more than a frame over its target for {@link #SKIP_AFTER} frame periods, a frame is skipped to
+ * bring the delay back down.
+ * <p>
+ * Putting and playing allocate nothing. The lock is only held to copy a frame in or out; the
+ * decoding happens on the playout thread outside of it.
+ */
+public class RxJitterBuffer {
+
+    // Concealed frames in a row, with none to play, before the signal is taken as gone
+    static final int MAX_CONCEALED = 3;
+    // Frame periods the buffer must stay over its target before a frame is skipped
+    static final int SKIP_AFTER = 25;
+
+    private static final int PLAY = 0;
+    private static final int RECOVER = 1; // from the FEC data of the next frame
+    private static final int CONCEAL = 2;
+
+    private final OpusUtils.OpusDecoderWrapper decoder;
+    private final long frameNanos;
+    private final byte[][] frames;
+    private final int[] lengths; // 0 marks an empty slot
+    private final int mask;
+    // Playout thread only
+    private final byte[] playing = new byte[Protocol.PROTO_MTU];
+
+    // Guarded by this. Slot s lives in frames[s & mask]; slots from readSlot to writeSlot are
+    // buffered, those before readSlot played.
+    private long readSlot;
+    private long writeSlot;
+    private long lastSlot = -1; // slot the last frame put belongs to
+    private long lastArrival;
+    private long jitterNanos;
+    private boolean started;
+    private int concealedInARow;
+    private int overTarget; // frame periods in a row the buffer held more than it aims to
+
+    private long played;
+    private long concealed;
+    private long recovered;
+    private long underruns;
+    private long lateFrames;
+    private long dropped;
+
+    /**
+     * @param decoder    Decodes the frames, only ever from the playout thread.
+     * @param frameSize  Samples per frame.
+     * @param sampleRate Samples per second.
+     * @param capacity   Most frames buffered, rounded up to a power of two.
+     */
+    public RxJitterBuffer(OpusUtils.OpusDecoderWrapper decoder, int frameSize, int sampleRate, int capacity) {
+        int n = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.decoder = decoder;
+        this.frameNanos = frameSize * 1_000_000_000L / sampleRate;
+        frames = new byte[n][Protocol.PROTO_MTU];
+        lengths = new int[n];
+        mask = n - 1;
+    }
+
+    public long getFrameNanos() {
+        return frameNanos;
+    }
+
+    // === USB read thread ===
+
+    /**
+     * Buffers a frame that arrived at nowNanos, in the slot its arrival time puts it in.
+     */
+    public synchronized void put(byte[] data, int offset, int length, long nowNanos) {
+        if (length <= 0 || length > Protocol.PROTO_MTU) {
+            return;
+        }
+        long slot;
+        if (lastSlot < 0 || (!started && readSlot == writeSlot)) {
+            slot = writeSlot; // The first frame, or the first after the signal was gone
+        } else {
+            long gap = nowNanos - lastArrival;
+            long tolerance = Math.min(Math.max(frameNanos / 2, 3 * jitterNanos), frameNanos * 3 / 4);
+            long periods = gap > frameNanos + tolerance ? 2 + (gap - frameNanos - tolerance - 1) / frameNanos : 1;
+            jitterNanos += (Math.abs(gap - periods * frameNanos) - jitterNanos) / 16;
+            slot = lastSlot + periods;
+        }
+        lastArrival = nowNanos;
+        lastSlot = slot;
+        if (slot < writeSlot) {
+            lateFrames++; // Its slot was played or concealed already
+            if (writeSlot - readSlot >= target()) {
+                dropped++;
+                return;
+            }
+            slot = writeSlot;
+            lastSlot = slot; // From now on frames are expected this much later
+        }
+        if (slot - readSlot >= frames.length) { // Too far ahead: let the oldest go
+            long first = slot - frames.length + 1;
+            for (long s = readSlot; s < Math.min(first, writeSlot); s++) {
+                if (lengths[(int) s & mask] > 0) {
+                    dropped++;
+                }
+            }
+            readSlot = first;
+        }
+        for (long s = Math.max(writeSlot, readSlot); s < slot; s++) {
+            lengths[(int) s & mask] = 0; // Lost on the way
+        }
+        System.arraycopy(data, offset, frames[(int) slot & mask], 0, length);
+        lengths[(int) slot & mask] = length;
+        writeSlot = slot + 1;
+    }
+
+    // === Playout thread ===
+
+    /**
+     * Whether {@link #next} has a frame to play: playout has started, or enough is buffered for
+     * it to start.
+     */
+    public synchronized boolean isReady() {
+        return started || writeSlot - readSlot >= target();
+    }
+
+    /**
+     * Plays the next slot into pcm, decoded, recovered or concealed, and returns the number of
+     * samples. Called once per frame period while {@link #isReady()}.
+     */
+    public int next(float[] pcm) {
+        int action;
+        int length = 0;
+        synchronized (this) {
+            started = true;
+            overTarget = writeSlot - readSlot > target() + 1 ? overTarget + 1 : 0;
+            if (overTarget >= SKIP_AFTER) {
+                overTarget = 0;
+                if (lengths[(int) readSlot & mask] > 0) {
+                    dropped++;
+                }
+                readSlot++; // Skipped to bring the delay down
+            }
+            if (readSlot == writeSlot) {
+                underruns++;
+                action = CONCEAL;
+                writeSlot++;
+                if (++concealedInARow >= MAX_CONCEALED) {
+                    started = false;
+                }
+            } else {
+                int slot = (int) readSlot & mask;
+                int next = (int) (readSlot + 1) & mask;
+                if (lengths[slot] > 0) {
+                    action = PLAY;
+                    length = lengths[slot];
+                    System.arraycopy(frames[slot], 0, playing, 0, length);
+                } else if (readSlot + 1 < writeSlot && lengths[next] > 0) {
+                    action = RECOVER;
+                    length = lengths[next];
+                    System.arraycopy(frames[next], 0, playing, 0, length);
+                } else {
+                    action = CONCEAL;
+                }
+                concealedInARow = 0;
+            }
+            readSlot++;
+            if (action == PLAY) {
+                played++;
+            } else {
+                concealed++;
+                if (action == RECOVER) {
+                    recovered++;
+                }
+            }
+        }
+        switch (action) {
+            case PLAY:
+                return decoder.decode(playing, 0, length, pcm);
+            case RECOVER:
+                return decoder.decodeFec(playing, 0, length, pcm);
+            default:
+                return decoder.conceal(pcm);
+        }
+    }
+
+    // called with this held
+    private int target() {
+        return (int) Math.min(frames.length / 2, 1 + (3 * jitterNanos + frameNanos - 1) / frameNanos);
+    }
+
+    // === Metrics, readable from any thread ===
+
+    /**
+     * Frames the buffer aims to hold, from the arrival jitter seen so far.
+     */
+    public synchronized int getTargetDepth() {
+        return target();
+    }
+
+    /**
+     * Frames and empty slots buffered right now.
+     */
+    public synchronized int getDepth() {
+        return (int) (writeSlot - readSlot);
+    }
+
+    /**
+     * Smoothed deviation of the frame arrival times from the frame period, in nanoseconds.
+     */
+    public synchronized long getJitterNanos() {
+        return jitterNanos;
+    }
+
+    /**
+     * Frames played as received.
+     */
+    public synchronized long getPlayedCount() {
+        return played;
+    }
+
+    /**
+     * Frames filled in by the decoder, from FEC data or by concealment.
+     */
+    public synchronized long getConcealedCount() {
+        return concealed;
+    }
+
+    /**
+     * Concealed frames recovered from the FEC data of the frame after them.
+     */
+    public synchronized long getRecoveredCount() {
+        return recovered;
+    }
+
+    /**
+     * Times there was nothing buffered to play.
+     */
+    public synchronized long getUnderrunCount() {
+        return underruns;
+    }
+
+    /**
+     * Frames that arrived after their slot was played or concealed.
+     */
+    public synchronized long getLateFrameCount() {
+        return lateFrames;
+    }
+
+    /**
+     * Frames let go unplayed: late ones over the target depth, and ones skipped or pushed out to
+     * keep the delay down.
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * The metrics above, all taken at one instant.
+     */
+    public synchronized Metrics metrics() {
+        return Metrics.builder()
+            .targetDepth(target())
+            .depth((int) (writeSlot - readSlot))
+            .jitterNanos(jitterNanos)
+            .playedCount(played)
+            .concealedCount(concealed)
+            .recoveredCount(recovered)
+            .underrunCount(underruns)
+            .lateFrameCount(lateFrames)
+            .droppedCount(dropped)
+            .build();
+    }
+
+    /**
+     * Receive audio quality at the playout, for diagnostics.
+     */
+    @Data
+    @Builder
+    public static class Metrics {
+        private final int targetDepth;
+        private final int depth;
+        private final long jitterNanos;
+        private final long playedCount;
+        private final long concealedCount;
+        private final long recoveredCount;
+        private final long underrunCount;
+        private final long lateFrameCount;
+        private final long droppedCount;
+    }
+}
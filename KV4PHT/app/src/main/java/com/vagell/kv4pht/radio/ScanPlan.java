@@ -0,0 +1,149 @@
+/*
+kv4p HT (see http://kv4p.com)
+Copyright (C) 2024 Vance Vagell
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.vagell.kv4pht.radio;
+
+import com.vagell.kv4pht.data.ChannelMemory;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The memories a scan steps through, compiled once from the channel memory list: each step holds
+ * its Group command already encoded, and what the service sets when tuning to it, so a scan step
+ * parses nothing. Memories skipped during scan or out of the radio's band have no step.
+ * <p>
+ * A plan holds on to the list it was compiled from and the settings baked into its Group
+ * commands; the service compiles a new one when {@link #isCompiledFor} says either changed. The
+ * list is a new one each time the memories are loaded from the database after a change.
+ */
+public class ScanPlan {
+
+    private final List<ChannelMemory> memories;
+    private final int memoryCount;
+    private final byte bw;
+    private final byte squelch;
+    private final float minRadioFreq;
+    private final float maxRadioFreq;
+
+    private final int[] listMemoryIds; // of every memory in the list, by list index
+    private final int[] listIndices;
+    private final int[] memoryIds;
+    private final byte[] groups; // Group.LENGTH bytes per step
+    private final String[] frequencies;
+    private final float[] txFreqs;
+    private final String[] notifications;
+    private int size;
+    private int cursor = -1;
+
+    public ScanPlan(List<ChannelMemory> memories, byte bw, byte squelch, float minRadioFreq, float maxRadioFreq) {
+        this.memories = memories;
+        this.memoryCount = memories.size();
+        this.bw = bw;
+        this.squelch = squelch;
+        this.minRadioFreq = minRadioFreq;
+        this.maxRadioFreq = maxRadioFreq;
+        listMemoryIds = new int[memoryCount];
+        for (int i = 0; i < memoryCount; i++) {
+            listMemoryIds[i] = memories.get(i).memoryId;
+        }
+        listIndices = new int[memoryCount];
+        memoryIds = new int[memoryCount];
+        groups = new byte[memoryCount * Protocol.Group.LENGTH];
+        frequencies = new String[memoryCount];
+        txFreqs = new float[memoryCount];
+        notifications = new String[memoryCount];
+    }
+
+    /**
+     * Adds a step for the memory at listIndex, after the steps of the memories before it.
+     */
+    public void add(int listIndex, Protocol.Group group, String frequency, float txFreq, String notification) {
+        if (size > 0 && listIndex <= listIndices[size - 1]) {
+            throw new IllegalArgumentException("Steps must be added in list order");
+        }
+        listIndices[size] = listIndex;
+        memoryIds[size] = listMemoryIds[listIndex];
+        group.toBytes(groups, size * Protocol.Group.LENGTH);
+        frequencies[size] = frequency;
+        txFreqs[size] = txFreq;
+        notifications[size] = notification;
+        size++;
+    }
+
+    public boolean isCompiledFor(List<ChannelMemory> memories, byte bw, byte squelch, float minRadioFreq, float maxRadioFreq) {
+        // A list filtered in place keeps its identity but not its size
+        return memories == this.memories && memories.size() == memoryCount && bw == this.bw
+            && squelch == this.squelch && minRadioFreq == this.minRadioFreq && maxRadioFreq == this.maxRadioFreq;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Moves to the step after the memory tuned, in list order, and returns it, or -1 if the plan
+     * has no steps. From a memory without a step, or none (-1, a simplex frequency), this is the
+     * first step after it in the list. Not thread-safe: RadioAudioService calls it holding its
+     * scan lock.
+     */
+    public int next(int activeMemoryId) {
+        if (size == 0) {
+            return -1;
+        }
+        if (cursor >= 0 && memoryIds[cursor] == activeMemoryId) {
+            cursor = cursor + 1 < size ? cursor + 1 : 0;
+            return cursor;
+        }
+        int listIndex = -1;
+        for (int i = 0; i < memoryCount; i++) {
+            if (listMemoryIds[i] == activeMemoryId) {
+                listIndex = i;
+                break;
+            }
+        }
+        int step = Arrays.binarySearch(listIndices, 0, size, listIndex + 1);
+        step = step >= 0 ? step : -step - 1;
+        cursor = step < size ? step : 0;
+        return cursor;
+    }
+
+    public int getMemoryId(int step) {
+        return memoryIds[step];
+    }
+
+    /**
+     * The Group commands of all steps, {@link Protocol.Group#LENGTH} bytes each.
+     */
+    public byte[] getGroups() {
+        return groups;
+    }
+
+    public String getFrequency(int step) {
+        return frequencies[step];
+    }
+
+    public float getTxFreq(int step) {
+        return txFreqs[step];
+    }
+
+    public String getNotification(int step) {
+        return notifications[step];
+    }
+}
@@ -0,0 +1,268 @@
+/*
+kv4p HT (see http://kv4p.com)
+Copyright (C) 2024 Vance Vagell
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.vagell.kv4pht.radio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Keeps the last few minutes of received audio in a fixed-size ring file, with an index of the
+ * transmissions in it, so one that was missed can be played back.
+ * <p>
+ * The file is memory mapped and laid out as a header, the index, then the audio as 16-bit PCM.
+ * Samples are numbered by position from the first ever written, and the one at position p is at
+ * p modulo the capacity in the ring; the header holds the write position, so a recorder opened
+ * again on the same file with the same geometry carries on where the last one stopped. A
+ * transmission starts at the first sample over {@link #SQUELCH_THRESHOLD}, the level the scan
+ * takes as squelch open, and ends {@link #HANG_SECONDS} of silence after the last one, so pauses
+ * within it do not split it; its index entry holds its first and last positions and its start time.
+ * <p>
+ * {@link #write} is called from one thread, such as an RX audio bus subscriber's, and allocates
+ * nothing. It holds the recorder's lock for each block, and readers on other threads copy holding
+ * it too, so what they read is never half overwritten; they should read a block or so at a time
+ * to keep the writer waiting no longer than that. Readers see only what is still in the ring.
+ */
+public class TimeShiftRecorder implements AutoCloseable {
+
+    static final float SQUELCH_THRESHOLD = 0.001f;
+    static final float HANG_SECONDS = 0.5f;
+
+    private static final int MAGIC = 0x4B565453; // "KVTS"
+    private static final int VERSION = 1;
+    // magic, version, sample rate, capacity, index capacity, 4 spare bytes, write position, event count
+    private static final int HEADER_SIZE = 40;
+    private static final int WRITE_POSITION_AT = 24;
+    private static final int EVENT_COUNT_AT = 32;
+    private static final int EVENT_SIZE = 24; // first position, last position or -1 while open, start time
+    private static final long OPEN = -1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer map;
+    private final int sampleRate;
+    private final int capacity;
+    private final int indexCapacity;
+    private final int audioAt;
+    private final long hangSamples;
+
+    private volatile long writePosition;
+    private volatile long eventCount;
+    // Writer state
+    private boolean open;
+    private long lastLoud;
+
+    /**
+     * Opens the ring file, carrying on with the recording in it if it has the same geometry, or
+     * starting it over otherwise.
+     *
+     * @param seconds   How much audio the ring holds.
+     * @param maxEvents How many transmissions the index holds.
+     */
+    public TimeShiftRecorder(File path, int sampleRate, int seconds, int maxEvents) throws IOException {
+        this.sampleRate = sampleRate;
+        this.capacity = sampleRate * seconds;
+        this.indexCapacity = maxEvents;
+        this.audioAt = HEADER_SIZE + maxEvents * EVENT_SIZE;
+        this.hangSamples = (long) (sampleRate * HANG_SECONDS);
+        file = new RandomAccessFile(path, "rw");
+        try {
+            long size = audioAt + 2L * capacity;
+            file.setLength(size);
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.getInt(0) == MAGIC && map.getInt(4) == VERSION && map.getInt(8) == sampleRate
+            && map.getInt(12) == capacity && map.getInt(16) == indexCapacity) {
+            writePosition = map.getLong(WRITE_POSITION_AT);
+            eventCount = map.getLong(EVENT_COUNT_AT);
+            if (eventCount > 0 && map.getLong(eventAt(eventCount - 1) + 8) == OPEN) {
+                // The last recorder stopped mid-transmission
+                map.putLong(eventAt(eventCount - 1) + 8, writePosition - 1);
+            }
+        } else {
+            map.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, sampleRate).putInt(12, capacity).putInt(16, indexCapacity);
+            map.putLong(WRITE_POSITION_AT, 0).putLong(EVENT_COUNT_AT, 0);
+        }
+    }
+
+    private int eventAt(long event) {
+        return HEADER_SIZE + (int) (event % indexCapacity) * EVENT_SIZE;
+    }
+
+    /**
+     * Appends samples received at nowMillis, by the wall clock, overwriting the oldest once the
+     * ring is full, and indexes the transmissions in them.
+     */
+    public synchronized void write(float[] pcm, int length, long nowMillis) {
+        long position = writePosition;
+        for (int i = 0; i < length; i++, position++) {
+            float sample = pcm[i];
+            map.putShort(audioAt + 2 * (int) (position % capacity),
+                (short) (Math.max(-1f, Math.min(1f, sample)) * Short.MAX_VALUE));
+            if (Math.abs(sample) > SQUELCH_THRESHOLD) {
+                if (!open) {
+                    open = true;
+                    int at = eventAt(eventCount);
+                    map.putLong(at, position);
+                    map.putLong(at + 8, OPEN);
+                    map.putLong(at + 16, nowMillis - (length - i) * 1000L / sampleRate);
+                    map.putLong(EVENT_COUNT_AT, eventCount + 1);
+                    eventCount = eventCount + 1;
+                }
+                lastLoud = position;
+            } else if (open && position - lastLoud >= hangSamples) {
+                open = false;
+                map.putLong(eventAt(eventCount - 1) + 8, lastLoud);
+            }
+        }
+        map.putLong(WRITE_POSITION_AT, position);
+        writePosition = position;
+    }
+
+    /**
+     * Reads recorded samples from position on, and returns how many, fewer if the recording
+     * does not reach that far, 0 if they were overwritten already.
+     */
+    public synchronized int read(long position, float[] dst, int offset, int length) {
+        long end = writePosition;
+        if (position < end - capacity || position >= end) {
+            return 0;
+        }
+        int count = (int) Math.min(length, end - position);
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = map.getShort(audioAt + 2 * (int) ((position + i) % capacity)) / (float) Short.MAX_VALUE;
+        }
+        return count;
+    }
+
+    // === Index ===
+
+    /**
+     * Transmissions indexed so far, each numbered from 0 in order.
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * The oldest transmission still in the index whose start is still in the ring.
+     */
+    public synchronized long getFirstEvent() {
+        long count = eventCount;
+        long oldest = getOldestPosition();
+        long event = Math.max(0, count - indexCapacity + 1); // The next one to open may be writing over the oldest
+        while (event < count && map.getLong(eventAt(event)) < oldest) {
+            event++;
+        }
+        return event;
+    }
+
+    /**
+     * Position of the first sample of a transmission, to read it from.
+     */
+    public synchronized long getEventStart(long event) {
+        return map.getLong(eventAt(event));
+    }
+
+    /**
+     * Position of the last loud sample of a transmission, or of the last sample written while
+     * it is still going on.
+     */
+    public synchronized long getEventEnd(long event) {
+        long end = map.getLong(eventAt(event) + 8);
+        return end == OPEN ? writePosition - 1 : end;
+    }
+
+    /**
+     * Wall clock time a transmission started, in milliseconds.
+     */
+    public synchronized long getEventTimeMillis(long event) {
+        return map.getLong(eventAt(event) + 16);
+    }
+
+    /**
+     * The transmissions whose start is still in the ring, oldest first.
+     */
+    public synchronized List<Transmission> getTransmissions() {
+        long count = eventCount;
+        List<Transmission> transmissions = new ArrayList<>();
+        for (long event = getFirstEvent(); event < count; event++) {
+            transmissions.add(Transmission.builder()
+                .start(getEventStart(event))
+                .end(getEventEnd(event))
+                .timeMillis(getEventTimeMillis(event))
+                .build());
+        }
+        return transmissions;
+    }
+
+    /**
+     * A transmission in the ring: the positions of its first and last loud samples, to read it
+     * with {@link #read}, and the wall clock time it started.
+     */
+    @Data
+    @Builder
+    public static class Transmission {
+        private final long start;
+        private final long end;
+        private final long timeMillis;
+    }
+
+    // === Ring ===
+
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    public long getOldestPosition() {
+        return Math.max(0, writePosition - capacity);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Size of the ring file, which never changes.
+     */
+    public long getFileSize() {
+        return audioAt + 2L * capacity;
+    }
+
+    /**
+     * Flushes the ring to the file and closes it; the mapping lives on until collected.
+     */
+    @Override
+    public void close() throws IOException {
+        map.force();
+        file.close();
+    }
+}
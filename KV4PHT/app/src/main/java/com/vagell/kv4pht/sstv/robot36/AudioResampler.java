@@ -9,6 +9,7 @@ public class AudioResampler {
     private final int tapLen;
     private final float[] delay;
     private int dpos;
+    private float[] filt = new float[0];
     private float dc;
     private final float dcAlpha = 0.001f;
 
@@ -42,9 +43,30 @@ public class AudioResampler {
     public float[] process(float[] in) {
         if (in == null || in.length == 0)
             return new float[0];
-        float[] filt = new float[in.length];
+        float[] out = new float[maxOutput(in.length)];
+        int outCount = process(in, in.length, out);
+        // Copy to correctly sized array
+        float[] sized = new float[outCount];
+        System.arraycopy(out, 0, sized, 0, outCount);
+        return sized;
+    }
+
+    /**
+     * Most output samples {@link #process(float[], int, float[])} can produce from this many input samples.
+     */
+    public int maxOutput(int length) {
+        return (int) Math.ceil(length / step) + 2;
+    }
+
+    /**
+     * Resamples the first length samples of in into out, without allocating once the
+     * filter scratch buffer has grown to the block size. Returns the number of samples written.
+     */
+    public int process(float[] in, int length, float[] out) {
+        if (filt.length < length)
+            filt = new float[length];
         float max = 0f;
-        for (int i = 0; i < in.length; i++) {
+        for (int i = 0; i < length; i++) {
             float x = in[i];
             dc += dcAlpha * (x - dc);
             x -= dc;
@@ -67,32 +89,27 @@ public class AudioResampler {
 
         // Calculate exact number of output samples we can generate from this input
         // given the current phase.
-        // We need filt[p] and filt[p+1]. So max index we can use is filt.length - 2.
-        // If p == filt.length - 1, we need the *next* buffer's first sample, which we
+        // We need filt[p] and filt[p+1]. So max index we can use is length - 2.
+        // If p == length - 1, we need the *next* buffer's first sample, which we
         // don't have.
-        // So we stop when idx >= filt.length - 1.
+        // So we stop when idx >= length - 1.
 
-        int outCap = (int) Math.ceil(in.length / step) + 2;
-        float[] tempOut = new float[outCap];
         int outCount = 0;
 
         float gain = max > 0 ? Math.min(2f, 0.6f / max) : 1f;
 
-        while (phase < filt.length - 1) {
+        while (phase < length - 1) {
             int p = (int) phase;
             double frac = phase - p;
             float a = filt[p];
             float b = filt[p + 1];
-            tempOut[outCount++] = gain * (float) (a + (b - a) * frac);
+            out[outCount++] = gain * (float) (a + (b - a) * frac);
             phase += step;
         }
 
         // Adjust phase relative to the start of the *next* buffer
-        phase -= in.length;
+        phase -= length;
 
-        // Copy to correctly sized array
-        float[] out = new float[outCount];
-        System.arraycopy(tempOut, 0, out, 0, outCount);
-        return out;
+        return outCount;
     }
-}
\ No newline at end of file
+}
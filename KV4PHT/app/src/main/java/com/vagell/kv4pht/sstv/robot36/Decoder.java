@@ -400,11 +400,15 @@ public class Decoder {
     }
 
     public boolean process(float[] recordBuffer, int channelSelect) {
+        return process(recordBuffer, recordBuffer.length, channelSelect);
+    }
+
+    public boolean process(float[] recordBuffer, int length, int channelSelect) {
         boolean newLinesPresent = false;
-        boolean syncPulseDetected = demodulator.process(recordBuffer, channelSelect);
+        boolean syncPulseDetected = demodulator.process(recordBuffer, length, channelSelect);
         int syncPulseIndex = currentSample + demodulator.syncPulseOffset;
         int channels = channelSelect > 0 ? 2 : 1;
-        for (int j = 0; j < recordBuffer.length / channels; ++j) {
+        for (int j = 0; j < length / channels; ++j) {
             scanLineBuffer[currentSample++] = recordBuffer[j];
             if (currentSample >= scanLineBuffer.length) {
                 shiftSamples(currentScanLineSamples);
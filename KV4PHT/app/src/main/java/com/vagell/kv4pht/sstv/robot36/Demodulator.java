@@ -79,9 +79,13 @@ public class Demodulator {
     }
 
     public boolean process(float[] buffer, int channelSelect) {
+        return process(buffer, buffer.length, channelSelect);
+    }
+
+    public boolean process(float[] buffer, int length, int channelSelect) {
         boolean syncPulseDetected = false;
         int channels = channelSelect > 0 ? 2 : 1;
-        for (int i = 0; i < buffer.length / channels; ++i) {
+        for (int i = 0; i < length / channels; ++i) {
             switch (channelSelect) {
                 case 1:
                     baseBand.set(buffer[2 * i]);
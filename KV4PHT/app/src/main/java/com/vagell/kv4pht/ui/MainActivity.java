@@ -1151,6 +1151,7 @@ public class MainActivity extends AppCompatActivity {
     private void applyAprsSettings(Map<String, String> settings) {
         String accuracy = settings.get(AppSetting.SETTING_APRS_POSITION_ACCURACY);
         String beacon = settings.get(AppSetting.SETTING_APRS_BEACON_POSITION);
+        String pll = settings.get(AppSetting.SETTING_APRS_PLL);
 
         if (accuracy != null && radioAudioService != null) {
             threadPoolExecutor.execute(() -> radioAudioService.setAprsPositionAccuracy(
@@ -1166,6 +1167,10 @@ public class MainActivity extends AppCompatActivity {
                 requestFinePositionPermissions();
             }
         }
+
+        if (pll != null && radioAudioService != null) {
+            radioAudioService.setAfskPll(Boolean.parseBoolean(pll));
+        }
     }
 
     private void applySstvAudioSourceSetting(Map<String, String> settings) {
@@ -19,6 +19,7 @@ import androidx.core.app.ActivityCompat;
 import com.vagell.kv4pht.R;
 import com.vagell.kv4pht.data.AppSetting;
 import com.vagell.kv4pht.radio.RadioAudioService;
+import com.vagell.kv4pht.radio.RxAudioBus;
 import com.vagell.kv4pht.sstv.robot36.Decoder;
 import com.vagell.kv4pht.sstv.robot36.PixelBuffer;
 import com.vagell.kv4pht.sstv.robot36.ShortTimeFourierTransform;
@@ -52,6 +53,7 @@ public class Robot36Activity extends AppCompatActivity {
     private boolean resampleRadioOn = true;
     private static final int REQUEST_OPEN_WAV = 7001;
     private AudioRecord micRecord;
+    private RxAudioBus.Subscription radioAudio;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -214,7 +216,7 @@ public class Robot36Activity extends AppCompatActivity {
                     if (max > 0) { float g = Math.min(3f, 0.6f / max); for (int i=0;i<frame.length;i++) frame[i]*=g; }
                     boolean newLines = dec.process(frame, 0);
                     float[] copy = java.util.Arrays.copyOf(frame, frame.length);
-                    runOnUiThread(() -> { updatePeak(copy); updateWaterfall(copy); if (newLines) { updateScope(); updateImagePreview(); } });
+                    runOnUiThread(() -> { updatePeak(copy, copy.length); updateWaterfall(copy, copy.length); if (newLines) { updateScope(); updateImagePreview(); } });
                 }
                 runOnUiThread(() -> { updateScope(); updateImagePreview(); if (status!=null) status.setText("Decode finished"); });
             } catch (Exception e) {
@@ -253,15 +255,8 @@ public class Robot36Activity extends AppCompatActivity {
         connector.bind(service -> {
             service.setCallbacks(new com.vagell.kv4pht.radio.RadioAudioService.RadioAudioServiceCallbacks() {
                 @Override public void audioTrackCreated() { attachVisualizer(); }
-                @Override public void rxAudio(float[] samples, int length) {
-                    if (paused || usingFile) return;
-                    float[] feed = radioResampler != null ? radioResampler.process(samples) : samples;
-                    boolean newLines = decoderRadio != null ? decoderRadio.process(feed, 0) : decoder.process(samples, 0);
-                    updatePeak(samples);
-                    updateWaterfall(samples);
-                    if (newLines) { updateScope(); updateImagePreview(); }
-                }
             });
+            subscribeRadioAudio(service);
             int session = service.getAudioTrackSessionId();
             if (session <= 0) {
                 TextView status = findViewById(R.id.status);
@@ -282,8 +277,8 @@ public class Robot36Activity extends AppCompatActivity {
                         for (int i = 0; i < waveform.length; i++) buf[i] = (waveform[i] - 128f) / 128f;
                         float[] feed = radioResampler != null ? radioResampler.process(buf) : buf;
                         boolean newLines = decoderRadio != null ? decoderRadio.process(feed, 0) : decoder.process(buf, 0);
-                        updatePeak(buf);
-                        updateWaterfall(buf);
+                        updatePeak(buf, buf.length);
+                        updateWaterfall(buf, buf.length);
                         if (newLines) { updateScope(); updateImagePreview(); }
                     }
                     @Override
@@ -332,9 +327,9 @@ public class Robot36Activity extends AppCompatActivity {
         imageView.setScaleType(showMeters ? android.widget.ImageView.ScaleType.FIT_CENTER : android.widget.ImageView.ScaleType.FIT_START);
     }
 
-    private void updatePeak(float[] buffer) {
+    private void updatePeak(float[] buffer, int length) {
         float max = 0;
-        for (float v : buffer) max = Math.max(max, Math.abs(v));
+        for (int i = 0; i < length; i++) max = Math.max(max, Math.abs(buffer[i]));
         int pixels = peakBuffer.height;
         int peak = pixels;
         if (max > 0) peak = (int) Math.round(Math.min(Math.max(-Math.PI * Math.log(max), 0), pixels));
@@ -344,9 +339,9 @@ public class Robot36Activity extends AppCompatActivity {
         peakView.invalidate();
     }
 
-    private void updateWaterfall(float[] buffer) {
+    private void updateWaterfall(float[] buffer, int length) {
         boolean process = false;
-        for (int j = 0; j < buffer.length; ++j) {
+        for (int j = 0; j < length; ++j) {
             stftInput.set(buffer[j]);
             if (stft.push(stftInput)) {
                 process = true;
@@ -500,18 +495,39 @@ public class Robot36Activity extends AppCompatActivity {
 
     private void attachRadioCallbacks() {
         com.vagell.kv4pht.radio.RadioServiceConnector connector = new com.vagell.kv4pht.radio.RadioServiceConnector(this);
-        connector.bind(service -> {
-            service.setCallbacks(new com.vagell.kv4pht.radio.RadioAudioService.RadioAudioServiceCallbacks() {
-                @Override public void rxAudio(float[] samples, int length) {
-                    if (paused || usingFile) return;
-                    float[] feed = (radioResampler != null && resampleRadioOn) ? radioResampler.process(samples) : samples;
-                    boolean newLines = decoderRadio.process(feed, 0);
-                    if (newLines) { updateScope(); updateImagePreview(); }
-                    updatePeak(samples);
-                    updateWaterfall(samples);
+        connector.bind(this::subscribeRadioAudio);
+    }
+
+    /**
+     * Reads received audio from the radio's RX audio bus on a thread of our own, so a slow SSTV
+     * decode never holds up playback or the packet demodulators; if we fall behind we just skip.
+     */
+    private synchronized void subscribeRadioAudio(RadioAudioService service) {
+        if (radioAudio != null) return;
+        RxAudioBus.Subscription subscription = service.getRxAudioBus().subscribe("Robot36");
+        radioAudio = subscription;
+        new Thread(() -> {
+            // The decoder works in place, so it gets our own copy, resampled or not.
+            int frame = RadioAudioService.OPUS_FRAME_SIZE;
+            float[] feed = new float[Math.max(frame, radioResampler.maxOutput(frame))];
+            int length;
+            while ((length = subscription.take()) >= 0) {
+                float[] samples = subscription.current();
+                if (paused || usingFile) { subscription.release(); continue; }
+                int n;
+                if (resampleRadioOn) {
+                    n = radioResampler.process(samples, length, feed);
+                } else {
+                    n = length;
+                    System.arraycopy(samples, 0, feed, 0, n);
                 }
-            });
-        });
+                updatePeak(samples, length);
+                updateWaterfall(samples, length);
+                subscription.release();
+                boolean newLines = decoderRadio.process(feed, n, 0);
+                if (newLines) { updateScope(); updateImagePreview(); }
+            }
+        }, "Robot36Rx").start();
     }
 
     private void startMicDecoding() {
@@ -530,8 +546,8 @@ public class Robot36Activity extends AppCompatActivity {
                     int n = micRecord.read(buf, 0, buf.length, android.media.AudioRecord.READ_BLOCKING);
                     if (n <= 0) break;
                     boolean newLines = decoder.process(buf, 0);
-                    updatePeak(buf);
-                    updateWaterfall(buf);
+                    updatePeak(buf, n);
+                    updateWaterfall(buf, n);
                     if (newLines) { updateScope(); updateImagePreview(); }
                 }
             }).start();
@@ -548,5 +564,6 @@ public class Robot36Activity extends AppCompatActivity {
         super.onDestroy();
         try { if (visualizer != null) { visualizer.setEnabled(false); visualizer.release(); } } catch (Throwable ignored) {}
         try { if (micRecord != null) { micRecord.stop(); micRecord.release(); micRecord = null; } } catch (Throwable ignored) {}
+        if (radioAudio != null) radioAudio.unsubscribe();
     }
 }
\ No newline at end of file
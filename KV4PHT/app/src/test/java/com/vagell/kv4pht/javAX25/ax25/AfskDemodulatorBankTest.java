@@ -0,0 +1,99 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AfskDemodulatorBankTest {
+
+    private static List<String> decode(AfskDemodulatorBank bank, List<String> out, float[] signal) {
+        AfskTestSignals.feed(bank, signal, 1920);
+        bank.close();
+        return out;
+    }
+
+    private static AfskDemodulatorBank bank(AfskDemodulatorBank.Variant[] variants, int threads, List<String> out) {
+        return new AfskDemodulatorBank(AfskTestSignals.SAMPLE_RATE, variants, threads,
+            bytes -> out.add(Packet.format(bytes)));
+    }
+
+    @Test
+    public void parallelMatchesSequentialInOrder() {
+        float[] signal = AfskTestSignals.modulate(12, 0.35f, 11);
+        List<String> sequential = new ArrayList<>();
+        List<String> parallel = new ArrayList<>();
+        decode(bank(AfskDemodulatorBank.WIDE_VARIANTS, 0, sequential), sequential, signal);
+        decode(bank(AfskDemodulatorBank.WIDE_VARIANTS, 3, parallel), parallel, signal);
+        assertTrue(sequential.size() > 0);
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void moreVariantsNeverDecodeLess() {
+        for (long seed = 0; seed < 3; seed++) {
+            float[] signal = AfskTestSignals.modulate(12, 0.4f, seed);
+            List<String> two = decode(bank(AfskDemodulatorBank.DEFAULT_VARIANTS, 0, new ArrayList<>()), new ArrayList<>(), signal);
+            List<String> wide = new ArrayList<>();
+            decode(bank(AfskDemodulatorBank.WIDE_VARIANTS, 2, wide), wide, signal);
+            assertTrue(wide.containsAll(two));
+        }
+    }
+
+    @Test
+    public void duplicatesAcrossVariantsAreDeliveredOnce() {
+        List<String> out = new ArrayList<>();
+        AfskDemodulatorBank bank = bank(AfskDemodulatorBank.WIDE_VARIANTS, 3, out);
+        decode(bank, out, AfskTestSignals.modulate(5, 0.0f, 0));
+        assertEquals(5, out.size());
+        assertTrue(bank.duplicateCount() >= 5);
+    }
+
+    @Test
+    public void repeatsWithinWindowAreDeliveredOnce() {
+        float[] once = AfskTestSignals.modulate(5, 0.0f, 0);
+        float[] twice = java.util.Arrays.copyOf(once, 2 * once.length);
+        System.arraycopy(once, 0, twice, once.length, once.length);
+
+        List<String> out = new ArrayList<>();
+        decode(bank(AfskDemodulatorBank.DEFAULT_VARIANTS, 0, out), out, twice);
+        assertEquals(5, out.size());
+
+        // a window shorter than the gap lets the second transmission through
+        List<String> all = new ArrayList<>();
+        AfskDemodulatorBank bank = bank(AfskDemodulatorBank.DEFAULT_VARIANTS, 0, all);
+        bank.setDuplicateWindow(once.length * 1000L / AfskTestSignals.SAMPLE_RATE / 2);
+        decode(bank, all, twice);
+        assertEquals(10, all.size());
+    }
+
+    @Test
+    public void metricsDescribeTheReceivedAudio() {
+        List<String> out = new ArrayList<>();
+        AfskDemodulatorBank bank = bank(AfskDemodulatorBank.DEFAULT_VARIANTS, 0, out);
+        decode(bank, out, AfskTestSignals.modulate(8, 0.25f, 3));
+
+        DemodulatorMetrics total = bank.metrics(new DemodulatorMetrics());
+        int frames = 0, duplicates = 0;
+        for (int v = 0; v < 2; v++) {
+            DemodulatorMetrics m = bank.metrics(v, new DemodulatorMetrics());
+            assertEquals(bank.decodeCount(v) + m.duplicates, m.frames);
+            assertTrue(m.dcdDutyCycle() > 0.3f && m.dcdDutyCycle() < 1.0f);
+            assertTrue(m.meanLevelRatio() > 0.0f);
+            frames += m.frames;
+            duplicates += m.duplicates;
+        }
+        assertEquals(out.size() + bank.duplicateCount(), total.frames);
+        assertEquals(bank.duplicateCount(), total.duplicates);
+        assertEquals(frames, total.frames);
+        assertEquals(duplicates, total.duplicates);
+        assertTrue(total.crc_failures > 0);
+        int transitions = 0;
+        for (int count : total.period_error) transitions += count;
+        assertTrue(total.period_error[0] > total.period_error[DemodulatorMetrics.PERIOD_ERROR_BINS - 1]);
+        assertTrue(transitions > 8 * 100);
+    }
+}
@@ -0,0 +1,91 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AfskModemTest {
+
+    private static List<String> loopback(int rate, int baud, int mark, int space, int packets, float noise) {
+        float[] signal = AfskTestSignals.modulate(new AfskModulator(rate, baud, mark, space), rate, packets, noise, 7);
+        List<String> out = new ArrayList<>();
+        AfskTestSignals.feed(new AfskDemodulator(rate, baud, mark, space, bytes -> out.add(Packet.format(bytes))), signal, 1920);
+        return out;
+    }
+
+    private static void assertLoopback(int rate, int baud, int mark, int space) {
+        List<String> frames = loopback(rate, baud, mark, space, 5, 0.0f);
+        assertEquals(rate + " Hz, " + baud + " Bd " + mark + "/" + space, 5, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(Packet.format(AfskTestSignals.packet(i).bytesWithoutCRC()), frames.get(i));
+        }
+    }
+
+    @Test
+    public void hf300BaudLoopback() {
+        for (int rate : new int[]{8000, 11025, 22050, 44100, 48000}) {
+            assertLoopback(rate, 300, 1600, 1800);
+        }
+    }
+
+    @Test
+    public void bell202Loopback() {
+        for (int rate : new int[]{8000, 11025, 22050, 44100, 48000}) {
+            assertLoopback(rate, 1200, 1200, 2200);
+        }
+    }
+
+    @Test
+    public void otherTonePairsLoopback() {
+        assertLoopback(48000, 1200, 1300, 2100); // V.23
+        assertLoopback(48000, 300, 2110, 2310);  // 300 Baud with high tones
+        assertLoopback(16000, 600, 1500, 2100);
+    }
+
+    @Test
+    public void modulatorMatchesBell202Airtime() {
+        Packet packet = AfskTestSignals.packet(0);
+        AfskModulator generic = new AfskModulator(48000, 1200, 1200, 2200);
+        Afsk1200Modulator fixed = new Afsk1200Modulator(48000);
+        assertEquals(count(fixed, packet), count(generic, packet));
+    }
+
+    private static int count(PacketModulator modulator, Packet packet) {
+        modulator.prepareToTransmit(packet);
+        modulator.getTxSamplesBuffer();
+        int total = 0, n;
+        while ((n = modulator.getSamples()) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    /*
+     * Designed filters should decode weak 1200 Baud signals about as well as
+     * the tabled ones of the same length.
+     */
+    @Test
+    public void designedFiltersMatchTables() {
+        int designed = 0, tabled = 0;
+        for (long seed = 0; seed < 4; seed++) {
+            float[] signal = AfskTestSignals.modulate(15, 0.45f, seed);
+            AfskTestSignals.CountingHandler a = new AfskTestSignals.CountingHandler();
+            AfskTestSignals.feed(new AfskDemodulator(AfskTestSignals.SAMPLE_RATE, 1200, 1200, 2200, a), signal, 1920);
+            designed += a.count;
+
+            AfskTestSignals.CountingHandler b = new AfskTestSignals.CountingHandler();
+            AfskTestSignals.feed(new AfskPllDemodulator(AfskTestSignals.SAMPLE_RATE, 0, 0, b), signal, 1920);
+            tabled += b.count;
+        }
+        assertTrue(designed >= tabled * 9 / 10);
+    }
+
+    @Test
+    public void hf300BaudThroughNoise() {
+        assertTrue(loopback(48000, 300, 1600, 1800, 10, 0.3f).size() >= 9);
+    }
+}
@@ -0,0 +1,76 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AfskPllDemodulatorTest {
+
+    // one-bit filters at 48kHz, the cheapest table entry
+    private static final int SHORT_FILTER = 40;
+
+    /** Resamples the signal as if the sender's clock ran factor times fast. */
+    private static float[] speedUp(float[] x, double factor) {
+        float[] y = new float[(int) (x.length / factor)];
+        for (int i = 0; i < y.length; i++) {
+            double p = i * factor;
+            int k = (int) p;
+            double f = p - k;
+            y[i] = (float) (x[k] * (1 - f) + (k + 1 < x.length ? x[k + 1] : 0) * f);
+        }
+        return y;
+    }
+
+    private static int decode(PacketDemodulator demodulator, AfskTestSignals.CountingHandler handler, float[] signal) {
+        AfskTestSignals.feed(demodulator, signal, 1920);
+        return handler.count;
+    }
+
+    @Test
+    public void decodesCleanSignal() {
+        AfskTestSignals.CountingHandler handler = new AfskTestSignals.CountingHandler();
+        AfskPllDemodulator demodulator = new AfskPllDemodulator(AfskTestSignals.SAMPLE_RATE, SHORT_FILTER, 0, handler);
+        assertEquals(20, decode(demodulator, handler, AfskTestSignals.modulate(20, 0.0f, 0)));
+        DemodulatorMetrics m = demodulator.metrics(new DemodulatorMetrics());
+        assertEquals(20, m.frames);
+        assertEquals(0, m.crc_failures);
+    }
+
+    @Test
+    public void decodesAtEveryRate() {
+        for (int rate : new int[]{8000, 16000, 22050, 44100, 48000}) {
+            AfskTestSignals.CountingHandler handler = new AfskTestSignals.CountingHandler();
+            float[] signal = AfskTestSignals.modulate(new Afsk1200Modulator(rate), rate, 5, 0.0f, 0);
+            assertEquals("rate " + rate, 5, decode(new AfskPllDemodulator(rate, 0, 6, handler), handler, signal));
+        }
+    }
+
+    @Test
+    public void tracksSenderClockOffset() {
+        float[] signal = speedUp(AfskTestSignals.modulate(10, 0.0f, 0), 1.025);
+        AfskTestSignals.CountingHandler handler = new AfskTestSignals.CountingHandler();
+        assertEquals(10, decode(new AfskPllDemodulator(AfskTestSignals.SAMPLE_RATE, SHORT_FILTER, 0, handler), handler, signal));
+    }
+
+    /*
+     * Decoded packets of the PLL and the transition-timing demodulator on the
+     * same weak signals: the PLL should decode at least as many frames with the
+     * same short filters.
+     */
+    @Test
+    public void pllYieldsAtLeastAsMuchWithShortFilters() {
+        int pll = 0, transitions = 0;
+        for (long seed = 0; seed < 4; seed++) {
+            float[] signal = AfskTestSignals.modulate(15, 0.45f, seed);
+            for (int emphasis : new int[]{0, 6}) {
+                AfskTestSignals.CountingHandler a = new AfskTestSignals.CountingHandler();
+                pll += decode(new AfskPllDemodulator(AfskTestSignals.SAMPLE_RATE, SHORT_FILTER, emphasis, a), a, signal);
+                AfskTestSignals.CountingHandler b = new AfskTestSignals.CountingHandler();
+                transitions += decode(new Afsk1200Demodulator(AfskTestSignals.SAMPLE_RATE, SHORT_FILTER, emphasis, b), b, signal);
+            }
+        }
+        assertTrue(transitions > 0);
+        assertTrue(pll >= transitions);
+    }
+}
@@ -0,0 +1,75 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import java.util.Random;
+
+/**
+ * Synthetic AFSK audio for demodulator tests and benchmarks: APRS-like frames
+ * run through a modulator, separated by silence, with optional Gaussian noise.
+ */
+final class AfskTestSignals {
+
+    static final int SAMPLE_RATE = 48000;
+
+    private AfskTestSignals() {
+    }
+
+    static Packet packet(int i) {
+        return new Packet("APRS", "N0CALL-" + (i % 16), new String[]{"WIDE1-1", "WIDE2-1"},
+            Packet.AX25_CONTROL_APRS, Packet.AX25_PROTOCOL_NO_LAYER_3,
+            ("!4903.50N/07201.75W-kv4p test frame " + i).getBytes());
+    }
+
+    static float[] modulate(PacketModulator modulator, int sampleRate, int packets, float noise, long seed) {
+        Random random = new Random(seed);
+        int gap = sampleRate / 10;
+        float[] out = new float[sampleRate];
+        int n = 0;
+        for (int p = 0; p < packets; p++) {
+            modulator.prepareToTransmit(packet(p));
+            float[] buffer = modulator.getTxSamplesBuffer();
+            int count;
+            while ((count = modulator.getSamples()) > 0) {
+                out = ensure(out, n + count);
+                for (int i = 0; i < count; i++) {
+                    out[n++] = 0.5f * buffer[i];
+                }
+            }
+            out = ensure(out, n + gap);
+            n += gap;
+        }
+        float[] signal = java.util.Arrays.copyOf(out, n);
+        if (noise > 0) {
+            for (int i = 0; i < n; i++) {
+                signal[i] += noise * (float) random.nextGaussian();
+            }
+        }
+        return signal;
+    }
+
+    static float[] modulate(int packets, float noise, long seed) {
+        return modulate(new Afsk1200Modulator(SAMPLE_RATE), SAMPLE_RATE, packets, noise, seed);
+    }
+
+    private static float[] ensure(float[] a, int size) {
+        return size <= a.length ? a : java.util.Arrays.copyOf(a, Math.max(size, 2 * a.length));
+    }
+
+    /** Feeds the signal in Opus-sized blocks, the way RadioAudioService does. */
+    static void feed(PacketDemodulator demodulator, float[] signal, int block) {
+        float[] frame = new float[block];
+        for (int i = 0; i < signal.length; i += block) {
+            int n = Math.min(block, signal.length - i);
+            System.arraycopy(signal, i, frame, 0, n);
+            demodulator.addSamples(frame, n);
+        }
+    }
+
+    static final class CountingHandler implements PacketHandler {
+        int count;
+
+        @Override
+        public void handlePacket(byte[] packet) {
+            count++;
+        }
+    }
+}
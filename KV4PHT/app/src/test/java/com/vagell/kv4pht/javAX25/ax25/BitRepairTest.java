@@ -0,0 +1,86 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+public class BitRepairTest {
+
+    /** Feeds a frame with CRC, as the demodulator would, after flipping the given bits. */
+    private static Packet received(byte[] withCrc, int... flips) {
+        byte[] bytes = withCrc.clone();
+        for (int b : flips) bytes[b >> 3] ^= (byte) (1 << (b & 7));
+        Packet p = new Packet();
+        for (byte x : bytes) p.addByte(x);
+        return p;
+    }
+
+    @Test
+    public void repairsSingleFlipAtWeakBoundary() {
+        byte[] good = AfskTestSignals.packet(3).bytesWithCRC();
+        for (int bit = 0; bit < good.length * 8; bit += 5) {
+            Packet p = received(good, bit);
+            assertFalse(p.terminate());
+            assertEquals(1, p.repair(new int[]{bit + 1}, new float[]{0.05f}, 1, 64));
+            assertTrue(p.terminate());
+            assertArrayEquals(good, p.bytesWithCRC());
+        }
+    }
+
+    @Test
+    public void repairsShiftedTransition() {
+        byte[] good = AfskTestSignals.packet(5).bytesWithCRC();
+        int bit = 100;
+        Packet p = received(good, bit, bit + 1);
+        int[] boundaries = {20, 60, bit, 140};
+        float[] margins = {0.4f, 0.45f, 0.02f, 0.3f};
+        assertEquals(2, p.repair(boundaries, margins, boundaries.length, 64));
+        assertArrayEquals(good, p.bytesWithCRC());
+    }
+
+    @Test
+    public void respectsBudget() {
+        byte[] good = AfskTestSignals.packet(5).bytesWithCRC();
+        // the flipped bit sits next to the least confident of many boundaries
+        int[] boundaries = new int[16];
+        float[] margins = new float[16];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = 40 + 10 * i;
+            margins[i] = 0.1f + 0.01f * i;
+        }
+        assertEquals(0, received(good, 40 + 10 * 15 + 1).repair(boundaries, margins, 16, 10));
+        assertEquals(1, received(good, 40 + 10 * 15 + 1).repair(boundaries, margins, 16, 48));
+    }
+
+    @Test
+    public void repairRecoversFramesFromWeakSignals() {
+        Set<String> sent = new HashSet<>();
+        for (int i = 0; i < 25; i++) sent.add(Packet.format(AfskTestSignals.packet(i).bytesWithoutCRC()));
+        int plain = 0, repaired = 0;
+        for (long seed = 0; seed < 4; seed++) {
+            float[] signal = AfskTestSignals.modulate(25, 0.25f, seed);
+            AfskTestSignals.CountingHandler a = new AfskTestSignals.CountingHandler();
+            AfskTestSignals.feed(new Afsk1200Demodulator(AfskTestSignals.SAMPLE_RATE, 1, 6, a), signal, 1920);
+            List<String> b = new ArrayList<>();
+            Afsk1200Demodulator demodulator = new Afsk1200Demodulator(AfskTestSignals.SAMPLE_RATE, 1, 6,
+                bytes -> b.add(Packet.format(bytes)));
+            demodulator.setRepairBudget(256);
+            AfskTestSignals.feed(demodulator, signal, 1920);
+            assertEquals(a.count + demodulator.repairedCount(), b.size());
+            assertTrue(sent.containsAll(b));
+            plain += a.count;
+            repaired += b.size();
+        }
+        System.out.printf(Locale.US, "decoded %d of 100 frames, %d with bit repair%n", plain, repaired);
+        assertTrue(repaired > plain);
+    }
+}
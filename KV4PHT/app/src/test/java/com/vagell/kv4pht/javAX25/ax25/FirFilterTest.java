@@ -0,0 +1,43 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class FirFilterTest {
+
+    @Test
+    public void blockOutputMatchesPerSampleFilter() {
+        float[] taps = Afsk1200Filters.time_domain_filter_full[1][7];
+        Random random = new Random(42);
+        float[] input = new float[10000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (float) random.nextGaussian();
+        }
+
+        // Reference: the circular-buffer, one-sample-at-a-time filter.
+        float[] delay = new float[taps.length];
+        float[] expected = new float[input.length];
+        int j = 0;
+        for (int i = 0; i < input.length; i++) {
+            delay[j] = input[i];
+            expected[i] = Filter.filter(delay, j, taps);
+            j = (j + 1) % delay.length;
+        }
+
+        // Block filter over randomly sized blocks, filtered in place.
+        FirFilter fir = new FirFilter(taps, 1920);
+        float[] actual = input.clone();
+        for (int i = 0; i < actual.length; ) {
+            int n = Math.min(1 + random.nextInt(fir.maxBlock()), actual.length - i);
+            fir.filterBlock(actual, i, n, actual, i);
+            i += n;
+        }
+
+        for (int i = 0; i < input.length; i++) {
+            assertEquals("sample " + i, expected[i], actual[i], 0.0f);
+        }
+    }
+}
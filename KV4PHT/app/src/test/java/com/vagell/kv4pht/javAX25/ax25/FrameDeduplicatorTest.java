@@ -0,0 +1,87 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class FrameDeduplicatorTest {
+
+    private static byte[] frame(String[] path, String info) {
+        return new Packet("APRS", "N0CALL-9", path, Packet.AX25_CONTROL_APRS, Packet.AX25_PROTOCOL_NO_LAYER_3,
+            info.getBytes()).bytesWithoutCRC();
+    }
+
+    private static boolean dup(FrameDeduplicator dedup, byte[] frame, long now) {
+        return dedup.isDuplicate(frame, 0, frame.length, now);
+    }
+
+    @Test
+    public void digipeatedCopyIsDuplicate() {
+        FrameDeduplicator dedup = new FrameDeduplicator(30000, 16);
+        byte[] direct = frame(new String[]{"WIDE1-1", "WIDE2-1"}, "!4903.50N/07201.75W-hello");
+        byte[] repeated = frame(new String[]{"N1DIGI-1", "WIDE2-1"}, "!4903.50N/07201.75W-hello");
+        repeated[20] |= (byte) 0x80; // has-been-repeated bit on the first digipeater
+        byte[] other = frame(new String[]{"WIDE1-1", "WIDE2-1"}, "!4903.50N/07201.75W-hello!");
+
+        assertFalse(dup(dedup, direct, 0));
+        assertTrue(dup(dedup, direct, 10));
+        assertTrue(dup(dedup, repeated, 1500));
+        assertFalse(dup(dedup, other, 2000));
+    }
+
+    @Test
+    public void entriesExpireAfterWindow() {
+        FrameDeduplicator dedup = new FrameDeduplicator(30000, 16);
+        byte[] f = frame(new String[]{"WIDE1-1"}, "beacon");
+        assertFalse(dup(dedup, f, 0));
+        assertTrue(dup(dedup, f, 29999));
+        assertFalse(dup(dedup, f, 30000));
+        assertTrue(dup(dedup, f, 59999));
+        assertEquals(1, dedup.size());
+    }
+
+    @Test
+    public void capacityEvictsOldest() {
+        FrameDeduplicator dedup = new FrameDeduplicator(30000, 4);
+        for (int i = 0; i < 5; i++) {
+            assertFalse(dup(dedup, frame(new String[0], "frame " + i), i));
+        }
+        assertEquals(4, dedup.size());
+        assertFalse(dup(dedup, frame(new String[0], "frame 0"), 10));
+        assertTrue(dup(dedup, frame(new String[0], "frame 4"), 11));
+    }
+
+    @Test
+    public void matchesReferenceModel() {
+        int capacity = 32;
+        long window = 1000;
+        FrameDeduplicator dedup = new FrameDeduplicator(window, capacity);
+        // reference: key -> arrival index and time, evicting by arrival order
+        Map<String, long[]> seen = new HashMap<>();
+        Random random = new Random(5);
+        long now = 0;
+        int arrivals = 0;
+        for (int step = 0; step < 100000; step++) {
+            now += random.nextInt(40);
+            String info = "frame " + random.nextInt(64);
+            for (Map.Entry<String, long[]> e : new HashMap<>(seen).entrySet()) {
+                if (now - e.getValue()[1] >= window) seen.remove(e.getKey());
+            }
+            boolean expected = seen.containsKey(info);
+            if (!expected) {
+                for (Map.Entry<String, long[]> e : new HashMap<>(seen).entrySet()) {
+                    if (arrivals - e.getValue()[0] >= capacity) seen.remove(e.getKey());
+                }
+                seen.put(info, new long[]{arrivals++, now});
+            }
+            assertEquals("step " + step, expected, dup(dedup, frame(new String[]{"WIDE2-2"}, info), now));
+            assertEquals(seen.size(), dedup.size());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class G3ruh9600ModemTest {
+
+    private static List<String> decode(float[] signal, int sampleRate) {
+        List<String> out = new ArrayList<>();
+        AfskTestSignals.feed(new G3ruh9600Demodulator(sampleRate, bytes -> out.add(Packet.format(bytes))), signal, 1920);
+        return out;
+    }
+
+    @Test
+    public void loopbackAtSupportedRates() {
+        for (int rate : new int[]{44100, 48000}) {
+            float[] signal = AfskTestSignals.modulate(new G3ruh9600Modulator(rate), rate, 10, 0.0f, 0);
+            List<String> frames = decode(signal, rate);
+            assertEquals("rate " + rate, 10, frames.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Packet.format(AfskTestSignals.packet(i).bytesWithoutCRC()), frames.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void decodesThroughNoise() {
+        int rate = AfskTestSignals.SAMPLE_RATE;
+        float[] signal = AfskTestSignals.modulate(new G3ruh9600Modulator(rate), rate, 20, 0.15f, 3);
+        assertTrue(decode(signal, rate).size() >= 18);
+    }
+
+    @Test
+    public void frameTakesAnEighthOfTheAfskAirtime() {
+        int rate = AfskTestSignals.SAMPLE_RATE;
+        G3ruh9600Modulator g3ruh = new G3ruh9600Modulator(rate);
+        Afsk1200Modulator afsk = new Afsk1200Modulator(rate);
+        g3ruh.setTxDelay(0);
+        afsk.setTxDelay(0);
+        int fast = AfskTestSignals.modulate(g3ruh, rate, 1, 0.0f, 0).length - rate / 10;
+        int slow = AfskTestSignals.modulate(afsk, rate, 1, 0.0f, 0).length - rate / 10;
+        assertEquals(8.0, (double) slow / fast, 0.1);
+    }
+
+    @Test
+    public void scramblerIsUndoneAfterAnyStartingState() {
+        // the descrambler is self-synchronizing: a receiver joining mid-stream
+        // decodes every frame after the first 17 bits of the preamble
+        int rate = AfskTestSignals.SAMPLE_RATE;
+        float[] signal = AfskTestSignals.modulate(new G3ruh9600Modulator(rate), rate, 3, 0.0f, 0);
+        float[] late = java.util.Arrays.copyOfRange(signal, 1000, signal.length);
+        assertEquals(3, decode(late, rate).size());
+    }
+
+    @Test
+    public void countsPacketsHandedOverWhileBusy() {
+        G3ruh9600Modulator modulator = new G3ruh9600Modulator(AfskTestSignals.SAMPLE_RATE);
+        modulator.getTxSamplesBuffer();
+        modulator.prepareToTransmit(AfskTestSignals.packet(0));
+        modulator.getSamples();
+        modulator.prepareToTransmit(AfskTestSignals.packet(1));
+        assertEquals(1, modulator.getDiscardedCount());
+        while (modulator.getSamples() > 0) {
+            // drain
+        }
+        modulator.prepareToTransmit(AfskTestSignals.packet(1));
+        assertEquals(1, modulator.getDiscardedCount());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsRatesBelowFourSamplesPerBit() {
+        new G3ruh9600Demodulator(22050, null);
+    }
+}
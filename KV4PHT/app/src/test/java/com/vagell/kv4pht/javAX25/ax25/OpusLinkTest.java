@@ -0,0 +1,67 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+
+import com.vagell.kv4pht.radio.OpusUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The modems over the radio's audio link, which is Opus coded in narrowband both ways, as
+ * RadioAudioService and the firmware do it.
+ */
+public class OpusLinkTest {
+
+    private static final int RATE = AfskTestSignals.SAMPLE_RATE;
+    private static final int FRAME = 1920; // RadioAudioService.OPUS_FRAME_SIZE
+
+    private static float[] throughOpus(float[] signal) {
+        OpusUtils.OpusEncoderWrapper encoder = new OpusUtils.OpusEncoderWrapper(RATE, FRAME);
+        OpusUtils.OpusDecoderWrapper decoder = new OpusUtils.OpusDecoderWrapper(RATE, FRAME);
+        byte[] packet = new byte[1275];
+        float[] frame = new float[FRAME];
+        float[] decoded = new float[FRAME];
+        float[] out = new float[signal.length];
+        for (int i = 0; i < signal.length; i += FRAME) {
+            int n = Math.min(FRAME, signal.length - i);
+            java.util.Arrays.fill(frame, 0);
+            System.arraycopy(signal, i, frame, 0, n);
+            int length = encoder.encode(frame, packet);
+            assertEquals(FRAME, decoder.decode(packet, length, decoded));
+            System.arraycopy(decoded, 0, out, i, n);
+        }
+        return out;
+    }
+
+    private static List<String> decodeAfsk(float[] signal) {
+        List<String> out = new ArrayList<>();
+        AfskTestSignals.feed(new AfskDemodulator(RATE, 1200, 1200, 2200, bytes -> out.add(Packet.format(bytes))), signal, FRAME);
+        return out;
+    }
+
+    private static List<String> decodeG3ruh(float[] signal) {
+        List<String> out = new ArrayList<>();
+        AfskTestSignals.feed(new G3ruh9600Demodulator(RATE, bytes -> out.add(Packet.format(bytes))), signal, FRAME);
+        return out;
+    }
+
+    @Test
+    public void afskCrossesTheLink() {
+        float[] signal = AfskTestSignals.modulate(new AfskModulator(RATE, 1200, 1200, 2200), RATE, 10, 0.0f, 0);
+        assertEquals(10, decodeAfsk(throughOpus(signal)).size());
+    }
+
+    /*
+     * 9600 Baud needs a flat response to well above the 4 kHz narrowband Opus passes, which is
+     * why the app offers no G3RUH channels.
+     */
+    @Test
+    public void g3ruhDoesNotCrossTheNarrowbandLink() {
+        float[] signal = AfskTestSignals.modulate(new G3ruh9600Modulator(RATE), RATE, 10, 0.0f, 0);
+        assertEquals(10, decodeG3ruh(signal).size());
+        assertEquals(0, decodeG3ruh(throughOpus(signal)).size());
+    }
+}
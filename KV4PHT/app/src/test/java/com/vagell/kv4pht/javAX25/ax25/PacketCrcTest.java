@@ -0,0 +1,84 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class PacketCrcTest {
+
+    /** The byte-at-a-time update Packet used to run for every received byte. */
+    private static int bytewiseCrc(byte[] bytes, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= bytes[i] & 0xff;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x8408 : crc >>> 1;
+            }
+        }
+        return crc;
+    }
+
+    @Test
+    public void slicedCrcMatchesBytewise() {
+        Random random = new Random(9);
+        byte[] bytes = new byte[400];
+        random.nextBytes(bytes);
+        for (int offset = 0; offset < 5; offset++) {
+            for (int length = 0; length < bytes.length - offset; length += 1 + length / 8) {
+                assertEquals(bytewiseCrc(bytes, offset, length), Packet.crc_ccitt(bytes, offset, length, 0xFFFF));
+            }
+        }
+    }
+
+    @Test
+    public void reusedPacketTerminatesLikeFreshOne() {
+        Packet p = new Packet();
+        for (int i = 0; i < 3; i++) {
+            byte[] frame = AfskTestSignals.packet(i).bytesWithCRC();
+            p.clear();
+            for (byte b : frame) p.addByte(b);
+            assertTrue(p.terminate());
+            assertEquals(Packet.format(AfskTestSignals.packet(i).bytesWithoutCRC()), Packet.format(p.bytesWithoutCRC()));
+        }
+    }
+
+    @Test
+    public void steadyStateDecodingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int[] frames = {0};
+        PacketHandler handler = new PacketHandler() {
+            public void handlePacket(byte[] packet) {
+                throw new AssertionError("copying delivery used");
+            }
+            public void handlePacket(byte[] buffer, int offset, int length) {
+                frames[0]++;
+            }
+        };
+        AfskDemodulatorBank bank = new AfskDemodulatorBank(AfskTestSignals.SAMPLE_RATE,
+            AfskDemodulatorBank.WIDE_VARIANTS, 0, handler);
+        bank.setRepairBudget(256);
+        float[] signal = AfskTestSignals.modulate(10, 0.2f, 4);
+        float[] noise = new float[AfskTestSignals.SAMPLE_RATE * 5];
+        Random random = new Random(2);
+        for (int i = 0; i < noise.length; i++) noise[i] = 0.3f * (float) random.nextGaussian();
+
+        // the first pass sizes the frame pools
+        AfskTestSignals.feed(bank, signal, 1920);
+        AfskTestSignals.feed(bank, noise, 1920);
+        bank.setDuplicateWindow(0);
+        long before = threads.getThreadAllocatedBytes(thread);
+        AfskTestSignals.feed(bank, noise, 1920);
+        AfskTestSignals.feed(bank, signal, 1920);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        bank.close();
+
+        assertTrue(frames[0] >= 20);
+        // feed() itself allocates one block buffer per call
+        assertTrue("allocated " + allocated + " bytes", allocated < 3 * 1920 * 4 + 1024);
+    }
+}
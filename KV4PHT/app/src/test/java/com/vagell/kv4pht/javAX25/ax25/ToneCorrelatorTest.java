@@ -0,0 +1,97 @@
+package com.vagell.kv4pht.javAX25.ax25;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class ToneCorrelatorTest {
+
+    /** The per-sample cos/sin plus full-window re-sum that Afsk1200Demodulator used to do. */
+    private static final class LegacyCorrelator {
+        private final float[] real, imag;
+        private final float phaseInc;
+        private float phase;
+        private int j;
+
+        LegacyCorrelator(int sampleRate, int frequency, int window) {
+            real = new float[window];
+            imag = new float[window];
+            phaseInc = (float) (2.0 * Math.PI * frequency / sampleRate);
+        }
+
+        float correlate(float x) {
+            real[j] = x * (float) Math.cos(phase);
+            imag[j] = x * (float) Math.sin(phase);
+            phase += phaseInc;
+            if (phase > (float) 2.0 * Math.PI) phase -= (float) 2.0 * Math.PI;
+            float cr = 0, ci = 0;
+            for (int i = 0; i < real.length; i++) {
+                cr += real[i];
+                ci += imag[i];
+            }
+            j++;
+            if (j == real.length) j = 0;
+            return (float) Math.sqrt(cr * cr + ci * ci);
+        }
+    }
+
+    @Test
+    public void matchesLegacyCorrelator() {
+        float[] signal = AfskTestSignals.modulate(4, 0.05f, 1);
+        for (int frequency : new int[]{1200, 2200}) {
+            LegacyCorrelator legacy = new LegacyCorrelator(AfskTestSignals.SAMPLE_RATE, frequency, 40);
+            ToneCorrelator sliding = new ToneCorrelator(AfskTestSignals.SAMPLE_RATE, frequency, 40);
+            for (float x : signal) {
+                assertEquals(legacy.correlate(x), sliding.correlate(x), 1e-2f);
+            }
+        }
+    }
+
+    @Test
+    public void demodulatorDecodesNoisyFrames() {
+        for (float noise : new float[]{0.0f, 0.1f, 0.2f}) {
+            AfskTestSignals.CountingHandler handler = new AfskTestSignals.CountingHandler();
+            Afsk1200MultiDemodulator demodulator = new Afsk1200MultiDemodulator(AfskTestSignals.SAMPLE_RATE, handler);
+            AfskTestSignals.feed(demodulator, AfskTestSignals.modulate(20, noise, 7), 1920);
+            assertEquals("noise " + noise, 20, handler.count);
+        }
+    }
+
+    /*
+     * Skipped unless asked for: ./gradlew :app:testDebugUnitTest -Pbenchmark
+     */
+    @Test
+    public void benchmarkSamplesPerSecond() {
+        Assume.assumeTrue("benchmark not requested", Boolean.getBoolean("benchmark"));
+        float[] signal = AfskTestSignals.modulate(20, 0.1f, 3);
+        LegacyCorrelator legacy = new LegacyCorrelator(AfskTestSignals.SAMPLE_RATE, 2200, 40);
+        ToneCorrelator sliding = new ToneCorrelator(AfskTestSignals.SAMPLE_RATE, 2200, 40);
+
+        float sink = 0;
+        for (int warmup = 0; warmup < 3; warmup++) {
+            for (float x : signal) sink += legacy.correlate(x) + sliding.correlate(x);
+        }
+        long start = System.nanoTime();
+        for (float x : signal) sink += legacy.correlate(x);
+        long legacyNs = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (float x : signal) sink += sliding.correlate(x);
+        long slidingNs = System.nanoTime() - start;
+
+        Afsk1200MultiDemodulator demodulator = new Afsk1200MultiDemodulator(AfskTestSignals.SAMPLE_RATE, null);
+        AfskTestSignals.feed(demodulator, signal, 1920);
+        start = System.nanoTime();
+        AfskTestSignals.feed(demodulator, signal, 1920);
+        long demodNs = System.nanoTime() - start;
+
+        System.out.printf(Locale.US, "correlator samples/s: legacy %.3g, sliding %.3g; two-way demodulator samples/s: %.3g (%.0fx real time)%n",
+            signal.length * 1e9 / legacyNs, signal.length * 1e9 / slidingNs,
+            signal.length * 1e9 / demodNs, signal.length * 1e9 / demodNs / AfskTestSignals.SAMPLE_RATE);
+        assertTrue(Float.isFinite(sink));
+        assertTrue("sliding correlator slower than the legacy one", slidingNs < legacyNs);
+    }
+}
@@ -0,0 +1,147 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+public class DualWatchTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long REPORT = 40 * MS;
+    private static final long ONE_WAY = 10 * MS; // USB and firmware, each way
+    private static final long MODULE_SETTLE = 10 * MS; // from applying a Group to reading the new channel
+    private static final int NOISE = 30;
+
+    /** What the radio hears on a channel, DualWatch.MAIN or a priority one, at a time in ms. */
+    private interface Band {
+        int rssi(int channel, long ms);
+    }
+
+    /**
+     * The firmware side: an RSSI report every REPORT of the channel it is tuned to, arriving
+     * ONE_WAY later, and a Group sent by the host applied ONE_WAY later and granted back with a
+     * window update after another ONE_WAY.
+     */
+    private static class Radio {
+        final DualWatch watch;
+        final Band band;
+        final ArrayDeque<long[]> reports = new ArrayDeque<>(); // arrival time, rssi
+        int tuned = DualWatch.MAIN;
+        int pending;
+        long applyAt = Long.MAX_VALUE;
+        long windowAt = Long.MAX_VALUE;
+        long now;
+
+        Radio(int priorities, long revisitNanos, Band band) {
+            this.watch = new DualWatch(priorities, revisitNanos, 0);
+            this.band = band;
+        }
+
+        void runUntil(long ms) {
+            for (; now <= ms * MS; now += MS) {
+                if (now >= applyAt) {
+                    tuned = pending;
+                    applyAt = Long.MAX_VALUE;
+                }
+                if (now >= windowAt) {
+                    watch.onWindowUpdate(now);
+                    windowAt = Long.MAX_VALUE;
+                }
+                if (now % REPORT == 7 * MS) {
+                    reports.add(new long[]{now + ONE_WAY, band.rssi(tuned, now / MS)});
+                }
+                while (!reports.isEmpty() && reports.peek()[0] <= now) {
+                    int target = watch.onRssi((int) reports.poll()[1], now);
+                    if (target != DualWatch.STAY) {
+                        pending = target;
+                        applyAt = now + ONE_WAY + MODULE_SETTLE;
+                        windowAt = now + 2 * ONE_WAY;
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void looksTakeUnder100MsAndRevisitOnTime() {
+        Radio radio = new Radio(2, 500 * MS, (channel, ms) -> NOISE);
+        radio.runUntil(20_000);
+        DualWatch watch = radio.watch;
+        assertEquals(2 * ONE_WAY, watch.getRoundTripNanos());
+        assertTrue(watch.getLookCount() >= 60);
+        assertEquals(0, watch.getMissedLookCount());
+        assertEquals(0, watch.getPriorityHitCount());
+        assertTrue(watch.getMaxLookNanos() < 100 * MS);
+        // A look takes a round trip and settling, then the next report
+        assertTrue(watch.getMeanLookNanos() >= 2 * ONE_WAY + DualWatch.SETTLE_NANOS);
+        assertTrue(watch.getMeanRevisitNanos() >= 500 * MS);
+        assertTrue(watch.getMaxRevisitNanos() < 500 * MS + 100 * MS + REPORT);
+        assertEquals(0, watch.getMissedActivityCount());
+    }
+
+    @Test
+    public void holdsAPriorityChannelWhileItHasACarrier() {
+        // Traffic on priority channel 1 from 3 s to 6 s
+        Radio radio = new Radio(2, 500 * MS, (channel, ms) -> channel == 1 && ms >= 3000 && ms < 6000 ? 120 : NOISE);
+        radio.runUntil(3000);
+        assertTrue(radio.watch.isOnMain() || radio.watch.getHeldPriority() < 0);
+        radio.runUntil(5000);
+        assertEquals(1, radio.watch.getHeldPriority());
+        assertEquals(1, radio.tuned);
+        assertEquals(1, radio.watch.getPriorityHitCount());
+        // Held through the hang time after the traffic ends, then back to looking
+        radio.runUntil(6000 + DualWatch.HANG_NANOS / MS - 100);
+        assertEquals(1, radio.watch.getHeldPriority());
+        radio.runUntil(9000);
+        assertEquals(-1, radio.watch.getHeldPriority());
+        assertEquals(1, radio.watch.getPriorityHitCount());
+        assertEquals(0, radio.watch.getMissedLookCount());
+    }
+
+    @Test
+    public void neverTakesAReadingFromBeforeTheHop() {
+        // A carrier on the priority channel from the start: the first look must find it, not
+        // the main channel's noise still in flight
+        Radio radio = new Radio(1, 500 * MS, (channel, ms) -> channel == 0 ? 120 : NOISE);
+        radio.runUntil(1000);
+        assertEquals(1, radio.watch.getLookCount());
+        assertEquals(1, radio.watch.getPriorityHitCount());
+        assertEquals(0, radio.watch.getHeldPriority());
+    }
+
+    @Test
+    public void countsLooksThatCutIntoMainChannelTraffic() {
+        // Traffic on the main channel from 2 s to 4 s
+        Radio radio = new Radio(1, 250 * MS, (channel, ms) -> channel == DualWatch.MAIN && ms >= 2000 && ms < 4000 ? 120 : NOISE);
+        radio.runUntil(2000);
+        assertEquals(0, radio.watch.getMissedActivityCount());
+        radio.runUntil(6000);
+        long missed = radio.watch.getMissedActivityCount();
+        assertTrue(missed >= 6 && missed <= 8);
+        assertTrue(radio.watch.getMissedActivityNanos() <= missed * radio.watch.getMaxLookNanos());
+        assertEquals(0, radio.watch.getPriorityHitCount());
+        DualWatch.Metrics metrics = radio.watch.metrics();
+        assertEquals(missed, metrics.getMissedActivityCount());
+        assertEquals(radio.watch.getMissedActivityNanos(), metrics.getMissedActivityNanos());
+        assertEquals(250 * MS, metrics.getRevisitNanos());
+    }
+
+    @Test
+    public void returnsToMainBeforeTransmitting() {
+        DualWatch watch = new DualWatch(1, 100 * MS, 0);
+        assertFalse(watch.returnToMain(10 * MS));
+        assertEquals(0, watch.onRssi(NOISE, 200 * MS));
+        assertFalse(watch.isOnMain());
+        assertTrue(watch.returnToMain(220 * MS));
+        assertTrue(watch.isOnMain());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAPriorityChannel() {
+        new DualWatch(0, 100 * MS, 0);
+    }
+}
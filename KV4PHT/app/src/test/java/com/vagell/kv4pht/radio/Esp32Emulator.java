@@ -0,0 +1,370 @@
+package com.vagell.kv4pht.radio;
+
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+import com.vagell.kv4pht.firmware.FirmwareUtils;
+import com.vagell.kv4pht.radio.Protocol.RcvCommand;
+import com.vagell.kv4pht.radio.Protocol.SndCommand;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The kv4p firmware's side of the USB serial protocol, in plain Java, for tests and benchmarks
+ * without a radio. It is the {@link Protocol.Transport} a {@link Protocol.Sender} writes to, and
+ * hands what the firmware would send back to a {@link SerialInputOutputManager.Listener}, the
+ * interface the app reads the USB port through.
+ * <p>
+ * Like the firmware it says HELLO on {@link #boot()}, answers CONFIG with its version, starts
+ * receiving on GROUP, keys up between PTT down and up, and grants flow control credits back with
+ * window updates. While receiving it streams synthetic Opus audio, and S-meter reports when those
+ * are turned on, every 40 ms divided by the speed it was created with. TX audio is played out at
+ * the same pace: its credits come back as each frame would have finished playing.
+ * <p>
+ * Everything the firmware does happens on one thread of its own, as on the ESP32, so the host
+ * gets its data on another thread than the one writing, as from a real port.
+ */
+public class Esp32Emulator implements Protocol.Transport, AutoCloseable {
+
+    public static final int FRAME_MS = 40;
+
+    public enum Mode { STOPPED, RX, TX }
+
+    private static final SndCommand[] COMMANDS = new SndCommand[256];
+    static {
+        java.util.Arrays.fill(COMMANDS, SndCommand.COMMAND_SND_UNKNOWN);
+        for (SndCommand command : SndCommand.values()) {
+            COMMANDS[command.getValue()] = command;
+        }
+    }
+
+    /**
+     * Sees every frame the emulator receives from the host, on the emulator's thread.
+     */
+    public interface CommandListener {
+        void onCommand(SndCommand command, byte[] buffer, int offset, int length, long nanoTime);
+    }
+
+    private final SerialInputOutputManager.Listener host;
+    private final long frameNanos;
+    private final ScheduledExecutorService firmware = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Esp32Emulator");
+        t.setDaemon(true);
+        return t;
+    });
+    // Host commands share their values with the ESP32's, so the app's parser reads them too
+    private final Protocol.FrameParser parser = new Protocol.FrameParser(this::onHostFrame);
+    private final byte[][] rxAudio;
+    private int rxAudioIndex;
+
+    private short version = (short) FirmwareUtils.PACKAGED_FIRMWARE_VER;
+    private int windowSize = 2048;
+    private Protocol.RfModuleType moduleType = Protocol.RfModuleType.RF_SA818_VHF;
+    private boolean radioFound = true;
+    private boolean hasHl = true;
+    private boolean hasPhysPtt = true;
+    private volatile int noiseRssi = 30;
+    private final Map<Float, Integer> signals = new ConcurrentHashMap<>();
+    private volatile CommandListener commandListener;
+
+    // Firmware state, touched on the firmware thread only
+    private volatile Mode mode = Mode.STOPPED;
+    private volatile float frequency;
+    private boolean rssiOn;
+    private long txPlayedOutAt;
+    private ScheduledFuture<?> rxStream;
+
+    private final AtomicLongArray commandCounts = new AtomicLongArray(256);
+    private final AtomicLong bytesFromHost = new AtomicLong();
+    private final AtomicLong bytesToHost = new AtomicLong();
+    private final AtomicLong txAudioBytes = new AtomicLong();
+    private final AtomicLong rxAudioFrames = new AtomicLong();
+    private final AtomicLong rssiReports = new AtomicLong();
+    private final AtomicLong creditsGranted = new AtomicLong();
+
+    /**
+     * @param host  Receives what the firmware sends, as the app's USB read listener would.
+     * @param speed How many times faster than real time to stream and play audio.
+     */
+    public Esp32Emulator(SerialInputOutputManager.Listener host, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.host = host;
+        this.frameNanos = Math.max(1, (long) (TimeUnit.MILLISECONDS.toNanos(FRAME_MS) / speed));
+        this.rxAudio = syntheticRxAudio();
+    }
+
+    /**
+     * One second of a 1 kHz tone, encoded like the firmware's RX audio and streamed in a loop.
+     */
+    private static byte[][] syntheticRxAudio() {
+        OpusUtils.OpusEncoderWrapper encoder = new OpusUtils.OpusEncoderWrapper(
+            RadioAudioService.AUDIO_SAMPLE_RATE, RadioAudioService.OPUS_FRAME_SIZE);
+        float[] pcm = new float[RadioAudioService.OPUS_FRAME_SIZE];
+        byte[] opus = new byte[Protocol.PROTO_MTU];
+        byte[][] frames = new byte[1000 / FRAME_MS][];
+        int sample = 0;
+        for (int f = 0; f < frames.length; f++) {
+            for (int i = 0; i < pcm.length; i++, sample++) {
+                pcm[i] = 0.5f * (float) Math.sin(2 * Math.PI * 1000 * sample / RadioAudioService.AUDIO_SAMPLE_RATE);
+            }
+            int length = encoder.encode(pcm, opus);
+            frames[f] = java.util.Arrays.copyOf(opus, length);
+        }
+        return frames;
+    }
+
+    // === Setup, before boot() ===
+
+    public Esp32Emulator setFirmwareVersion(int version) {
+        this.version = (short) version;
+        return this;
+    }
+
+    public Esp32Emulator setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    public Esp32Emulator setModuleType(Protocol.RfModuleType moduleType) {
+        this.moduleType = moduleType;
+        return this;
+    }
+
+    public Esp32Emulator setRadioFound(boolean radioFound) {
+        this.radioFound = radioFound;
+        return this;
+    }
+
+    public Esp32Emulator setFeatures(boolean hasHl, boolean hasPhysPtt) {
+        this.hasHl = hasHl;
+        this.hasPhysPtt = hasPhysPtt;
+        return this;
+    }
+
+    public Esp32Emulator setCommandListener(CommandListener commandListener) {
+        this.commandListener = commandListener;
+        return this;
+    }
+
+    // === The radio's surroundings, any time ===
+
+    /**
+     * Raw RSSI (0-255) reported on frequencies without a signal.
+     */
+    public void setNoiseRssi(int rssi) {
+        noiseRssi = rssi;
+    }
+
+    /**
+     * Puts a signal of the given raw RSSI (0-255) on a receive frequency, in MHz.
+     */
+    public void setSignal(float frequency, int rssi) {
+        signals.put(frequency, rssi);
+    }
+
+    public void clearSignal(float frequency) {
+        signals.remove(frequency);
+    }
+
+    public void pressPhysicalPtt() {
+        firmware.execute(() -> send(RcvCommand.COMMAND_PHYS_PTT_DOWN, new byte[0]));
+    }
+
+    public void releasePhysicalPtt() {
+        firmware.execute(() -> send(RcvCommand.COMMAND_PHYS_PTT_UP, new byte[0]));
+    }
+
+    /**
+     * Powers up, or reboots: everything stops and the firmware says HELLO.
+     */
+    public void boot() {
+        firmware.execute(() -> {
+            setMode(Mode.STOPPED);
+            rssiOn = false;
+            send(RcvCommand.COMMAND_HELLO, new byte[0]);
+        });
+    }
+
+    @Override
+    public void close() {
+        firmware.shutdownNow();
+    }
+
+    // === Host to firmware ===
+
+    @Override
+    public void writeAsync(int length, SerialInputOutputManager.Encoder encoder) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        encoder.encode(buffer);
+        bytesFromHost.addAndGet(length);
+        firmware.execute(() -> parser.processBytes(buffer.array(), 0, length));
+    }
+
+    private void onHostFrame(RcvCommand frame, byte[] buffer, int offset, int length) {
+        SndCommand command = COMMANDS[frame.getValue()];
+        commandCounts.incrementAndGet(command.getValue());
+        CommandListener listener = commandListener;
+        if (listener != null) {
+            listener.onCommand(command, buffer, offset, length, System.nanoTime());
+        }
+        int frameSize = Protocol.COMMAND_DELIMITER.length + 3 + length;
+        switch (command) {
+            case COMMAND_HOST_CONFIG:
+                setMode(Mode.STOPPED);
+                grant(frameSize);
+                send(RcvCommand.COMMAND_VERSION, versionBytes());
+                break;
+            case COMMAND_HOST_GROUP:
+                frequency = ByteBuffer.wrap(buffer, offset, length).order(ByteOrder.LITTLE_ENDIAN).getFloat(offset + 5);
+                if (mode != Mode.TX) {
+                    setMode(Mode.RX);
+                }
+                grant(frameSize);
+                break;
+            case COMMAND_HOST_RSSI:
+                rssiOn = length > 0 && buffer[offset] != 0;
+                grant(frameSize);
+                break;
+            case COMMAND_HOST_FILTERS:
+            case COMMAND_HOST_HL:
+                grant(frameSize);
+                break;
+            case COMMAND_HOST_TX_AUDIO:
+                txAudioBytes.addAndGet(length);
+                playOut(frameSize);
+                break;
+            case COMMAND_HOST_PTT_DOWN:
+                if (mode != Mode.STOPPED) {
+                    setMode(Mode.TX);
+                }
+                break;
+            case COMMAND_HOST_PTT_UP:
+                if (mode == Mode.TX) {
+                    setMode(Mode.RX);
+                }
+                break;
+            case COMMAND_HOST_STOP:
+                setMode(Mode.STOPPED);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private byte[] versionBytes() {
+        return ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+            .putShort(version)
+            .put((byte) (radioFound ? Protocol.RadioStatus.RADIO_STATUS_FOUND : Protocol.RadioStatus.RADIO_STATUS_NOT_FOUND).getValue())
+            .putInt(windowSize)
+            .putInt(moduleType.getValue())
+            .put((byte) ((hasHl ? 0x01 : 0) | (hasPhysPtt ? 0x02 : 0)))
+            .array();
+    }
+
+    /**
+     * Credits of a TX audio frame come back once it has played, one frame time after the last.
+     */
+    private void playOut(int frameSize) {
+        long now = System.nanoTime();
+        txPlayedOutAt = Math.max(now, txPlayedOutAt) + frameNanos;
+        firmware.schedule(() -> grant(frameSize), txPlayedOutAt - now, TimeUnit.NANOSECONDS);
+    }
+
+    private void grant(int size) {
+        creditsGranted.addAndGet(size);
+        send(RcvCommand.COMMAND_WINDOW_UPDATE,
+            ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(size).array());
+    }
+
+    // === Firmware to host ===
+
+    private void setMode(Mode next) {
+        mode = next;
+        if (next == Mode.RX && rxStream == null) {
+            rxStream = firmware.scheduleAtFixedRate(this::receive, frameNanos, frameNanos, TimeUnit.NANOSECONDS);
+        } else if (next != Mode.RX && rxStream != null) {
+            rxStream.cancel(false);
+            rxStream = null;
+        }
+    }
+
+    private void receive() {
+        byte[] opus = rxAudio[rxAudioIndex];
+        rxAudioIndex = (rxAudioIndex + 1) % rxAudio.length;
+        send(RcvCommand.COMMAND_RX_AUDIO, opus);
+        rxAudioFrames.incrementAndGet();
+        if (rssiOn) {
+            send(RcvCommand.COMMAND_SMETER_REPORT, new byte[]{(byte) getRssi(frequency)});
+            rssiReports.incrementAndGet();
+        }
+    }
+
+    private int getRssi(float frequency) {
+        Integer signal = signals.get(frequency);
+        return signal != null ? signal : noiseRssi;
+    }
+
+    private void send(RcvCommand command, byte[] payload) {
+        byte[] frame = new byte[Protocol.COMMAND_DELIMITER.length + 3 + payload.length];
+        System.arraycopy(Protocol.COMMAND_DELIMITER, 0, frame, 0, Protocol.COMMAND_DELIMITER.length);
+        frame[4] = (byte) command.getValue();
+        frame[5] = (byte) payload.length;
+        frame[6] = (byte) (payload.length >> 8);
+        System.arraycopy(payload, 0, frame, 7, payload.length);
+        bytesToHost.addAndGet(frame.length);
+        host.onNewData(frame);
+    }
+
+    // === Metrics, readable from any thread ===
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Receive frequency of the last GROUP, in MHz.
+     */
+    public float getFrequency() {
+        return frequency;
+    }
+
+    public long getCommandCount(SndCommand command) {
+        return commandCounts.get(command.getValue());
+    }
+
+    public long getBytesFromHost() {
+        return bytesFromHost.get();
+    }
+
+    public long getBytesToHost() {
+        return bytesToHost.get();
+    }
+
+    /**
+     * Opus bytes received in TX audio frames.
+     */
+    public long getTxAudioBytes() {
+        return txAudioBytes.get();
+    }
+
+    public long getRxAudioFrames() {
+        return rxAudioFrames.get();
+    }
+
+    public long getRssiReports() {
+        return rssiReports.get();
+    }
+
+    public long getCreditsGranted() {
+        return creditsGranted.get();
+    }
+}
@@ -0,0 +1,174 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+import com.vagell.kv4pht.firmware.FirmwareUtils;
+import com.vagell.kv4pht.radio.Protocol.RcvCommand;
+import com.vagell.kv4pht.radio.Protocol.SndCommand;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Esp32EmulatorTest {
+
+    /** The app's end of the link, handling frames as RadioAudioService does. */
+    private static class Host implements SerialInputOutputManager.Listener {
+        final Protocol.FrameParser parser = new Protocol.FrameParser(this::onFrame);
+        final OpusUtils.OpusDecoderWrapper decoder = new OpusUtils.OpusDecoderWrapper(
+            RadioAudioService.AUDIO_SAMPLE_RATE, RadioAudioService.OPUS_FRAME_SIZE);
+        final float[] pcm = new float[RadioAudioService.OPUS_FRAME_SIZE];
+        final CompletableFuture<Void> hello = new CompletableFuture<>();
+        final CompletableFuture<Optional<Protocol.FirmwareVersion>> version = new CompletableFuture<>();
+        final AtomicInteger hellos = new AtomicInteger();
+        final AtomicLong rxSamples = new AtomicLong();
+        volatile int sMeter;
+        volatile Protocol.Sender sender;
+
+        @Override
+        public void onNewData(byte[] data) {
+            parser.processBytes(data);
+        }
+
+        @Override
+        public void onRunError(Exception e) {
+        }
+
+        private void onFrame(RcvCommand command, byte[] buffer, int offset, int length) {
+            switch (command) {
+                case COMMAND_HELLO:
+                    hellos.incrementAndGet();
+                    hello.complete(null);
+                    break;
+                case COMMAND_VERSION:
+                    version.complete(Protocol.FirmwareVersion.from(buffer, offset, length));
+                    break;
+                case COMMAND_WINDOW_UPDATE:
+                    Protocol.WindowUpdate.from(buffer, offset, length)
+                        .ifPresent(update -> sender.enlargeFlowControlWindow(update.getSize()));
+                    break;
+                case COMMAND_RX_AUDIO:
+                    rxSamples.addAndGet(decoder.decode(buffer, offset, length, pcm));
+                    break;
+                case COMMAND_SMETER_REPORT:
+                    Protocol.Rssi.from(buffer, offset, length).ifPresent(rssi -> sMeter = rssi.getSMeter9Value());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private Esp32Emulator emulator;
+
+    private Host connect(double speed) throws Exception {
+        Host host = new Host();
+        emulator = new Esp32Emulator(host, speed);
+        host.sender = new Protocol.Sender(emulator);
+        emulator.boot();
+        // the handshake, as ProtocolHandshake runs it
+        host.hello.get(1, TimeUnit.SECONDS);
+        host.sender.stop();
+        host.sender.config(Protocol.Config.builder().isHigh(true).build());
+        Protocol.FirmwareVersion version = host.version.get(1, TimeUnit.SECONDS).get();
+        host.sender.setFlowControlWindow(version.getWindowSize());
+        return host;
+    }
+
+    private static void tune(Protocol.Sender sender, float frequency) {
+        sender.group(Protocol.Group.builder().bw(Protocol.DRA818_25K)
+            .freqTx(frequency).freqRx(frequency).squelch((byte) 1).build());
+    }
+
+    private static void await(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(1);
+        }
+    }
+
+    @After
+    public void close() {
+        if (emulator != null) {
+            emulator.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void handshakeReportsTheFirmwareVersion() throws Exception {
+        Host host = connect(1);
+        Protocol.FirmwareVersion version = host.version.get().get();
+        assertEquals(FirmwareUtils.PACKAGED_FIRMWARE_VER, version.getVer());
+        assertEquals(Protocol.RadioStatus.RADIO_STATUS_FOUND, version.getRadioModuleStatus());
+        assertEquals(2048, version.getWindowSize());
+        assertEquals(Protocol.RfModuleType.RF_SA818_VHF, version.getModuleType());
+        assertTrue(version.isHasHl());
+        assertTrue(version.isHasPhysPtt());
+        assertEquals(Esp32Emulator.Mode.STOPPED, emulator.getMode());
+
+        emulator.boot(); // a reboot says HELLO again
+        await(() -> host.hellos.get() == 2);
+    }
+
+    @Test(timeout = 10000)
+    public void streamsRxAudioAndRssiOnceTuned() throws Exception {
+        Host host = connect(20);
+        emulator.setSignal(146.52f, 200);
+        tune(host.sender, 146.52f);
+        host.sender.setRssi(Protocol.RSSIState.builder().on(true).build());
+        await(() -> host.rxSamples.get() >= 10 * RadioAudioService.OPUS_FRAME_SIZE && host.sMeter > 0);
+        assertEquals(Esp32Emulator.Mode.RX, emulator.getMode());
+        assertEquals(146.52f, emulator.getFrequency(), 0.0f);
+        assertEquals(9, host.sMeter);
+
+        host.sender.pttDown();
+        await(() -> emulator.getMode() == Esp32Emulator.Mode.TX);
+        long frames = emulator.getRxAudioFrames();
+        Thread.sleep(50);
+        assertEquals(frames, emulator.getRxAudioFrames()); // no RX audio while transmitting
+        host.sender.pttUp();
+        await(() -> emulator.getMode() == Esp32Emulator.Mode.RX);
+        // credits of every frame but the controls came back
+        await(() -> host.sender.getFlowControlWindow() == 2048);
+    }
+
+    /*
+     * Ten seconds of TX audio through the flow control window, played out 50 times faster than
+     * real time, then a PTT release: the audio is paced by play-out, and all of it and the
+     * release arrive.
+     */
+    @Test(timeout = 30000)
+    public void txAudioThroughputAndPttReleaseLatency() throws Exception {
+        Host host = connect(50);
+        tune(host.sender, 146.52f);
+        long[] pttUpAt = {0};
+        emulator.setCommandListener((command, buffer, offset, length, nanoTime) -> {
+            if (command == SndCommand.COMMAND_HOST_PTT_UP) {
+                pttUpAt[0] = nanoTime;
+            }
+        });
+        host.sender.pttDown();
+        byte[] opus = new byte[160];
+        int frames = 10000 / Esp32Emulator.FRAME_MS;
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            host.sender.txAudio(opus, 0, opus.length);
+        }
+        long sent = System.nanoTime();
+        host.sender.pttUp();
+        await(() -> pttUpAt[0] != 0);
+        await(() -> emulator.getTxAudioBytes() == (long) frames * opus.length);
+        long elapsed = sent - start;
+        // paced by play-out: 2048 credits hold 12 frames, the rest wait for theirs to play
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos((frames - 12) * Esp32Emulator.FRAME_MS / 50));
+        assertTrue(host.sender.getCreditStarvationCount() > 0);
+        assertEquals(1, emulator.getCommandCount(SndCommand.COMMAND_HOST_PTT_UP));
+        assertEquals(frames, emulator.getCommandCount(SndCommand.COMMAND_HOST_TX_AUDIO));
+    }
+}
@@ -0,0 +1,172 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.vagell.kv4pht.radio.Protocol.RcvCommand;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class FrameParserTest {
+
+    private static final RcvCommand[] COMMANDS = {
+        RcvCommand.COMMAND_RX_AUDIO, RcvCommand.COMMAND_SMETER_REPORT,
+        RcvCommand.COMMAND_WINDOW_UPDATE, RcvCommand.COMMAND_HELLO};
+
+    private static byte[] frame(RcvCommand command, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Protocol.COMMAND_DELIMITER, 0, Protocol.COMMAND_DELIMITER.length);
+        out.write(command.getValue());
+        out.write(payload.length & 0xFF);
+        out.write(payload.length >> 8);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    /** Copies each frame as it is handed over, since the views are only valid during the call. */
+    private static class Recorder implements Protocol.FrameHandler {
+        final List<String> frames = new ArrayList<>();
+
+        @Override
+        public void onFrame(RcvCommand command, byte[] buffer, int offset, int length) {
+            frames.add(command + Arrays.toString(Arrays.copyOfRange(buffer, offset, offset + length)));
+        }
+    }
+
+    private static String describe(RcvCommand command, byte[] payload) {
+        return command + Arrays.toString(payload);
+    }
+
+    @Test
+    public void frameWithinOneReadIsHandedOnInPlace() {
+        byte[] payload = {1, 2, 3, 4, 5};
+        byte[] data = frame(RcvCommand.COMMAND_RX_AUDIO, payload);
+        byte[][] seen = new byte[1][];
+        int[] where = new int[2];
+        new Protocol.FrameParser((command, buffer, offset, length) -> {
+            seen[0] = buffer;
+            where[0] = offset;
+            where[1] = length;
+        }).processBytes(data);
+        assertSame(data, seen[0]);
+        assertEquals(7, where[0]);
+        assertEquals(5, where[1]);
+    }
+
+    @Test
+    public void framesSplitAtEveryBoundary() {
+        byte[] a = frame(RcvCommand.COMMAND_RX_AUDIO, new byte[]{10, 20, 30});
+        byte[] b = frame(RcvCommand.COMMAND_HELLO, new byte[0]);
+        byte[] c = frame(RcvCommand.COMMAND_SMETER_REPORT, new byte[]{(byte) 0xDE});
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(a, 0, a.length);
+        stream.write(b, 0, b.length);
+        stream.write(c, 0, c.length);
+        byte[] data = stream.toByteArray();
+        List<String> expected = Arrays.asList(
+            describe(RcvCommand.COMMAND_RX_AUDIO, new byte[]{10, 20, 30}),
+            describe(RcvCommand.COMMAND_HELLO, new byte[0]),
+            describe(RcvCommand.COMMAND_SMETER_REPORT, new byte[]{(byte) 0xDE}));
+
+        for (int first = 0; first <= data.length; first++) {
+            for (int second = first; second <= data.length; second++) {
+                Recorder recorder = new Recorder();
+                Protocol.FrameParser parser = new Protocol.FrameParser(recorder);
+                parser.processBytes(data, 0, first);
+                parser.processBytes(data, first, second - first);
+                parser.processBytes(data, second, data.length - second);
+                assertEquals("split at " + first + ", " + second, expected, recorder.frames);
+            }
+        }
+    }
+
+    @Test
+    public void randomStreamInRandomReads() {
+        Random random = new Random(5);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            RcvCommand command = COMMANDS[random.nextInt(COMMANDS.length)];
+            byte[] payload = new byte[random.nextInt(300)];
+            random.nextBytes(payload);
+            byte[] f = frame(command, payload);
+            stream.write(f, 0, f.length);
+            expected.add(describe(command, payload));
+        }
+        byte[] data = stream.toByteArray();
+
+        for (int round = 0; round < 20; round++) {
+            Recorder recorder = new Recorder();
+            Protocol.FrameParser parser = new Protocol.FrameParser(recorder);
+            int position = 0;
+            while (position < data.length) {
+                int n = Math.min(data.length - position, 1 + random.nextInt(round < 10 ? 16 : 4096));
+                parser.processBytes(data, position, n);
+                position += n;
+            }
+            assertEquals(expected, recorder.frames);
+        }
+    }
+
+    @Test
+    public void resynchronizesOnNoiseAndPartialDelimiters() {
+        byte[] good = frame(RcvCommand.COMMAND_RX_AUDIO, new byte[]{7, 8});
+        byte[] noise = {0x00, (byte) 0xDE, (byte) 0xAD, 0x11, (byte) 0xDE, (byte) 0xDE, (byte) 0xAD, (byte) 0xBE};
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(noise, 0, noise.length);
+        stream.write(good, 0, good.length);
+        Recorder recorder = new Recorder();
+        new Protocol.FrameParser(recorder).processBytes(stream.toByteArray());
+        assertEquals(Arrays.asList(describe(RcvCommand.COMMAND_RX_AUDIO, new byte[]{7, 8})), recorder.frames);
+    }
+
+    @Test
+    public void skipsFramesLongerThanTheMtu() {
+        byte[] header = {(byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF,
+            (byte) RcvCommand.COMMAND_RX_AUDIO.getValue(), (byte) 0xFF, (byte) 0xFF};
+        byte[] good = frame(RcvCommand.COMMAND_HELLO, new byte[0]);
+        Recorder recorder = new Recorder();
+        Protocol.FrameParser parser = new Protocol.FrameParser(recorder);
+        parser.processBytes(header);
+        parser.processBytes(good);
+        assertEquals(Arrays.asList(describe(RcvCommand.COMMAND_HELLO, new byte[0])), recorder.frames);
+    }
+
+    @Test
+    public void readsHeapAndDirectByteBuffers() {
+        byte[] f = frame(RcvCommand.COMMAND_WINDOW_UPDATE, new byte[]{0, 4, 0, 0});
+        List<String> expected = Arrays.asList(describe(RcvCommand.COMMAND_WINDOW_UPDATE, new byte[]{0, 4, 0, 0}));
+
+        Recorder heap = new Recorder();
+        ByteBuffer wrapped = ByteBuffer.wrap(new byte[f.length + 3], 3, f.length).slice();
+        wrapped.put(f).flip();
+        new Protocol.FrameParser(heap).processBytes(wrapped);
+        assertEquals(expected, heap.frames);
+        assertEquals(0, wrapped.remaining());
+
+        Recorder direct = new Recorder();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(f.length);
+        buffer.put(f).flip();
+        new Protocol.FrameParser(direct).processBytes(buffer);
+        assertEquals(expected, direct.frames);
+    }
+
+    @Test
+    public void legacyHandlerGetsPayloadAtOffsetZero() {
+        byte[] payload = {9, 8, 7};
+        byte[] data = frame(RcvCommand.COMMAND_RX_AUDIO, payload);
+        List<byte[]> seen = new ArrayList<>();
+        new Protocol.FrameParser((RcvCommand command, byte[] param, Integer len) ->
+            seen.add(Arrays.copyOf(param, len))).processBytes(data);
+        assertEquals(1, seen.size());
+        assertArrayEquals(payload, seen.get(0));
+    }
+}
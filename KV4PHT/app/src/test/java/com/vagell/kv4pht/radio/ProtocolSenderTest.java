@@ -0,0 +1,290 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ProtocolSenderTest {
+
+    /** Collects what the sender encodes, as the serial write buffer would. */
+    private static class BufferTransport implements Protocol.Transport {
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        @Override
+        public void writeAsync(int length, com.hoho.android.usbserial.util.SerialInputOutputManager.Encoder encoder) {
+            int start = buffer.position();
+            encoder.encode(buffer);
+            assertEquals(length, buffer.position() - start);
+        }
+
+        byte[] written() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    @Test
+    public void encodesDelimiterCommandLengthAndPayload() {
+        BufferTransport transport = new BufferTransport();
+        Protocol.Sender sender = new Protocol.Sender(transport);
+        byte[] audio = new byte[300];
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = (byte) i;
+        }
+        sender.txAudio(audio, 10, 260);
+        sender.pttDown();
+
+        byte[] expected = new byte[7 + 260 + 7];
+        byte[] header = {(byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF, 0x07, 0x04, 0x01};
+        System.arraycopy(header, 0, expected, 0, 7);
+        System.arraycopy(audio, 10, expected, 7, 260);
+        byte[] ptt = {(byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF, 0x01, 0x00, 0x00};
+        System.arraycopy(ptt, 0, expected, 267, 7);
+        assertArrayEquals(expected, transport.written());
+    }
+
+    @Test
+    public void framesRoundTripThroughTheParser() {
+        BufferTransport transport = new BufferTransport();
+        Protocol.Sender sender = new Protocol.Sender(transport);
+        sender.txAudio(new byte[]{1, 2, 3});
+        sender.setRssi(Protocol.RSSIState.builder().on(true).build());
+
+        int[] frames = {0};
+        // Host commands share their values with the ESP32's, so the parser can read them back
+        new Protocol.FrameParser((command, buffer, offset, length) -> {
+            frames[0]++;
+            if (frames[0] == 1) {
+                assertEquals(Protocol.RcvCommand.COMMAND_RX_AUDIO, command);
+                assertArrayEquals(new byte[]{1, 2, 3}, Arrays.copyOfRange(buffer, offset, offset + length));
+            } else {
+                assertEquals(Protocol.RcvCommand.COMMAND_WINDOW_UPDATE, command);
+                assertEquals(1, length);
+            }
+        }).processBytes(transport.written());
+        assertEquals(2, frames[0]);
+    }
+
+    @Test
+    public void sendingTxAudioAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        BufferTransport transport = new BufferTransport();
+        Protocol.Sender sender = new Protocol.Sender(transport);
+        sender.setFlowControlWindow(1 << 30);
+        byte[] opusFrame = new byte[Protocol.PROTO_MTU];
+
+        // warm up
+        for (int i = 0; i < 1000; i++) {
+            transport.buffer.clear();
+            sender.txAudio(opusFrame, 0, 120);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            transport.buffer.clear();
+            sender.txAudio(opusFrame, 0, 100 + i % 60);
+            if (i % 100 == 0) {
+                sender.enlargeFlowControlWindow(100 * 160);
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void controlFramesTakeThePriorityLane() {
+        StringBuilder lanes = new StringBuilder();
+        ByteBuffer scratch = ByteBuffer.allocate(Protocol.PROTO_MTU + 7);
+        Protocol.Sender sender = new Protocol.Sender(new Protocol.Transport() {
+            @Override
+            public void writeAsync(int length, com.hoho.android.usbserial.util.SerialInputOutputManager.Encoder encoder) {
+                record('q', encoder);
+            }
+
+            @Override
+            public void writePriorityAsync(int length, com.hoho.android.usbserial.util.SerialInputOutputManager.Encoder encoder) {
+                record('p', encoder);
+            }
+
+            private void record(char lane, com.hoho.android.usbserial.util.SerialInputOutputManager.Encoder encoder) {
+                scratch.clear();
+                encoder.encode(scratch);
+                lanes.append(lane).append(scratch.get(4)).append(' ');
+            }
+        });
+        sender.setFlowControlWindow(1 << 20);
+        sender.pttDown();
+        sender.txAudio(new byte[100]);
+        sender.group(Protocol.Group.builder().build());
+        sender.setRssi(Protocol.RSSIState.builder().on(true).build());
+        sender.stop();
+        sender.pttUp();
+        sender.stopAfterQueuedAudio();
+        sender.pttUpAfterQueuedAudio();
+        assertEquals("q1 q7 p3 p9 p5 p2 q5 q2 ", lanes.toString());
+    }
+
+    @Test
+    public void tryTxAudioDropsTheFrameOnAFullTransport() {
+        boolean[] full = {false};
+        BufferTransport transport = new BufferTransport() {
+            @Override
+            public boolean tryWriteAsync(int length, com.hoho.android.usbserial.util.SerialInputOutputManager.Encoder encoder) {
+                if (full[0]) {
+                    return false;
+                }
+                writeAsync(length, encoder);
+                return true;
+            }
+
+            @Override
+            public int getPendingWriteBytes() {
+                return buffer.position();
+            }
+        };
+        Protocol.Sender sender = new Protocol.Sender(transport);
+        sender.setFlowControlWindow(1000);
+        assertTrue(sender.tryTxAudio(new byte[100], 0, 100));
+        assertEquals(107, sender.getPendingWriteBytes());
+        full[0] = true;
+        assertFalse(sender.tryTxAudio(new byte[100], 0, 100));
+        assertEquals(107, sender.getPendingWriteBytes());
+        assertEquals(1, sender.getDroppedTxAudioCount());
+        assertEquals("the dropped frame's credits are back", 1000 - 107, sender.getFlowControlWindow());
+    }
+
+    /*
+     * A control frame sent from an interrupted thread while the window is empty waits for the
+     * grant and goes out all the same, and the thread is still interrupted afterwards; audio
+     * gives up instead.
+     */
+    @Test(timeout = 10000)
+    public void interruptNeverDropsControlFrames() throws InterruptedException {
+        BufferTransport transport = new BufferTransport() {
+            @Override
+            public synchronized void writeAsync(int length, com.hoho.android.usbserial.util.SerialInputOutputManager.Encoder encoder) {
+                super.writeAsync(length, encoder);
+            }
+
+            @Override
+            public void writePriorityAsync(int length, com.hoho.android.usbserial.util.SerialInputOutputManager.Encoder encoder) {
+                writeAsync(length, encoder);
+            }
+        };
+        Protocol.Sender sender = new Protocol.Sender(transport);
+        sender.setFlowControlWindow(0);
+        boolean[] stillInterrupted = {false};
+        Thread control = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            sender.txAudio(new byte[10]);
+            sender.setRssi(Protocol.RSSIState.builder().on(true).build());
+            stillInterrupted[0] = Thread.currentThread().isInterrupted();
+        });
+        control.start();
+        while (sender.getCreditStarvationCount() < 2) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        assertEquals(0, transport.written().length);
+        sender.setFlowControlWindow(1000);
+        control.join();
+        assertTrue(stillInterrupted[0]);
+        assertEquals(Protocol.SndCommand.COMMAND_HOST_RSSI.getValue(), transport.written()[4]);
+        assertEquals(1000 - transport.written().length, sender.getFlowControlWindow());
+    }
+
+    /*
+     * Audio and control senders on several threads against a firmware that
+     * grants credits back as it drains its buffer: the buffer never holds more
+     * than the window, and every credit is back when the buffer is empty.
+     */
+    @Test(timeout = 60000)
+    public void creditsStayExactUnderConcurrentSenders() throws InterruptedException {
+        final int window = 2048;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicLong controls = new AtomicLong();
+        final ByteBuffer scratch = ByteBuffer.allocate(Protocol.PROTO_MTU + 7);
+        // The sender serializes writes per lane only, and the two lanes share this scratch buffer
+        Protocol.Sender sender = new Protocol.Sender((length, encoder) -> {
+            int command;
+            synchronized (scratch) {
+                scratch.clear();
+                encoder.encode(scratch);
+                command = scratch.get(4);
+            }
+            if (command == Protocol.SndCommand.COMMAND_HOST_PTT_DOWN.getValue()
+                || command == Protocol.SndCommand.COMMAND_HOST_PTT_UP.getValue()) {
+                controls.incrementAndGet();
+                return;
+            }
+            int now = inFlight.addAndGet(length);
+            maxInFlight.accumulateAndGet(now, Math::max);
+        });
+        sender.setFlowControlWindow(window);
+
+        final boolean[] running = {true};
+        Thread firmware = new Thread(() -> {
+            Random random = new Random(1);
+            while (running[0] || inFlight.get() > 0) {
+                int drained = inFlight.getAndSet(0);
+                if (drained > 0) {
+                    sender.enlargeFlowControlWindow(drained);
+                }
+                if (random.nextInt(8) == 0) {
+                    try {
+                        Thread.sleep(0, 200000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                } else {
+                    Thread.yield();
+                }
+            }
+        });
+        firmware.start();
+
+        Thread[] senders = new Thread[4];
+        for (int t = 0; t < senders.length; t++) {
+            final int id = t;
+            senders[t] = new Thread(() -> {
+                Random random = new Random(id);
+                byte[] audio = new byte[200];
+                for (int i = 0; i < 20000; i++) {
+                    if (id == 0) { // the control sender
+                        if (i % 2 == 0) {
+                            sender.pttDown();
+                        } else {
+                            sender.pttUp();
+                        }
+                        sender.setRssi(Protocol.RSSIState.builder().on(i % 2 == 0).build());
+                    } else {
+                        sender.txAudio(audio, 0, 1 + random.nextInt(audio.length));
+                    }
+                }
+            });
+            senders[t].start();
+        }
+        for (Thread t : senders) {
+            t.join();
+        }
+        running[0] = false;
+        firmware.join();
+
+        assertTrue("in flight " + maxInFlight.get(), maxInFlight.get() < window);
+        assertEquals(window, sender.getFlowControlWindow());
+        assertEquals(20000, controls.get());
+        assertTrue(sender.getCreditStarvationCount() > 0);
+        assertTrue(sender.getBlockedNanos() > 0);
+    }
+}
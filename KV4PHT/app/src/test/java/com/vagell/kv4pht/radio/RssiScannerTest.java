@@ -0,0 +1,187 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class RssiScannerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long REPORT = 40 * MS; // the firmware reports RSSI once per RX frame
+    private static final int NOISE = 30;
+    private static final int CHANNELS = 64;
+
+    private final Random random = new Random(7);
+    private long now = 1_000 * MS;
+
+    /** A scanner over a plan of CHANNELS steps and one more, never tuned before the test does. */
+    private RssiScanner scanner() {
+        RssiScanner scanner = new RssiScanner();
+        scanner.setChannelCount(CHANNELS + 1);
+        scanner.start(now);
+        return scanner;
+    }
+
+    private int noise() {
+        return NOISE - 3 + random.nextInt(7);
+    }
+
+    /**
+     * Stays on the channel tuned as a scan would, with an RSSI report every REPORT, until the
+     * scanner skips it or its dwell of silence runs out. Audio is heard from audioFrom to
+     * audioUntil after tuning, and readings are signal while it is, noise otherwise.
+     */
+    private long dwell(RssiScanner scanner, int step, int signal, long audioFrom, long audioUntil) {
+        long tunedAt = now;
+        scanner.onTuned(step, now);
+        long silentSince = now;
+        while (true) {
+            now += REPORT;
+            long sinceTune = now - tunedAt;
+            boolean audio = sinceTune >= audioFrom && sinceTune < audioUntil;
+            if (audio) {
+                scanner.onAudio(now);
+                silentSince = now;
+            }
+            if (scanner.onRssi(audio ? signal : noise(), now)
+                || now - silentSince >= scanner.getDwellNanos(now)) {
+                return now - tunedAt;
+            }
+        }
+    }
+
+    private long quiet(RssiScanner scanner, int step) {
+        return dwell(scanner, step, 0, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void sweepsDeadChannelsSeveralTimesFasterThanTheFixedDwell() {
+        RssiScanner scanner = scanner();
+        long start = now;
+        for (int sweep = 0; sweep < 3; sweep++) {
+            for (int step = 0; step < CHANNELS; step++) {
+                long dwelt = quiet(scanner, step);
+                assertTrue(dwelt < RssiScanner.DWELL_NANOS);
+            }
+        }
+        long elapsed = now - start;
+        assertTrue(elapsed * 3 < 3 * CHANNELS * RssiScanner.DWELL_NANOS);
+        assertTrue(scanner.getChannelsPerSecond(now) > 3 * 1e9 / RssiScanner.DWELL_NANOS);
+        assertTrue(scanner.getEarlySkipCount() >= 3 * CHANNELS - 1);
+        assertEquals(NOISE, scanner.getNoiseFloor(), 3);
+        assertEquals(0, scanner.getLockCount());
+    }
+
+    @Test
+    public void neverSkipsAChannelWithTraffic() {
+        RssiScanner scanner = scanner();
+        for (int step = 0; step < CHANNELS; step++) {
+            quiet(scanner, step); // learns the floor
+        }
+        // Traffic a little after tuning, for a second
+        long dwelt = dwell(scanner, CHANNELS, 120, 100 * MS, 1_100 * MS);
+        assertTrue(dwelt >= 1_100 * MS + RssiScanner.ACTIVE_DWELL_NANOS - REPORT);
+        assertEquals(1, scanner.getLockCount());
+        assertEquals(120 * MS, scanner.getLastTimeToLockNanos()); // the first report period after audio began
+        assertEquals(120 * MS, scanner.getMeanTimeToLockNanos());
+        assertEquals(CHANNELS, scanner.getEarlySkipCount());
+        RssiScanner.Metrics metrics = scanner.metrics(now);
+        assertEquals(1, metrics.getLockCount());
+        assertEquals(120 * MS, metrics.getMeanTimeToLockNanos());
+        assertEquals(CHANNELS, metrics.getEarlySkipCount());
+        assertEquals(scanner.getChannelsPerSecond(now), metrics.getChannelsPerSecond(), 0);
+    }
+
+    @Test
+    public void dwellsLongerOnChannelsWithRecentActivity() {
+        RssiScanner scanner = scanner();
+        dwell(scanner, 1, 120, 80 * MS, 500 * MS);
+        quiet(scanner, 2);
+        // Quiet when the scan comes back, but it may get a reply yet
+        long dwelt = quiet(scanner, 1);
+        assertEquals(RssiScanner.ACTIVE_DWELL_NANOS, dwelt);
+        // Long after, it is just another dead channel
+        now += RssiScanner.RECENT_ACTIVITY_NANOS;
+        assertTrue(quiet(scanner, 1) < RssiScanner.DWELL_NANOS);
+    }
+
+    @Test
+    public void ignoresReadingsBeforeTheReceiverSettles() {
+        RssiScanner scanner = scanner();
+        quiet(scanner, 1);
+        // The previous channel's readings, right after tuning to one with a carrier
+        scanner.onTuned(2, now);
+        for (int i = 0; i < 5; i++) {
+            assertFalse(scanner.onRssi(NOISE, now + i * 10 * MS));
+        }
+        assertFalse(scanner.onRssi(120, now + RssiScanner.SETTLE_NANOS));
+        assertFalse(scanner.onRssi(NOISE, now + RssiScanner.SETTLE_NANOS + REPORT));
+        assertFalse(scanner.onRssi(NOISE, now + RssiScanner.SETTLE_NANOS + 2 * REPORT));
+        assertEquals(RssiScanner.ACTIVE_DWELL_NANOS, scanner.getDwellNanos(now));
+    }
+
+    @Test
+    public void learnsACarrierThatNeverOpensSquelchAsTheFloor() {
+        RssiScanner scanner = scanner();
+        quiet(scanner, 1);
+        // A birdie on channel 2: well over the floor, but never any audio
+        scanner.onTuned(2, now);
+        for (int i = 1; i <= 10; i++) {
+            assertFalse(scanner.onRssi(60, now + i * REPORT));
+        }
+        now += 10 * REPORT;
+        quiet(scanner, 1);
+        scanner.onTuned(2, now);
+        assertFalse(scanner.onRssi(61, now + RssiScanner.SETTLE_NANOS));
+        assertTrue(scanner.onRssi(59, now + RssiScanner.SETTLE_NANOS + REPORT));
+        // Traffic over it still holds the scan
+        now += RssiScanner.SETTLE_NANOS + REPORT;
+        scanner.onTuned(2, now);
+        assertFalse(scanner.onRssi(120, now + RssiScanner.SETTLE_NANOS));
+        assertEquals(RssiScanner.ACTIVE_DWELL_NANOS, scanner.getDwellNanos(now));
+    }
+
+    @Test
+    public void forgetsChannelsWhenThePlanIsCompiledAgain() {
+        RssiScanner scanner = scanner();
+        dwell(scanner, 1, 120, 80 * MS, 500 * MS);
+        quiet(scanner, 2);
+        // Step 1 may be another memory now
+        scanner.setChannelCount(CHANNELS);
+        assertTrue(quiet(scanner, 1) < RssiScanner.DWELL_NANOS);
+        assertEquals(NOISE, scanner.getNoiseFloor(), 3);
+    }
+
+    @Test
+    public void scanningAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        RssiScanner scanner = new RssiScanner();
+        scanner.setChannelCount(1000);
+        scanner.start(now);
+        // warm up
+        for (int step = 0; step < 1000; step++) {
+            dwell(scanner, step, 120, 80 * MS, 200 * MS);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int step = 0; step < 1000; step++) {
+            dwell(scanner, step, 120, 80 * MS, 200 * MS);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void fallsBackToTheFixedDwellWithoutReadings() {
+        RssiScanner scanner = scanner();
+        scanner.onTuned(1, now);
+        assertEquals(RssiScanner.DWELL_NANOS, scanner.getDwellNanos(now));
+        assertEquals(-1, scanner.getNoiseFloor(), 0);
+    }
+}
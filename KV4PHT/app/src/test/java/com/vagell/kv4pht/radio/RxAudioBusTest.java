@@ -0,0 +1,246 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+public class RxAudioBusTest {
+
+    private static void put(RxAudioBus bus, float value, int length) {
+        float[] block = bus.claim();
+        assertNotNull(block);
+        block[0] = value;
+        bus.publish(length);
+    }
+
+    @Test
+    public void everySubscriberReadsTheSameBlocksInOrder() {
+        RxAudioBus bus = new RxAudioBus(4, 8);
+        RxAudioBus.Subscription a = bus.subscribe("a");
+        RxAudioBus.Subscription b = bus.subscribe("b");
+        for (int i = 0; i < 3; i++) {
+            put(bus, i, i + 1);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, a.poll());
+            assertEquals(i + 1, b.poll());
+            assertSame(a.current(), b.current()); // shared, not copied
+            assertEquals(i, a.current()[0], 0.0f);
+            a.release();
+            b.release();
+        }
+        assertEquals(0, a.poll());
+        assertEquals(3, a.getDeliveredCount());
+        assertEquals(3, b.getHighWaterMark());
+    }
+
+    @Test
+    public void subscriberStartsWithTheNextBlock() {
+        RxAudioBus bus = new RxAudioBus(4, 8);
+        put(bus, 1, 1);
+        RxAudioBus.Subscription late = bus.subscribe("late");
+        assertEquals(0, late.poll());
+        put(bus, 2, 1);
+        assertEquals(1, late.poll());
+        assertEquals(2, late.current()[0], 0.0f);
+    }
+
+    @Test
+    public void slowSubscriberIsMarkedLaggingWithoutHoldingBackOthers() {
+        RxAudioBus bus = new RxAudioBus(4, 8);
+        RxAudioBus.Subscription fast = bus.subscribe("fast");
+        RxAudioBus.Subscription slow = bus.subscribe("slow");
+        for (int i = 0; i < 10; i++) {
+            put(bus, i, 1);
+            assertEquals(1, fast.poll());
+            assertEquals(i, fast.current()[0], 0.0f);
+            fast.release();
+        }
+        assertEquals(0, bus.getOverflowCount());
+        assertFalse(fast.isLagging());
+
+        // blocks 0-5 were overwritten and 6 is the next to be reused
+        assertEquals(1, slow.poll());
+        assertEquals(7, slow.current()[0], 0.0f);
+        assertTrue(slow.isLagging());
+        assertEquals(1, slow.getLagCount());
+        assertEquals(7, slow.getSkippedCount());
+        assertEquals(1, slow.poll());
+        assertEquals(1, slow.poll());
+        assertEquals(9, slow.current()[0], 0.0f);
+        assertFalse(slow.isLagging()); // caught up
+        slow.release();
+    }
+
+    @Test
+    public void blockBeingReadIsNeverOverwritten() {
+        RxAudioBus bus = new RxAudioBus(4, 8);
+        RxAudioBus.Subscription reader = bus.subscribe("reader");
+        put(bus, 42, 1);
+        assertEquals(1, reader.poll());
+        float[] held = reader.current();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(bus.claim() != held);
+            bus.publish(1);
+        }
+        assertEquals(42, held[0], 0.0f);
+        assertTrue(bus.getPassedOverCount() > 0);
+        reader.release();
+
+        // after lagging, the reader resumes with published blocks only
+        assertEquals(1, reader.poll());
+        assertTrue(reader.isLagging());
+        assertTrue(reader.current() != held);
+    }
+
+    @Test
+    public void overflowsOnlyWhenEveryBlockIsHeld() {
+        RxAudioBus bus = new RxAudioBus(2, 8);
+        RxAudioBus.Subscription a = bus.subscribe("a");
+        RxAudioBus.Subscription b = bus.subscribe("b");
+        put(bus, 0, 1);
+        put(bus, 1, 1);
+        assertEquals(1, a.poll());
+        assertEquals(1, b.poll());
+        b.release();
+        assertEquals(1, b.poll()); // a holds block 0, b holds block 1
+        assertNull(bus.claim());
+        assertEquals(1, bus.getOverflowCount());
+        a.release();
+        assertNotNull(bus.claim());
+    }
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new RxAudioBus(1, 1).capacity());
+        assertEquals(2, new RxAudioBus(2, 1).capacity());
+        assertEquals(32, new RxAudioBus(32, 1).capacity());
+        assertEquals(64, new RxAudioBus(33, 1).capacity());
+    }
+
+    @Test(timeout = 5000)
+    public void closeAndUnsubscribeWakeWaitingSubscribers() throws InterruptedException {
+        RxAudioBus bus = new RxAudioBus(4, 8);
+        RxAudioBus.Subscription a = bus.subscribe("a");
+        RxAudioBus.Subscription b = bus.subscribe("b");
+        int[] result = {0, 0};
+        Thread ta = new Thread(() -> result[0] = a.take());
+        Thread tb = new Thread(() -> result[1] = b.take());
+        ta.start();
+        tb.start();
+        Thread.sleep(50);
+        a.unsubscribe();
+        ta.join();
+        assertEquals(-1, result[0]);
+        assertEquals(1, bus.getSubscriptions().length);
+        bus.close();
+        tb.join();
+        assertEquals(-1, result[1]);
+    }
+
+    @Test
+    public void publishingAndReadingAllocateNothing() {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        RxAudioBus bus = new RxAudioBus(32, 1920);
+        RxAudioBus.Subscription[] subscribers = new RxAudioBus.Subscription[5];
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i] = bus.subscribe("s" + i);
+        }
+        float sum = 0;
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            bus.claim()[0] = i;
+            bus.publish(1920);
+            for (RxAudioBus.Subscription s : subscribers) {
+                if (s.poll() > 0) {
+                    sum += s.current()[0];
+                }
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue(sum > 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    /*
+     * A writer that never waits, one subscriber that keeps up and one that
+     * stalls now and then: each sees every block either once, in order, or
+     * counted as skipped, and never a block changing under it.
+     */
+    @Test(timeout = 30000)
+    public void concurrentSubscribersAtTheirOwnPace() throws InterruptedException {
+        final int blocks = 200000;
+        RxAudioBus bus = new RxAudioBus(16, 4);
+        RxAudioBus.Subscription fast = bus.subscribe("fast");
+        RxAudioBus.Subscription slow = bus.subscribe("slow");
+        long[] received = {0, 0};
+        boolean[] consistent = {true, true};
+        Thread[] readers = new Thread[2];
+        RxAudioBus.Subscription[] subscriptions = {fast, slow};
+        for (int r = 0; r < 2; r++) {
+            final int id = r;
+            readers[r] = new Thread(() -> {
+                RxAudioBus.Subscription s = subscriptions[id];
+                float last = -1;
+                int n;
+                while ((n = s.take()) >= 0) {
+                    float[] block = s.current();
+                    float value = block[0];
+                    if (value <= last || n != 4 || block[3] != value) {
+                        consistent[id] = false;
+                    }
+                    if (id == 1 && received[id] % 512 == 0) {
+                        try {
+                            Thread.sleep(1); // fall behind while holding the block
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (block[0] != value || block[3] != value) {
+                        consistent[id] = false;
+                    }
+                    last = value;
+                    s.release();
+                    received[id]++;
+                }
+            });
+            readers[r].start();
+        }
+
+        for (int i = 0; i < blocks; i++) {
+            float[] block = bus.claim();
+            if (block != null) {
+                block[0] = i;
+                block[3] = i;
+                bus.publish(4);
+            }
+        }
+        while (fast.size() > 0 || slow.size() > 0) {
+            Thread.yield();
+        }
+        bus.close();
+        for (Thread t : readers) {
+            t.join();
+        }
+
+        assertTrue(consistent[0]);
+        assertTrue(consistent[1]);
+        // passed-over blocks are never published, but a lagging subscriber may count them as skipped
+        long published = blocks - bus.getOverflowCount();
+        for (int r = 0; r < 2; r++) {
+            long accounted = received[r] + subscriptions[r].getSkippedCount();
+            assertTrue(accounted >= published);
+            assertTrue(accounted <= published + bus.getPassedOverCount());
+        }
+        assertTrue(received[1] > 0);
+    }
+}
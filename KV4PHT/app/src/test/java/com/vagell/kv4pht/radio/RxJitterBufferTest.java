@@ -0,0 +1,155 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import io.github.jaredmdobson.OpusApplication;
+import io.github.jaredmdobson.OpusEncoder;
+
+public class RxJitterBufferTest {
+
+    private static final int RATE = 48000;
+    private static final int FRAME = 1920;
+    private static final long PERIOD = 40_000_000L; // nanoseconds per frame
+    private static final int FRAMES = 30;
+    private static final long LOST = -1;
+
+    private static byte[][] packets;
+
+    private final float[] pcm = new float[FRAME];
+
+    /** A tone, encoded as the firmware would, with in-band FEC. */
+    @BeforeClass
+    public static void encode() throws Exception {
+        OpusEncoder encoder = new OpusEncoder(RATE, 1, OpusApplication.OPUS_APPLICATION_VOIP);
+        encoder.setUseInbandFEC(true);
+        encoder.setPacketLossPercent(10);
+        short[] tone = new short[FRAME];
+        byte[] packet = new byte[Protocol.PROTO_MTU];
+        packets = new byte[FRAMES][];
+        for (int f = 0; f < FRAMES; f++) {
+            for (int i = 0; i < FRAME; i++) {
+                tone[i] = (short) (8000 * Math.sin((f * FRAME + i) * 2 * Math.PI * 600 / RATE));
+            }
+            packets[f] = Arrays.copyOf(packet, encoder.encode(tone, 0, FRAME, packet, 0, packet.length));
+        }
+    }
+
+    private static long[] steady() {
+        long[] arrivals = new long[FRAMES];
+        for (int f = 0; f < FRAMES; f++) {
+            arrivals[f] = f * PERIOD;
+        }
+        return arrivals;
+    }
+
+    /**
+     * Runs a playout clock ticking every frame period from time 0, playing from startTick on.
+     * Before each tick, the frames that have arrived by then are put in; LOST ones never are.
+     */
+    private RxJitterBuffer play(long[] arrivals, int startTick, int ticks) {
+        RxJitterBuffer buffer = new RxJitterBuffer(new OpusUtils.OpusDecoderWrapper(RATE, FRAME), FRAME, RATE, 16);
+        int f = 0;
+        for (int tick = 0; tick < ticks; tick++) {
+            long now = tick * PERIOD;
+            for (; f < arrivals.length && arrivals[f] <= now; f++) {
+                if (arrivals[f] != LOST) {
+                    buffer.put(packets[f], 0, packets[f].length, arrivals[f]);
+                }
+            }
+            if (tick >= startTick && buffer.isReady()) {
+                assertEquals(FRAME, buffer.next(pcm));
+            }
+        }
+        return buffer;
+    }
+
+    @Test
+    public void steadyStreamPlaysEveryFrameAtTheMinimumDepth() {
+        RxJitterBuffer buffer = play(steady(), 0, FRAMES);
+        assertEquals(FRAMES, buffer.getPlayedCount());
+        assertEquals(0, buffer.getConcealedCount());
+        assertEquals(0, buffer.getUnderrunCount());
+        assertEquals(0, buffer.getLateFrameCount());
+        assertEquals(1, buffer.getTargetDepth());
+        assertEquals(0, buffer.getDepth());
+    }
+
+    @Test
+    public void lostFrameIsRecoveredFromTheNextFramesFec() {
+        long[] arrivals = steady();
+        arrivals[10] = LOST;
+        RxJitterBuffer buffer = play(arrivals, 2, FRAMES + 2); // two frames behind, so frame 11 is here in time
+        assertEquals(FRAMES - 1, buffer.getPlayedCount());
+        assertEquals(1, buffer.getConcealedCount());
+        assertEquals(1, buffer.getRecoveredCount());
+        assertEquals(0, buffer.getUnderrunCount());
+    }
+
+    @Test
+    public void lostFrameIsConcealedWhenTheNextIsNotHereYet() {
+        long[] arrivals = steady();
+        arrivals[10] = LOST;
+        RxJitterBuffer buffer = play(arrivals, 0, FRAMES);
+        assertEquals(FRAMES - 1, buffer.getPlayedCount());
+        assertEquals(1, buffer.getConcealedCount());
+        assertEquals(0, buffer.getRecoveredCount());
+        assertEquals(1, buffer.getUnderrunCount());
+    }
+
+    /*
+     * A USB hiccup holds frames 10 and 11 back by 60 ms: the two slots run dry and are concealed,
+     * then both frames are played after all, late, as the buffer is below its target.
+     */
+    @Test
+    public void lateFramesAreStillPlayedBelowTheTargetDepth() {
+        long[] arrivals = steady();
+        arrivals[10] = arrivals[11] = 11 * PERIOD + PERIOD / 2;
+        RxJitterBuffer buffer = play(arrivals, 0, FRAMES + 2);
+        assertEquals(2, buffer.getUnderrunCount());
+        assertEquals(2, buffer.getConcealedCount());
+        assertEquals(1, buffer.getLateFrameCount());
+        assertEquals(FRAMES, buffer.getPlayedCount());
+        assertEquals(0, buffer.getDroppedCount());
+        RxJitterBuffer.Metrics metrics = buffer.metrics();
+        assertEquals(2, metrics.getUnderrunCount());
+        assertEquals(2, metrics.getConcealedCount());
+        assertEquals(1, metrics.getLateFrameCount());
+        assertEquals(FRAMES, metrics.getPlayedCount());
+    }
+
+    @Test
+    public void playoutStopsWhenTheSignalIsGoneAndStartsOverWhenItReturns() {
+        long[] arrivals = steady();
+        for (int f = 10; f < FRAMES; f++) {
+            arrivals[f] += 30 * PERIOD; // a second over
+        }
+        RxJitterBuffer buffer = play(arrivals, 0, 10 + RxJitterBuffer.MAX_CONCEALED);
+        assertEquals(RxJitterBuffer.MAX_CONCEALED, buffer.getUnderrunCount());
+        assertFalse(buffer.isReady());
+
+        buffer = play(arrivals, 0, FRAMES + 30);
+        assertEquals(FRAMES, buffer.getPlayedCount());
+        assertEquals(RxJitterBuffer.MAX_CONCEALED, buffer.getConcealedCount());
+        assertEquals(0, buffer.getLateFrameCount());
+    }
+
+    @Test
+    public void jitteryArrivalsDeepenTheBuffer() {
+        long[] arrivals = steady();
+        Random random = new Random(1);
+        for (int f = 1; f < FRAMES; f++) {
+            arrivals[f] = Math.max(arrivals[f - 1], f * PERIOD + random.nextInt(30_000_000));
+        }
+        RxJitterBuffer buffer = play(arrivals, 0, FRAMES + 4);
+        assertTrue("jitter " + buffer.getJitterNanos(), buffer.getJitterNanos() > 2_000_000);
+        assertTrue("target " + buffer.getTargetDepth(), buffer.getTargetDepth() >= 2);
+    }
+}
@@ -0,0 +1,130 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.vagell.kv4pht.data.ChannelMemory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ScanPlanTest {
+
+    private static final float MIN = 134f;
+    private static final float MAX = 174f;
+
+    private static List<ChannelMemory> memories(int... ids) {
+        List<ChannelMemory> memories = new ArrayList<>();
+        for (int id : ids) {
+            ChannelMemory memory = new ChannelMemory();
+            memory.memoryId = id;
+            memory.name = "M" + id;
+            memory.frequency = String.format(java.util.Locale.US, "%.4f", 146 + id / 100f);
+            memories.add(memory);
+        }
+        return memories;
+    }
+
+    private static Protocol.Group group(int id) {
+        float freq = 146 + id / 100f;
+        return Protocol.Group.builder()
+            .bw(Protocol.DRA818_25K).freqTx(freq).freqRx(freq).squelch((byte) 1).ctcssTx((byte) id).build();
+    }
+
+    /** A plan of the memories at the given list indices. */
+    private static ScanPlan plan(List<ChannelMemory> memories, int... listIndices) {
+        ScanPlan plan = new ScanPlan(memories, Protocol.DRA818_25K, (byte) 1, MIN, MAX);
+        for (int i : listIndices) {
+            ChannelMemory memory = memories.get(i);
+            plan.add(i, group(memory.memoryId), memory.frequency, 146 + memory.memoryId / 100f, memory.name);
+        }
+        return plan;
+    }
+
+    private static int nextMemory(ScanPlan plan, int activeMemoryId) {
+        return plan.getMemoryId(plan.next(activeMemoryId));
+    }
+
+    @Test
+    public void stepsThroughTheMemoriesInListOrderAndWraps() {
+        ScanPlan plan = plan(memories(10, 11, 12), 0, 1, 2);
+        int memoryId = -1; // simplex
+        int[] visited = new int[7];
+        for (int i = 0; i < visited.length; i++) {
+            memoryId = nextMemory(plan, memoryId);
+            visited[i] = memoryId;
+        }
+        assertArrayEquals(new int[]{10, 11, 12, 10, 11, 12, 10}, visited);
+    }
+
+    @Test
+    public void continuesAfterAMemoryWithoutAStep() {
+        // 21 and 23 are skipped during scan
+        ScanPlan plan = plan(memories(20, 21, 22, 23), 0, 2);
+        assertEquals(22, nextMemory(plan, 21));
+        assertEquals(20, nextMemory(plan, 23));
+        assertEquals(20, nextMemory(plan, 99)); // no longer in the list
+        // Tuned by hand mid-scan
+        assertEquals(22, nextMemory(plan, 20));
+        assertEquals(22, nextMemory(plan, 21));
+    }
+
+    @Test
+    public void holdsTheGroupCommandsEncoded() {
+        List<ChannelMemory> memories = memories(30, 31, 32);
+        ScanPlan plan = plan(memories, 0, 2);
+        assertEquals(2, plan.size());
+        byte[] groups = plan.getGroups();
+        assertArrayEquals(group(30).toBytes(), Arrays.copyOfRange(groups, 0, Protocol.Group.LENGTH));
+        assertArrayEquals(group(32).toBytes(),
+            Arrays.copyOfRange(groups, Protocol.Group.LENGTH, 2 * Protocol.Group.LENGTH));
+        assertEquals(memories.get(2).frequency, plan.getFrequency(1));
+        assertEquals("M32", plan.getNotification(1));
+    }
+
+    @Test
+    public void isStaleOnceTheListOrSettingsChange() {
+        List<ChannelMemory> memories = memories(40, 41, 42);
+        ScanPlan plan = plan(memories, 0, 1, 2);
+        assertTrue(plan.isCompiledFor(memories, Protocol.DRA818_25K, (byte) 1, MIN, MAX));
+        // Loaded again after a ChannelMemoryDao change
+        assertFalse(plan.isCompiledFor(memories(40, 41, 42), Protocol.DRA818_25K, (byte) 1, MIN, MAX));
+        assertFalse(plan.isCompiledFor(memories, Protocol.DRA818_12K5, (byte) 1, MIN, MAX));
+        assertFalse(plan.isCompiledFor(memories, Protocol.DRA818_25K, (byte) 4, MIN, MAX));
+        assertFalse(plan.isCompiledFor(memories, Protocol.DRA818_25K, (byte) 1, 400f, 480f));
+        // Filtered to a group in place
+        memories.remove(1);
+        assertFalse(plan.isCompiledFor(memories, Protocol.DRA818_25K, (byte) 1, MIN, MAX));
+    }
+
+    @Test
+    public void isEmptyWhenEveryMemoryIsSkipped() {
+        ScanPlan plan = plan(memories(50, 51));
+        assertEquals(0, plan.size());
+        assertEquals(-1, plan.next(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesStepsOutOfListOrder() {
+        plan(memories(60, 61), 1, 0);
+    }
+
+    @Test
+    public void senderSendsAnEncodedGroupLikeAGroup() {
+        List<byte[]> frames = new ArrayList<>();
+        Protocol.Sender sender = new Protocol.Sender((length, encoder) -> {
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(length);
+            encoder.encode(buffer);
+            frames.add(buffer.array());
+        });
+        ScanPlan plan = plan(memories(70, 71), 0, 1);
+        sender.group(group(71));
+        sender.group(plan.getGroups(), Protocol.Group.LENGTH);
+        assertArrayEquals(frames.get(0), frames.get(1));
+    }
+}
@@ -0,0 +1,189 @@
+package com.vagell.kv4pht.radio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TimeShiftRecorderTest {
+
+    private static final int RATE = 48000;
+    private static final int BLOCK = 1920; // one Opus frame
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final float[] block = new float[BLOCK];
+    private long samples; // written so far, the synthetic clock
+
+    /** Writes seconds of a 1 kHz tone, or of silence, a block at a time. */
+    private void write(TimeShiftRecorder recorder, double seconds, boolean tone) {
+        long end = samples + (long) (seconds * RATE);
+        while (samples < end) {
+            int length = (int) Math.min(BLOCK, end - samples);
+            for (int i = 0; i < length; i++) {
+                block[i] = tone ? tone(samples + i) : 0;
+            }
+            samples += length;
+            recorder.write(block, length, T0 + samples * 1000 / RATE);
+        }
+    }
+
+    private static float tone(long position) {
+        return 0.5f * (float) Math.cos(2 * Math.PI * 1000 * position / RATE);
+    }
+
+    /** A sample that tells its position, to the precision of 16-bit PCM. */
+    private static float ramp(long position) {
+        return (position % 16384) / (float) Short.MAX_VALUE;
+    }
+
+    private File ring() {
+        return new File(folder.getRoot(), "timeshift.pcm");
+    }
+
+    @Test
+    public void indexesEachTransmissionAndPlaysItBack() throws Exception {
+        try (TimeShiftRecorder recorder = new TimeShiftRecorder(ring(), RATE, 30, 16)) {
+            write(recorder, 2, false);
+            write(recorder, 1, true);
+            write(recorder, 2, false);
+            // A pause shorter than the hang time does not split a transmission
+            write(recorder, 0.25, true);
+            write(recorder, 0.2, false);
+            write(recorder, 0.25, true);
+            write(recorder, 1, false);
+
+            assertEquals(2, recorder.getEventCount());
+            assertEquals(0, recorder.getFirstEvent());
+            assertEquals(2 * RATE, recorder.getEventStart(0));
+            assertEquals(3 * RATE - 1, recorder.getEventEnd(0), 1);
+            assertEquals(T0 + 2000, recorder.getEventTimeMillis(0));
+            assertEquals(5 * RATE, recorder.getEventStart(1));
+            assertEquals(5.7 * RATE - 1, recorder.getEventEnd(1), 1);
+            assertEquals(T0 + 5000, recorder.getEventTimeMillis(1));
+
+            float[] played = new float[RATE];
+            assertEquals(RATE, recorder.read(recorder.getEventStart(0), played, 0, RATE));
+            for (int i = 0; i < RATE; i++) {
+                assertEquals(tone(2 * RATE + i), played[i], 1f / Short.MAX_VALUE);
+            }
+            // Up to what was written
+            assertEquals(RATE / 2, recorder.read(recorder.getWritePosition() - RATE / 2, played, 0, RATE));
+        }
+    }
+
+    @Test
+    public void overwritesTheOldestWithinAFixedFootprint() throws Exception {
+        try (TimeShiftRecorder recorder = new TimeShiftRecorder(ring(), RATE, 3, 4)) {
+            long size = recorder.getFileSize();
+            assertEquals(size, ring().length());
+            for (int i = 0; i < 10; i++) {
+                write(recorder, 0.5, true);
+                write(recorder, 0.7, false);
+            }
+            assertEquals(size, ring().length());
+            assertEquals(10, recorder.getEventCount());
+            assertEquals(recorder.getWritePosition() - 3 * RATE, recorder.getOldestPosition());
+            // Only transmissions whose start is still in the ring are offered
+            long first = recorder.getFirstEvent();
+            assertEquals(8, first);
+            assertTrue(recorder.getEventStart(first) >= recorder.getOldestPosition());
+            assertTrue(recorder.getEventStart(first - 1) < recorder.getOldestPosition());
+            List<TimeShiftRecorder.Transmission> transmissions = recorder.getTransmissions();
+            assertEquals(2, transmissions.size());
+            assertEquals(recorder.getEventStart(first), transmissions.get(0).getStart());
+            assertEquals(recorder.getEventEnd(9), transmissions.get(1).getEnd());
+
+            float[] played = new float[BLOCK];
+            assertEquals(0, recorder.read(recorder.getOldestPosition() - 1, played, 0, BLOCK));
+            assertEquals(BLOCK, recorder.read(recorder.getEventStart(first), played, 0, BLOCK));
+            assertEquals(tone(recorder.getEventStart(first)), played[0], 1f / Short.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void carriesOnAfterReopening() throws Exception {
+        try (TimeShiftRecorder recorder = new TimeShiftRecorder(ring(), RATE, 10, 16)) {
+            write(recorder, 1, false);
+            write(recorder, 1, true); // still going when closed
+        }
+        try (TimeShiftRecorder recorder = new TimeShiftRecorder(ring(), RATE, 10, 16)) {
+            assertEquals(2 * RATE, recorder.getWritePosition());
+            assertEquals(1, recorder.getEventCount());
+            assertEquals(RATE, recorder.getEventStart(0));
+            assertEquals(2 * RATE - 1, recorder.getEventEnd(0));
+            write(recorder, 1, true);
+            assertEquals(2, recorder.getEventCount());
+            assertEquals(2 * RATE, recorder.getEventStart(1));
+        }
+        // Another geometry starts over
+        try (TimeShiftRecorder recorder = new TimeShiftRecorder(ring(), RATE, 5, 16)) {
+            assertEquals(0, recorder.getWritePosition());
+            assertEquals(0, recorder.getEventCount());
+        }
+    }
+
+    @Test
+    public void neverReturnsSamplesOverwrittenWhileReading() throws Exception {
+        try (TimeShiftRecorder recorder = new TimeShiftRecorder(ring(), RATE, 1, 4)) {
+            AtomicBoolean done = new AtomicBoolean();
+            Thread writer = new Thread(() -> {
+                float[] ramp = new float[BLOCK];
+                for (long position = 0; !done.get(); position += BLOCK) {
+                    for (int i = 0; i < BLOCK; i++) {
+                        ramp[i] = ramp(position + i);
+                    }
+                    recorder.write(ramp, BLOCK, T0);
+                }
+            });
+            writer.start();
+            // Reads at the oldest edge, where the writer comes round
+            float[] played = new float[BLOCK];
+            long reads = 0, torn = 0;
+            long until = System.nanoTime() + 500_000_000L;
+            while (System.nanoTime() < until) {
+                long oldest = recorder.getOldestPosition();
+                int count = recorder.read(oldest, played, 0, BLOCK);
+                reads += count > 0 ? 1 : 0;
+                for (int i = 0; i < count; i++) {
+                    if (Math.abs(played[i] - ramp(oldest + i)) > 1.5f / Short.MAX_VALUE) {
+                        torn++;
+                        break;
+                    }
+                }
+            }
+            done.set(true);
+            writer.join();
+            assertTrue(reads > 0);
+            assertEquals(0, torn);
+        }
+    }
+
+    @Test
+    public void writingAllocatesNothing() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        try (TimeShiftRecorder recorder = new TimeShiftRecorder(ring(), RATE, 2, 8)) {
+            // warm up
+            write(recorder, 5, true);
+            write(recorder, 5, false);
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 10; i++) {
+                write(recorder, 0.5, true);
+                write(recorder, 1, false);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        }
+    }
+}
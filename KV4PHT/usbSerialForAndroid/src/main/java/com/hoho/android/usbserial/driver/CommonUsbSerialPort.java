@@ -233,9 +233,14 @@ public abstract class CommonUsbSerialPort implements UsbSerialPort {
 
     @Override
     public void write(final byte[] src, int length, final int timeout) throws IOException {
+        write(src, 0, length, timeout);
+    }
+
+    @Override
+    public void write(final byte[] src, final int srcOffset, int length, final int timeout) throws IOException {
         int offset = 0;
         final long endTime = (timeout == 0) ? 0 : (MonotonicClock.millis() + timeout);
-        length = Math.min(length, src.length);
+        length = Math.max(0, Math.min(length, src.length - srcOffset));
 
         if(mConnection == null) {
             throw new IOException("Connection closed");
@@ -246,19 +251,10 @@ public abstract class CommonUsbSerialPort implements UsbSerialPort {
             final int actualLength;
 
             synchronized (mWriteBufferLock) {
-                final byte[] writeBuffer;
-
                 if (mWriteBuffer == null) {
                     mWriteBuffer = new byte[mWriteEndpoint.getMaxPacketSize()];
                 }
                 requestLength = Math.min(length - offset, mWriteBuffer.length);
-                if (offset == 0) {
-                    writeBuffer = src;
-                } else {
-                    // bulkTransfer does not support offsets, make a copy.
-                    System.arraycopy(src, offset, mWriteBuffer, 0, requestLength);
-                    writeBuffer = mWriteBuffer;
-                }
                 if (timeout == 0 || offset == 0) {
                     requestTimeout = timeout;
                 } else {
@@ -269,7 +265,8 @@ public abstract class CommonUsbSerialPort implements UsbSerialPort {
                 if (requestTimeout < 0) {
                     actualLength = -2;
                 } else {
-                    actualLength = mConnection.bulkTransfer(mWriteEndpoint, writeBuffer, requestLength, requestTimeout);
+                    // Straight from src, bulkTransfer takes an offset since API 18
+                    actualLength = mConnection.bulkTransfer(mWriteEndpoint, src, srcOffset + offset, requestLength, requestTimeout);
                 }
             }
             if (DEBUG) {
@@ -277,7 +274,7 @@ public abstract class CommonUsbSerialPort implements UsbSerialPort {
             }
             if (actualLength <= 0) {
                 if (timeout != 0 && MonotonicClock.millis() >= endTime) {
-                    SerialTimeoutException ex = new SerialTimeoutException("Error writing " + requestLength + " bytes at offset " + offset + " of total " + src.length + ", rc=" + actualLength);
+                    SerialTimeoutException ex = new SerialTimeoutException("Error writing " + requestLength + " bytes at offset " + offset + " of total " + length + ", rc=" + actualLength);
                     ex.bytesTransferred = offset;
                     throw ex;
                 } else {
@@ -156,6 +156,19 @@ public interface UsbSerialPort extends Closeable {
      */
     void write(final byte[] src, int length, final int timeout) throws IOException;
 
+    /**
+     * Writes bytes with specified length from the source buffer, starting at an offset.
+     *
+     * @param src the source byte buffer
+     * @param offset the offset of the data in src
+     * @param length the length of the data to write
+     * @param timeout the timeout for writing in milliseconds, 0 is infinite
+     * @throws SerialTimeoutException if timeout reached before sending all data.
+     *                                ex.bytesTransferred may contain bytes transferred
+     * @throws IOException if an error occurred during writing
+     */
+    void write(final byte[] src, int offset, int length, final int timeout) throws IOException;
+
     /**
      * Sets various serial port parameters.
      *
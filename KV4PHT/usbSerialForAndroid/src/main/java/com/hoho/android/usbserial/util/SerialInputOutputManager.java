@@ -18,6 +18,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
@@ -40,6 +41,7 @@ public class SerialInputOutputManager {
 
     private static final String TAG = SerialInputOutputManager.class.getSimpleName();
     private static final int BUFSIZ = 4096;
+    private static final int PRIORITY_BUFSIZ = 1024;
 
     private int mWriteTimeout = 0;
 
@@ -47,13 +49,29 @@ public class SerialInputOutputManager {
 
     private int mReadBufferSize; // default size = getReadEndpoint().getMaxPacketSize()
     private int mReadBufferCount = 4;
-    private ByteBuffer mWriteBuffer = ByteBuffer.allocate(BUFSIZ);
+    // Ring of queued writeAsync data, written to the port in place. A write never wraps around:
+    // one that does not fit before the end goes to the start, the gap left is skipped.
+    private byte[] mWriteRing = new byte[BUFSIZ];
+    private ByteBuffer mWriteView = ByteBuffer.wrap(mWriteRing); // what encoders put into
+    private int mWriteHead; // first byte not written yet
+    private int mWriteCount; // bytes from mWriteHead on that are queued or being written, gaps included
+    private int mWritePending; // the same without gaps
+    // Swapped by the write thread, so one is filled while the other is written
+    private ByteBuffer mPriorityWriteBuffer = ByteBuffer.allocate(PRIORITY_BUFSIZ);
+    private ByteBuffer mPriorityWriteSpare = ByteBuffer.allocate(PRIORITY_BUFSIZ);
+    private int mWriteChunkSize = 1024;
+    // lengths of the writes queued in mWriteRing and not taken yet, gaps negative, so a chunk is
+    // only ever split between two writes
+    private int[] mWriteUnits = new int[64];
+    private int mWriteUnitHead;
+    private int mWriteUnitCount;
 
     private int mThreadPriority = Process.THREAD_PRIORITY_URGENT_AUDIO;
     private final AtomicReference<State> mState = new AtomicReference<>(State.STOPPED);
     private CountDownLatch mStartuplatch = new CountDownLatch(2);
     private CountDownLatch mShutdownlatch = new CountDownLatch(2);
     private Listener mListener; // Synchronized by 'this'
+    private BufferListener mBufferListener; // Synchronized by 'this', mListener adapted if set that way
     private final UsbSerialPort mSerialPort;
     private Supplier<UsbRequest> mRequestSupplier = UsbRequest::new;
 
@@ -69,6 +87,58 @@ public class SerialInputOutputManager {
         void onRunError(Exception e);
     }
 
+    /**
+     * Like {@link Listener}, but gets incoming data in place, in the read buffer it arrived in,
+     * instead of a copy. The buffers are the read pool set up by {@link #setReadBufferCount} and
+     * {@link #setReadBufferSize}, so reading allocates nothing.
+     */
+    public interface BufferListener {
+        /**
+         * Called when new incoming data is available: length bytes from position 0 to the limit
+         * of data. The buffer is queued for the next read when this returns, so it must not be
+         * kept.
+         */
+        void onNewData(ByteBuffer data, int length);
+
+        /**
+         * Called when service thread  aborts due to an error.
+         */
+        void onRunError(Exception e);
+    }
+
+    /**
+     * Hands a {@link Listener} a copy of the data, as it always got.
+     */
+    private static final class ListenerAdapter implements BufferListener {
+        private final Listener listener;
+
+        ListenerAdapter(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onNewData(ByteBuffer data, int length) {
+            final byte[] copy = new byte[length];
+            data.get(copy);
+            listener.onNewData(copy);
+        }
+
+        @Override
+        public void onRunError(Exception e) {
+            listener.onRunError(e);
+        }
+    }
+
+    /**
+     * Encodes outgoing data in place, see {@link #writeAsync(int, Encoder)}.
+     */
+    public interface Encoder {
+        /**
+         * Puts exactly the announced number of bytes into buffer, at its position.
+         */
+        void encode(ByteBuffer buffer);
+    }
+
     public SerialInputOutputManager(UsbSerialPort serialPort) {
         mSerialPort = serialPort;
         mReadBufferSize = serialPort.getReadEndpoint().getMaxPacketSize();
@@ -76,18 +146,37 @@ public class SerialInputOutputManager {
 
     public SerialInputOutputManager(UsbSerialPort serialPort, Listener listener) {
         mSerialPort = serialPort;
-        mListener = listener;
+        setListener(listener);
         mReadBufferSize = serialPort.getReadEndpoint().getMaxPacketSize();
     }
 
     public synchronized void setListener(Listener listener) {
         mListener = listener;
+        mBufferListener = listener != null ? new ListenerAdapter(listener) : null;
     }
 
+    /**
+     * the Listener set by {@link #setListener}, null if a BufferListener was set instead
+     */
     public synchronized Listener getListener() {
         return mListener;
     }
 
+    /**
+     * replaces the Listener, see {@link BufferListener}
+     */
+    public synchronized void setBufferListener(BufferListener listener) {
+        mListener = null;
+        mBufferListener = listener;
+    }
+
+    /**
+     * the BufferListener set, or the adapter to the Listener set
+     */
+    public synchronized BufferListener getBufferListener() {
+        return mBufferListener;
+    }
+
     /**
      * setThreadPriority. By default a higher priority than UI thread is used to prevent data loss
      *
@@ -146,40 +235,271 @@ public class SerialInputOutputManager {
         this.mRequestSupplier = mRequestSupplier;
     }
 
+    /**
+     * write buffer size, at least the largest single writeAsync. Data already queued is kept.
+     */
     public void setWriteBufferSize(int bufferSize) {
         if(getWriteBufferSize() == bufferSize)
             return;
         synchronized (mWriteBufferLock) {
-            ByteBuffer newWriteBuffer = ByteBuffer.allocate(bufferSize);
-            if(mWriteBuffer.position() > 0)
-                newWriteBuffer.put(mWriteBuffer.array(), 0, mWriteBuffer.position());
-            mWriteBuffer = newWriteBuffer;
+            if (bufferSize < mWritePending) {
+                throw new IllegalStateException("write buffer smaller than the " + mWritePending + " bytes queued");
+            }
+            // Moves everything to the start of the new ring, the chunk being written first
+            byte[] newWriteRing = new byte[bufferSize];
+            int queued = 0;
+            for (int i = 0; i < mWriteUnitCount; i++) {
+                queued += Math.abs(mWriteUnits[(mWriteUnitHead + i) & (mWriteUnits.length - 1)]);
+            }
+            int position = mWriteHead;
+            int length = mWriteCount - queued; // being written
+            System.arraycopy(mWriteRing, position, newWriteRing, 0, length);
+            int newLength = length;
+            int[] newWriteUnits = new int[mWriteUnits.length];
+            int newUnitCount = 0;
+            for (int i = 0; i < mWriteUnitCount; i++) {
+                position = (position + length) % mWriteRing.length;
+                length = mWriteUnits[(mWriteUnitHead + i) & (mWriteUnits.length - 1)];
+                if (length < 0) {
+                    length = -length; // a gap, dropped
+                } else {
+                    System.arraycopy(mWriteRing, position, newWriteRing, newLength, length);
+                    newLength += length;
+                    newWriteUnits[newUnitCount++] = length;
+                }
+            }
+            mWriteRing = newWriteRing;
+            mWriteView = ByteBuffer.wrap(newWriteRing);
+            mWriteHead = 0;
+            mWriteCount = newLength;
+            mWriteUnits = newWriteUnits;
+            mWriteUnitHead = 0;
+            mWriteUnitCount = newUnitCount;
+            mWriteBufferLock.notifyAll(); // Notify writeAsync that there may be space in the buffer
         }
     }
 
     public int getWriteBufferSize() {
-        return mWriteBuffer.capacity();
+        return mWriteRing.length;
+    }
+
+    /**
+     * most bytes of queued writeAsync data passed to the port at once, unless a single write is
+     * larger. Priority writes wait at most for one such chunk.
+     */
+    public void setWriteChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        synchronized (mWriteBufferLock) {
+            mWriteChunkSize = chunkSize;
+        }
+    }
+
+    public int getWriteChunkSize() {
+        return mWriteChunkSize;
+    }
+
+    /**
+     * bytes waiting in the write buffer and the priority write buffer, or being written from the
+     * write buffer
+     */
+    public int getPendingWriteBytes() {
+        synchronized (mWriteBufferLock) {
+            return mWritePending + mPriorityWriteBuffer.position();
+        }
+    }
+
+    /**
+     * largest writeAsync the write buffer takes right now without waiting. Together with
+     * {@link #getPendingWriteBytes()} and {@link #getWriteBufferSize()}, lets a producer pace
+     * itself or drop data instead of blocking.
+     */
+    public int getAvailableWriteBytes() {
+        synchronized (mWriteBufferLock) {
+            if (mWriteCount == 0) {
+                return mWriteRing.length;
+            }
+            int tail = (mWriteHead + mWriteCount) % mWriteRing.length;
+            return tail > mWriteHead ? Math.max(mWriteRing.length - tail, mWriteHead) : mWriteHead - tail;
+        }
     }
 
     /**
      * when using writeAsync, it is recommended to use readTimeout != 0,
-     * else the write will be delayed until read data is available
+     * else the write will be delayed until read data is available.
+     * Blocks while the write buffer is full, see {@link #tryWriteAsync(byte[])}.
      */
     public void writeAsync(byte[] data) {
+        put(data.length, data, null, -1);
+    }
+
+    /**
+     * like {@link #writeAsync(byte[])}, but the caller encodes the data straight into the write
+     * buffer instead of building an array for it first
+     *
+     * @param length number of bytes encoder puts
+     */
+    public void writeAsync(int length, Encoder encoder) {
+        put(length, null, encoder, -1);
+    }
+
+    /**
+     * like {@link #writeAsync(byte[])}, but never blocks
+     *
+     * @return false, queueing nothing, if the write buffer has no space for data right now
+     */
+    public boolean tryWriteAsync(byte[] data) {
+        return put(data.length, data, null, 0);
+    }
+
+    /**
+     * like {@link #writeAsync(int, Encoder)}, but never blocks
+     *
+     * @return false, calling nothing, if the write buffer has no space for length bytes right now
+     */
+    public boolean tryWriteAsync(int length, Encoder encoder) {
+        return put(length, null, encoder, 0);
+    }
+
+    /**
+     * like {@link #writeAsync(int, Encoder)}, but waits for space at most timeout
+     *
+     * @return false, calling nothing, if there was no space in time or the thread was interrupted
+     */
+    public boolean tryWriteAsync(int length, Encoder encoder, long timeout, TimeUnit unit) {
+        return put(length, null, encoder, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * like {@link #writeAsync(int, Encoder)}, but the data goes ahead of everything queued by
+     * writeAsync that the write thread has not taken yet. It is written after the chunk being
+     * written right now, and never inside the data of another write.
+     *
+     * @param length number of bytes encoder puts, at most 1024
+     */
+    public void writePriorityAsync(int length, Encoder encoder) {
+        if (length > PRIORITY_BUFSIZ) {
+            throw new IllegalArgumentException("priority write larger than " + PRIORITY_BUFSIZ + " bytes");
+        }
         synchronized (mWriteBufferLock) {
-            while (mWriteBuffer.remaining() < data.length) {
-                try {
-                    mWriteBufferLock.wait(); // Block until space is available in the buffer
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt(); // Restore the interrupt flag
-                    return; // Exit gracefully
+            while (mPriorityWriteBuffer.remaining() < length) {
+                if (!await(0, -1)) {
+                    return;
                 }
             }
-            mWriteBuffer.put(data);
-            mWriteBufferLock.notifyAll(); // Notify waiting threads
+            ByteBuffer buffer = mPriorityWriteBuffer;
+            int start = buffer.position();
+            try {
+                encode(buffer, start, length, encoder);
+            } catch (RuntimeException e) {
+                buffer.position(start); // Drop partial data
+                throw e;
+            }
+            mWriteBufferLock.notifyAll(); // Notify the write thread
         }
     }
 
+    // queues data, or what encoder puts, waiting for space at most timeoutNanos unless negative.
+    // returns false if there was no space in time or the thread was interrupted
+    private boolean put(int length, byte[] data, Encoder encoder, long timeoutNanos) {
+        synchronized (mWriteBufferLock) {
+            if (length > mWriteRing.length) {
+                throw new IllegalArgumentException("write larger than the " + mWriteRing.length + " byte write buffer");
+            }
+            long deadline = System.nanoTime() + timeoutNanos;
+            int offset;
+            while ((offset = reserve(length)) < 0) {
+                if (!await(deadline, timeoutNanos)) {
+                    return false;
+                }
+            }
+            if (data != null) {
+                System.arraycopy(data, 0, mWriteRing, offset, length);
+            } else {
+                encode(mWriteView, offset, length, encoder);
+            }
+            // Only counted once complete, so a failed encoder leaves nothing behind
+            int tail = (mWriteHead + mWriteCount) % mWriteRing.length;
+            if (offset != tail) {
+                addWriteUnit(tail - mWriteRing.length); // the gap left at the end
+                mWriteCount += mWriteRing.length - tail;
+            }
+            addWriteUnit(length);
+            mWriteCount += length;
+            mWritePending += length;
+            mWriteBufferLock.notifyAll(); // Notify the write thread
+            return true;
+        }
+    }
+
+    // called with mWriteBufferLock held, where in mWriteRing length bytes fit in one piece, or -1
+    private int reserve(int length) {
+        if (mWriteCount == 0) {
+            mWriteHead = 0; // Start over, the whole ring is free in one piece
+            return length <= mWriteRing.length ? 0 : -1;
+        }
+        if (mWriteRing.length - mWriteCount < length) {
+            return -1;
+        }
+        int tail = (mWriteHead + mWriteCount) % mWriteRing.length;
+        if (tail > mWriteHead) {
+            if (mWriteRing.length - tail >= length) {
+                return tail;
+            }
+            return mWriteHead >= length ? 0 : -1; // leaves a gap at the end
+        }
+        return mWriteHead - tail >= length ? tail : -1;
+    }
+
+    // called with mWriteBufferLock held, returns false once past deadline or if interrupted
+    private boolean await(long deadline, long timeoutNanos) {
+        try {
+            if (timeoutNanos < 0) {
+                mWriteBufferLock.wait(); // Block until space is available in the buffer
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(mWriteBufferLock, remaining);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Restore the interrupt flag
+            return false; // Exit gracefully
+        }
+    }
+
+    // called with mWriteBufferLock held, encoder puts exactly length bytes at start of buffer
+    private static void encode(ByteBuffer buffer, int start, int length, Encoder encoder) {
+        boolean complete = false;
+        buffer.limit(start + length);
+        buffer.position(start);
+        try {
+            encoder.encode(buffer);
+            complete = buffer.position() == start + length;
+        } finally {
+            buffer.limit(buffer.capacity());
+        }
+        if (!complete) {
+            throw new IllegalStateException("Encoder wrote less than " + length + " bytes");
+        }
+    }
+
+    // called with mWriteBufferLock held
+    private void addWriteUnit(int length) {
+        if (mWriteUnitCount == mWriteUnits.length) {
+            int[] grown = new int[mWriteUnits.length * 2];
+            for (int i = 0; i < mWriteUnitCount; i++) {
+                grown[i] = mWriteUnits[(mWriteUnitHead + i) & (mWriteUnits.length - 1)];
+            }
+            mWriteUnits = grown;
+            mWriteUnitHead = 0;
+        }
+        mWriteUnits[(mWriteUnitHead + mWriteUnitCount++) & (mWriteUnits.length - 1)] = length;
+    }
+
     /**
      * start SerialInputOutputManager in separate threads
      */
@@ -231,9 +551,10 @@ public class SerialInputOutputManager {
         }
 
         private void notifyErrorListener(Throwable e) {
-            if ((getListener() != null) && (mState.get() == SerialInputOutputManager.State.RUNNING)) {
+            final BufferListener listener = getBufferListener();
+            if ((listener != null) && (mState.get() == SerialInputOutputManager.State.RUNNING)) {
                 try {
-                    getListener().onRunError(e instanceof Exception ? (Exception) e : new Exception(e));
+                    listener.onRunError(e instanceof Exception ? (Exception) e : new Exception(e));
                 } catch (Throwable t) {
                     Log.w(TAG, "Exception in onRunError: " + t.getMessage(), t);
                 }
@@ -299,7 +620,7 @@ public class SerialInputOutputManager {
             // Initialize buffers and requests
             for (int i = 0; i < mReadBufferCount; i++) {
                 ByteBuffer buffer = ByteBuffer.allocate(mReadBufferSize);
-                UsbRequest request = new UsbRequest();
+                UsbRequest request = mRequestSupplier.get();
                 request.setClientData(buffer);
                 request.initialize(mSerialPort.getConnection(), mSerialPort.getReadEndpoint());
                 request.queue(buffer);
@@ -327,10 +648,10 @@ public class SerialInputOutputManager {
             if (completedRequest != null) {
                 final ByteBuffer completedBuffer = (ByteBuffer) completedRequest.getClientData();
                 completedBuffer.flip(); // Prepare for reading
-                final byte[] data = new byte[completedBuffer.remaining()];
-                completedBuffer.get(data);
-                if ((getListener() != null) && (data.length > 0)) {
-                    getListener().onNewData(data); // Handle data
+                final int length = completedBuffer.remaining();
+                final BufferListener listener = getBufferListener();
+                if ((listener != null) && (length > 0)) {
+                    listener.onNewData(completedBuffer, length); // Handle data in place
                 }
                 completedBuffer.clear(); // Prepare for reuse
                 // Requeue the buffer and handle potential failures
@@ -357,26 +678,66 @@ public class SerialInputOutputManager {
 
         @Override
         void step() throws IOException, InterruptedException {
-            // Handle outgoing data.
-            byte[] buffer = null;
+            // Handle outgoing data, priority writes first. Queued writeAsync data is taken a
+            // chunk of whole writes at a time, so priority writes wait for one chunk at most.
+            // Either is written in place, the ring space only freed once written.
+            byte[] data = null;
+            int offset = 0;
+            int len = 0;
+            ByteBuffer priority = null;
             synchronized (mWriteBufferLock) {
-                int len = mWriteBuffer.position();
-                if (len > 0) {
-                    buffer = new byte[len];
-                    mWriteBuffer.rewind();
-                    mWriteBuffer.get(buffer, 0, len);
-                    mWriteBuffer.clear();
-                    mWriteBufferLock.notifyAll(); // Notify writeAsync that there is space in the buffer
+                if (mPriorityWriteBuffer.position() > 0) {
+                    priority = mPriorityWriteBuffer;
+                    mPriorityWriteBuffer = mPriorityWriteSpare;
+                    mPriorityWriteSpare = priority;
+                    data = priority.array();
+                    len = priority.position();
+                    mWriteBufferLock.notifyAll(); // Notify writePriorityAsync that there is space
+                } else if (mWriteUnitCount > 0) {
+                    while (mWriteUnitCount > 0) {
+                        int unit = mWriteUnits[mWriteUnitHead];
+                        if (len > 0 && (unit < 0 || mWriteHead + len == mWriteRing.length
+                                || len + unit > mWriteChunkSize)) {
+                            break; // a chunk ends at the end of the ring
+                        }
+                        if (unit < 0) {
+                            release(-unit, 0); // a gap at the end of the ring, skip it
+                        } else {
+                            len += unit;
+                        }
+                        mWriteUnitHead = (mWriteUnitHead + 1) & (mWriteUnits.length - 1);
+                        mWriteUnitCount--;
+                    }
+                    data = mWriteRing;
+                    offset = mWriteHead;
                 } else {
                     mWriteBufferLock.wait();
                 }
             }
-            if (buffer != null) {
+            if (len > 0) {
                 if (DEBUG) {
-                    Log.d(TAG, "Writing data len=" + buffer.length);
+                    Log.d(TAG, "Writing data len=" + len);
+                }
+                try {
+                    mSerialPort.write(data, offset, len, mWriteTimeout);
+                } finally {
+                    synchronized (mWriteBufferLock) {
+                        if (priority != null) {
+                            priority.clear();
+                        } else {
+                            release(len, len);
+                        }
+                    }
                 }
-                mSerialPort.write(buffer, mWriteTimeout);
             }
         }
+
+        // frees ring space at mWriteHead, called with mWriteBufferLock held
+        private void release(int len, int data) {
+            mWriteHead = (mWriteHead + len) % mWriteRing.length;
+            mWriteCount -= len;
+            mWritePending -= data;
+            mWriteBufferLock.notifyAll(); // Notify writeAsync that there is space in the buffer
+        }
     }
 }
@@ -0,0 +1,312 @@
+package com.hoho.android.usbserial.util;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.os.Process;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput, latency and allocation of the SerialInputOutputManager read and write threads over
+ * a mocked port that completes every read and write at once, for each read buffer count and size
+ * and each write buffer size. Allocation is counted on the manager's threads, less what the mocks
+ * themselves allocate per call, measured beforehand. Every mocked call costs microseconds, so
+ * compare the rates between configurations rather than with a real port.
+ * <p>
+ * Skipped unless asked for: {@code ./gradlew :usbSerialForAndroid:testDebugUnitTest -Pbenchmark}.
+ */
+public class SerialInputOutputManagerBenchmark {
+
+    private static final long WARMUP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long RUN_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int[] READ_BUFFER_COUNTS = {1, 4, 16};
+    private static final int[] READ_BUFFER_SIZES = {64, 1024, 16384};
+    private static final int[] WRITE_BUFFER_SIZES = {4096, 16384, 90000};
+    private static final int[] WRITE_SIZES = {64, 1024};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** A port whose reads complete as soon as they are queued, stamped with the completion time. */
+    private static class InstantPort {
+        final UsbSerialPort port = mock(UsbSerialPort.class, withSettings().stubOnly());
+        final UsbDeviceConnection connection = mock(UsbDeviceConnection.class, withSettings().stubOnly());
+        final BlockingQueue<UsbRequest> queued = new LinkedBlockingQueue<>();
+        volatile Thread readThread;
+        volatile Thread writeThread;
+        volatile long written;
+        volatile long writes;
+
+        InstantPort() throws Exception {
+            UsbEndpoint endpoint = mock(UsbEndpoint.class);
+            when(endpoint.getMaxPacketSize()).thenReturn(64);
+            when(port.getReadEndpoint()).thenReturn(endpoint);
+            when(port.getConnection()).thenReturn(connection);
+            when(connection.requestWait()).thenAnswer(invocation -> {
+                readThread = Thread.currentThread();
+                UsbRequest request = queued.poll(100, TimeUnit.MILLISECONDS);
+                if (request != null) {
+                    ByteBuffer buffer = (ByteBuffer) request.getClientData();
+                    buffer.clear();
+                    buffer.putLong(0, System.nanoTime());
+                    buffer.position(buffer.capacity()); // a full buffer came in
+                }
+                return request;
+            });
+            doAnswer(invocation -> {
+                writeThread = Thread.currentThread();
+                written += (int) invocation.getArgument(2);
+                writes++;
+                return null;
+            }).when(port).write(any(byte[].class), anyInt(), anyInt(), anyInt());
+        }
+
+        UsbRequest newRequest() {
+            UsbRequest request = mock(UsbRequest.class, withSettings().stubOnly());
+            Object[] clientData = new Object[1];
+            doAnswer(invocation -> clientData[0] = invocation.getArgument(0)).when(request).setClientData(any());
+            when(request.getClientData()).thenAnswer(invocation -> clientData[0]);
+            when(request.queue(any(ByteBuffer.class))).thenAnswer(invocation -> queued.add(request));
+            return request;
+        }
+    }
+
+    /**
+     * Counts reads and their latency from completion to the listener, allocating nothing. Reads
+     * come in place, or as a copy when set as a plain Listener.
+     */
+    private static class Reader implements SerialInputOutputManager.Listener, SerialInputOutputManager.BufferListener {
+        final long[] latencies = new long[1 << 21];
+        volatile int reads;
+        volatile long bytes;
+
+        @Override
+        public void onNewData(byte[] data) {
+            received(data, data.length);
+        }
+
+        @Override
+        public void onNewData(ByteBuffer data, int length) {
+            received(data.array(), length);
+        }
+
+        private void received(byte[] data, int length) {
+            long now = System.nanoTime();
+            long completed = 0;
+            for (int i = 0; i < 8; i++) {
+                completed = (completed << 8) | (data[i] & 0xFF); // as ByteBuffer.putLong wrote it
+            }
+            if (reads < latencies.length) {
+                latencies[reads] = now - completed;
+            }
+            bytes += length;
+            reads++;
+        }
+
+        @Override
+        public void onRunError(Exception e) {
+        }
+    }
+
+    private static long allocatedBytes(Thread thread) {
+        return THREADS.getThreadAllocatedBytes(thread.getId());
+    }
+
+    private static void stop(SerialInputOutputManager manager) throws InterruptedException {
+        manager.stop();
+        while (manager.getState() != SerialInputOutputManager.State.STOPPED) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    /** Bytes allocated per call of step, on a thread of its own like the manager's. */
+    private static double allocationPerCall(Callable<?> step) throws Exception {
+        int n = 5000;
+        double[] result = new double[1];
+        Exception[] failure = new Exception[1];
+        Thread thread = new Thread(() -> {
+            try {
+                for (int i = 0; i < n; i++) {
+                    step.call(); // warm up
+                }
+                long before = allocatedBytes(Thread.currentThread());
+                for (int i = 0; i < n; i++) {
+                    step.call();
+                }
+                result[0] = (allocatedBytes(Thread.currentThread()) - before) / (double) n;
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return result[0];
+    }
+
+    /** Bytes the mocks allocate for one read step: getConnection, requestWait, getClientData and queue. */
+    private static double readMockAllocation(int bufferSize) throws Exception {
+        InstantPort port = new InstantPort();
+        UsbRequest request = port.newRequest();
+        request.setClientData(ByteBuffer.allocate(bufferSize));
+        request.queue((ByteBuffer) request.getClientData());
+        return allocationPerCall(() -> {
+            UsbRequest completed = port.port.getConnection().requestWait();
+            return completed.queue((ByteBuffer) completed.getClientData());
+        });
+    }
+
+    /** Bytes the mock port allocates for one write. */
+    private static double writeMockAllocation() throws Exception {
+        InstantPort port = new InstantPort();
+        byte[] data = new byte[2048];
+        return allocationPerCall(() -> {
+            port.port.write(data, 1024, 1024, 0); // boxed like the ring offsets written from
+            return null;
+        });
+    }
+
+    private static String readRun(boolean inPlace, int bufferCount, int bufferSize) throws Exception {
+        double mockAllocation = readMockAllocation(bufferSize);
+        InstantPort port = new InstantPort();
+        Reader reader = new Reader();
+        SerialInputOutputManager manager = new SerialInputOutputManager(port.port);
+        if (inPlace) {
+            manager.setBufferListener(reader);
+        } else {
+            manager.setListener(reader);
+        }
+        manager.setRequestSupplier(port::newRequest);
+        manager.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+        manager.setReadBufferCount(bufferCount);
+        manager.setReadBufferSize(bufferSize);
+        manager.start();
+
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(WARMUP_NANOS));
+        Thread readThread = port.readThread;
+        int reads = reader.reads;
+        long bytes = reader.bytes;
+        long allocated = allocatedBytes(readThread);
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(RUN_NANOS));
+        long elapsed = System.nanoTime() - start;
+        long runAllocated = allocatedBytes(readThread) - allocated;
+        int runReads = reader.reads - reads;
+        long runBytes = reader.bytes - bytes;
+        stop(manager);
+
+        assertTrue(runReads > 0);
+        long[] latencies = Arrays.copyOfRange(reader.latencies, reads, Math.min(reads + runReads, reader.latencies.length));
+        Arrays.sort(latencies);
+        return String.format("%-8s %6d %7d %9.1f %9d %7.1f %7.1f %7.1f %8.1f %12.0f",
+            inPlace ? "buffer" : "byte[]", bufferCount, bufferSize, runBytes / (elapsed / 1e9) / 1e6, (long) (runReads / (elapsed / 1e9)),
+            percentile(latencies, 0.5) / 1e3, percentile(latencies, 0.9) / 1e3,
+            percentile(latencies, 0.99) / 1e3, latencies[latencies.length - 1] / 1e3,
+            Math.max(0, runAllocated / (double) runReads - mockAllocation));
+    }
+
+    private static String writeRun(int writeBufferSize, int writeSize) throws Exception {
+        double mockAllocation = writeMockAllocation();
+        InstantPort port = new InstantPort();
+        SerialInputOutputManager manager = new SerialInputOutputManager(port.port);
+        manager.setRequestSupplier(port::newRequest);
+        manager.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+        manager.setWriteBufferSize(writeBufferSize);
+        manager.start();
+
+        byte[] data = new byte[writeSize];
+        long[] latencies = new long[1 << 21];
+        int calls = 0;
+        long runStart = 0;
+        long written = 0;
+        long writes = 0;
+        long allocated = 0;
+        Thread writeThread = null;
+        long start = System.nanoTime();
+        while (true) {
+            long before = System.nanoTime();
+            if (runStart == 0 && before - start >= WARMUP_NANOS) {
+                runStart = before;
+                writeThread = port.writeThread;
+                written = port.written;
+                writes = port.writes;
+                allocated = allocatedBytes(writeThread);
+            } else if (runStart != 0 && before - runStart >= RUN_NANOS) {
+                break;
+            }
+            manager.writeAsync(data);
+            if (runStart != 0 && calls < latencies.length) {
+                latencies[calls++] = System.nanoTime() - before;
+            }
+        }
+        long elapsed = System.nanoTime() - runStart;
+        long runWritten = port.written - written;
+        long runWrites = port.writes - writes;
+        long runAllocated = allocatedBytes(writeThread) - allocated;
+        stop(manager);
+
+        assertTrue(runWrites > 0);
+        latencies = Arrays.copyOf(latencies, calls);
+        Arrays.sort(latencies);
+        return String.format("%7d %6d %9.1f %9d %9.1f %7.1f %7.1f %8.1f %12.0f",
+            writeBufferSize, writeSize, runWritten / (elapsed / 1e9) / 1e6, (long) (runWrites / (elapsed / 1e9)),
+            runWritten / (double) runWrites, percentile(latencies, 0.5) / 1e3, percentile(latencies, 0.99) / 1e3,
+            latencies[latencies.length - 1] / 1e3, Math.max(0, runAllocated / (double) runWrites - mockAllocation));
+    }
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Assume.assumeTrue("benchmark not requested", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test(timeout = 60000)
+    public void readPath() throws Exception {
+        System.out.println("Read path: reads complete as soon as they are queued");
+        System.out.println("listener buffers    size      MB/s   reads/s  p50 us  p90 us  p99 us   max us  alloc B/read");
+        for (boolean inPlace : new boolean[]{false, true}) {
+            for (int count : READ_BUFFER_COUNTS) {
+                for (int size : READ_BUFFER_SIZES) {
+                    System.out.println(readRun(inPlace, count, size));
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void writePath() throws Exception {
+        System.out.println("Write path: writeAsync as fast as the port takes it; latency is of the writeAsync call");
+        System.out.println(" buffer  write      MB/s  writes/s  B/write  p50 us  p99 us   max us alloc B/write");
+        for (int bufferSize : WRITE_BUFFER_SIZES) {
+            for (int writeSize : WRITE_SIZES) {
+                System.out.println(writeRun(bufferSize, writeSize));
+            }
+        }
+    }
+}
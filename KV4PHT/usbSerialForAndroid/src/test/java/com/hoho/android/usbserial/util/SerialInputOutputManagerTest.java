@@ -0,0 +1,329 @@
+package com.hoho.android.usbserial.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.os.Process;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class SerialInputOutputManagerTest {
+
+    private static final byte AUDIO = 0x55;
+    private static final byte PTT_UP = 0x7E;
+    private static final int AUDIO_FRAME = 150;
+    private static final int BACKLOG = 90000; // as RadioAudioService sizes the write buffer
+    private static final long NANOS_PER_BYTE = 10000; // a port taking about 100 kB/s
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final BlockingQueue<byte[]> incoming = new LinkedBlockingQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64);
+    private final Semaphore portPermits = new Semaphore(Integer.MAX_VALUE); // one per port write
+    private final List<Integer> writeOffsets = new CopyOnWriteArrayList<>();
+    private volatile long pttWrittenAt;
+    private SerialInputOutputManager manager;
+
+    /**
+     * A port that reads what is put in incoming, takes its time with every write, each once
+     * permitted, and notes when the PTT release went out.
+     */
+    private SerialInputOutputManager start() throws Exception {
+        UsbSerialPort port = mock(UsbSerialPort.class);
+        UsbEndpoint endpoint = mock(UsbEndpoint.class);
+        UsbDeviceConnection connection = mock(UsbDeviceConnection.class);
+        UsbRequest request = mock(UsbRequest.class);
+        when(endpoint.getMaxPacketSize()).thenReturn(64);
+        when(port.getReadEndpoint()).thenReturn(endpoint);
+        when(port.getConnection()).thenReturn(connection);
+        when(request.getClientData()).thenReturn(readBuffer);
+        when(request.queue(any(ByteBuffer.class))).thenReturn(true);
+        when(connection.requestWait()).thenAnswer(invocation -> {
+            byte[] data = incoming.poll(5, TimeUnit.MILLISECONDS);
+            if (data != null) {
+                readBuffer.put(data);
+            }
+            return request;
+        });
+        doAnswer(invocation -> {
+            byte[] data = invocation.getArgument(0);
+            int offset = invocation.getArgument(1);
+            int length = invocation.getArgument(2);
+            portPermits.acquire();
+            writeOffsets.add(offset);
+            LockSupport.parkNanos(length * NANOS_PER_BYTE);
+            synchronized (written) {
+                for (int i = offset; i < offset + length; i++) {
+                    if (data[i] == PTT_UP) {
+                        pttWrittenAt = System.nanoTime();
+                    }
+                }
+                written.write(data, offset, length);
+            }
+            return null;
+        }).when(port).write(any(byte[].class), anyInt(), anyInt(), anyInt());
+
+        manager = new SerialInputOutputManager(port);
+        manager.setRequestSupplier(() -> request);
+        manager.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+        manager.setWriteBufferSize(BACKLOG);
+        manager.start();
+        return manager;
+    }
+
+    @After
+    public void stop() {
+        if (manager != null) {
+            manager.stop();
+        }
+    }
+
+    private static void fill(ByteBuffer buffer, byte value, int length) {
+        for (int i = 0; i < length; i++) {
+            buffer.put(value);
+        }
+    }
+
+    private void queueAudioBacklog() {
+        for (int i = 0; i < BACKLOG / AUDIO_FRAME; i++) {
+            manager.writeAsync(AUDIO_FRAME, buffer -> fill(buffer, AUDIO, AUDIO_FRAME));
+        }
+    }
+
+    private byte[] waitForAllWritten(int total) throws InterruptedException {
+        while (true) {
+            synchronized (written) {
+                if (written.size() >= total) {
+                    return written.toByteArray();
+                }
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /** Nanoseconds from releasing PTT behind a full audio backlog until the port writes it. */
+    private long releaseLatency(boolean priority) throws Exception {
+        start();
+        queueAudioBacklog();
+        long releasedAt = System.nanoTime();
+        if (priority) {
+            manager.writePriorityAsync(7, buffer -> fill(buffer, PTT_UP, 7));
+        } else {
+            manager.writeAsync(7, buffer -> fill(buffer, PTT_UP, 7));
+        }
+        byte[] stream = waitForAllWritten(BACKLOG + 7);
+        assertEquals(BACKLOG + 7, stream.length);
+        return pttWrittenAt - releasedAt;
+    }
+
+    @Test(timeout = 5000)
+    public void bufferListenerReadsInPlaceFromTheReadPool() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        start();
+        manager.setBufferListener(new SerialInputOutputManager.BufferListener() {
+            @Override
+            public void onNewData(ByteBuffer data, int length) {
+                assertSame(readBuffer, data);
+                assertEquals(0, data.position());
+                assertEquals(length, data.limit());
+                byte[] copy = new byte[length];
+                data.get(copy);
+                received.add(Arrays.toString(copy));
+            }
+
+            @Override
+            public void onRunError(Exception e) {
+            }
+        });
+        assertNull(manager.getListener());
+        incoming.add(new byte[]{1, 2, 3});
+        incoming.add(new byte[]{4, 5});
+        while (received.size() < 2) {
+            Thread.sleep(1);
+        }
+        assertEquals(Arrays.asList("[1, 2, 3]", "[4, 5]"), received);
+    }
+
+    @Test(timeout = 5000)
+    public void listenerStillGetsACopyOfEveryRead() throws Exception {
+        List<byte[]> received = new CopyOnWriteArrayList<>();
+        SerialInputOutputManager.Listener listener = new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data) {
+                received.add(data);
+            }
+
+            @Override
+            public void onRunError(Exception e) {
+            }
+        };
+        start();
+        manager.setListener(listener);
+        assertSame(listener, manager.getListener());
+        assertNotNull(manager.getBufferListener());
+        incoming.add(new byte[]{1, 2, 3});
+        incoming.add(new byte[]{4, 5});
+        while (received.size() < 2) {
+            Thread.sleep(1);
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, received.get(0));
+        assertArrayEquals(new byte[]{4, 5}, received.get(1));
+    }
+
+    @Test(timeout = 20000)
+    public void priorityWriteGoesOutBetweenQueuedWrites() throws Exception {
+        releaseLatency(true);
+        byte[] stream = written.toByteArray();
+        int at = 0;
+        while (stream[at] != PTT_UP) {
+            at++;
+        }
+        assertEquals("inside an audio frame", 0, at % AUDIO_FRAME);
+        assertTrue("not ahead of the backlog", at < BACKLOG);
+        byte[] ptt = new byte[7];
+        Arrays.fill(ptt, PTT_UP);
+        assertTrue(Arrays.equals(ptt, Arrays.copyOfRange(stream, at, at + 7)));
+        for (int i = 0; i < stream.length; i++) {
+            if (i < at || i >= at + 7) {
+                assertEquals(AUDIO, stream[i]);
+            }
+        }
+        assertEquals(0, manager.getPendingWriteBytes());
+    }
+
+    @Test(timeout = 20000)
+    public void writesStayInOrderWithinTheQueue() throws Exception {
+        start();
+        manager.setWriteChunkSize(100);
+        for (int i = 0; i < 1000; i++) {
+            final byte value = (byte) i;
+            final int length = 1 + i % 300; // some longer than a chunk
+            manager.writeAsync(length, buffer -> fill(buffer, value, length));
+        }
+        int total = 0;
+        for (int i = 0; i < 1000; i++) {
+            total += 1 + i % 300;
+        }
+        byte[] stream = waitForAllWritten(total);
+        int position = 0;
+        for (int i = 0; i < 1000; i++) {
+            for (int n = 0; n < 1 + i % 300; n++) {
+                assertEquals((byte) i, stream[position++]);
+            }
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void tryWriteAsyncDoesNotBlockOnAFullBuffer() throws Exception {
+        portPermits.drainPermits(); // the port takes nothing yet
+        start();
+        manager.setWriteBufferSize(1000);
+        byte[] data = new byte[300];
+        for (int i = 0; i < 3; i++) {
+            assertTrue(manager.tryWriteAsync(data));
+        }
+        assertEquals(900, manager.getPendingWriteBytes());
+        assertEquals(100, manager.getAvailableWriteBytes());
+        assertFalse(manager.tryWriteAsync(data));
+        long before = System.nanoTime();
+        assertFalse(manager.tryWriteAsync(300, buffer -> buffer.put(data), 20, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - before >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(900, manager.getPendingWriteBytes());
+
+        portPermits.release(Integer.MAX_VALUE);
+        waitForAllWritten(900);
+        while (manager.getPendingWriteBytes() > 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(1000, manager.getAvailableWriteBytes());
+    }
+
+    /*
+     * A write that does not fit before the end of the ring goes to its start, and is written from
+     * there in place; resizing the ring keeps the queue as it was.
+     */
+    @Test(timeout = 5000)
+    public void writesWrapAroundTheRingInOnePiece() throws Exception {
+        portPermits.drainPermits();
+        start();
+        manager.setWriteBufferSize(1000);
+        manager.setWriteChunkSize(300);
+        for (byte value = 'A'; value <= 'C'; value++) {
+            final byte v = value;
+            assertTrue(manager.tryWriteAsync(300, buffer -> fill(buffer, v, 300)));
+        }
+        assertFalse(manager.tryWriteAsync(300, buffer -> fill(buffer, (byte) 'D', 300)));
+        portPermits.release(); // A is written, making room at the start
+        while (manager.getAvailableWriteBytes() < 300) {
+            Thread.sleep(1);
+        }
+        assertTrue(manager.tryWriteAsync(300, buffer -> fill(buffer, (byte) 'D', 300)));
+        assertEquals(900, manager.getPendingWriteBytes());
+        portPermits.release(Integer.MAX_VALUE);
+        assertEquals("AAABBBCCCDDD", sample(waitForAllWritten(1200)));
+        assertEquals(Arrays.asList(0, 300, 600, 0), writeOffsets);
+        while (manager.getPendingWriteBytes() > 0) {
+            Thread.sleep(1);
+        }
+
+        portPermits.drainPermits();
+        written.reset();
+        assertTrue(manager.tryWriteAsync(300, buffer -> fill(buffer, (byte) 'E', 300)));
+        assertTrue(manager.tryWriteAsync(300, buffer -> fill(buffer, (byte) 'F', 300)));
+        manager.setWriteBufferSize(2000);
+        assertEquals(1400, manager.getAvailableWriteBytes());
+        assertTrue(manager.tryWriteAsync(1400, buffer -> fill(buffer, (byte) 'G', 1400)));
+        portPermits.release(Integer.MAX_VALUE);
+        assertEquals("EEEFFFGGGGGGGGGGGGGG", sample(waitForAllWritten(2000)));
+    }
+
+    // every hundredth byte written
+    private static String sample(byte[] stream) {
+        StringBuilder sample = new StringBuilder();
+        for (int i = 0; i < stream.length; i += 100) {
+            sample.append((char) stream[i]);
+        }
+        return sample.toString();
+    }
+
+    /*
+     * PTT release latency behind a full 90000 byte audio backlog: in the queue it waits for the
+     * whole backlog to drain, about 0.9 s at this port speed; as a priority write it waits for
+     * the chunk being written, about 10 ms.
+     */
+    @Test(timeout = 30000)
+    public void pttReleaseLatencyUnderFullAudioBacklog() throws Exception {
+        long queued = releaseLatency(false);
+        stop();
+        written.reset();
+        long priority = releaseLatency(true);
+        assertTrue("queued " + queued / 1e6 + " ms", queued > 500_000_000L);
+        assertTrue("priority " + priority / 1e6 + " ms", priority < 100_000_000L);
+    }
+}